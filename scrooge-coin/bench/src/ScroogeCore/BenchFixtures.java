@@ -0,0 +1,149 @@
+package ScroogeCore;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+
+/**
+ * Reproducible inputs for the benchmarks. Keys come from a seeded generator and both RSA (PKCS#1 v1.5) and
+ * Ed25519 signatures are deterministic, so every run signs, hashes and validates exactly the same bytes. All signing happens while the
+ * fixtures are built, never inside a measured method.
+ */
+class BenchFixtures {
+
+    static final long SEED = 0x5c400ce0L;
+
+    static final int KEY_BITS = 2048;
+
+    /** key size the JDK's Ed25519 generator takes */
+    static final int ED25519_KEY_BITS = 255;
+
+    /** value of every genesis output; each transaction of a batch moves part of it on */
+    static final double GENESIS_VALUE = 100;
+
+    final KeyPair[] keys;
+
+    /** coinbase transaction whose outputs fund the batches */
+    final Transaction genesis;
+
+    /** @param numKeys number of owners the outputs are spread over, with RSA keys */
+    BenchFixtures(int numKeys) {
+        this(numKeys, SignatureScheme.RSA);
+    }
+
+    /** @param numKeys number of owners the outputs are spread over, with keys of {@code scheme} */
+    BenchFixtures(int numKeys, SignatureScheme scheme) {
+        keys = new KeyPair[numKeys];
+        try {
+            SecureRandom random = SecureRandom.getInstance("SHA1PRNG");
+            // seeding before the first use replaces the system seed, making the keys the same on every run
+            random.setSeed(SEED);
+            KeyPairGenerator keyGen;
+            if (scheme == SignatureScheme.ED25519) {
+                keyGen = KeyPairGenerator.getInstance("Ed25519");
+                keyGen.initialize(ED25519_KEY_BITS, random);
+            } else {
+                keyGen = KeyPairGenerator.getInstance("RSA");
+                keyGen.initialize(KEY_BITS, random);
+            }
+            for (int i = 0; i < numKeys; i++)
+                keys[i] = keyGen.generateKeyPair();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+        genesis = new Transaction();
+    }
+
+    PublicKey owner(int i) {
+        return keys[i % keys.length].getPublic();
+    }
+
+    PrivateKey signer(int i) {
+        return keys[i % keys.length].getPrivate();
+    }
+
+    /** Adds {@code numOutputs} outputs to the genesis transaction and hashes it */
+    void fundGenesis(int numOutputs) {
+        for (int i = 0; i < numOutputs; i++)
+            genesis.addOutput(GENESIS_VALUE, owner(i));
+        genesis.finalize();
+    }
+
+    /** @return a new heap pool holding the outputs of the genesis transaction */
+    UTXOPool genesisPool() {
+        UTXOPool pool = new UTXOPool();
+        for (int i = 0; i < genesis.numOutputs(); i++)
+            pool.addUTXO(new UTXO(genesis.getHash(), i), genesis.getOutput(i));
+        return pool;
+    }
+
+    /** @return {@code n} transactions each spending its own genesis output */
+    Transaction[] independentBatch(int n) {
+        Transaction[] txs = new Transaction[n];
+        for (int i = 0; i < n; i++)
+            txs[i] = spend(genesis.getHash(), i, i, i + 1, GENESIS_VALUE - 1);
+        return txs;
+    }
+
+    /**
+     * @return a chain of {@code n} transactions, each spending the output of the one before, the first spending
+     *         genesis output 0; the chain is returned last link first so every transaction waits on the next
+     */
+    Transaction[] chainedBatch(int n) {
+        Transaction[] txs = new Transaction[n];
+        byte[] prevHash = genesis.getHash();
+        for (int i = 0; i < n; i++) {
+            Transaction tx = spend(prevHash, 0, i, i + 1, GENESIS_VALUE - 1 - i * 1e-6);
+            txs[n - 1 - i] = tx;
+            prevHash = tx.getHash();
+        }
+        return txs;
+    }
+
+    /**
+     * @return {@code n} transactions in which every genesis output is claimed by {@code ways} competing spends
+     *         to different owners, so at most one transaction in {@code ways} can be accepted
+     */
+    Transaction[] conflictingBatch(int n, int ways) {
+        Transaction[] txs = new Transaction[n];
+        for (int i = 0; i < n; i++) {
+            int spent = i / ways;
+            txs[i] = spend(genesis.getHash(), spent, spent, spent + 1 + i % ways, GENESIS_VALUE - 1 - i % ways);
+        }
+        return txs;
+    }
+
+    /** @return a signed, hashed transaction moving output {@code index} of {@code prevHash} to one new owner */
+    Transaction spend(byte[] prevHash, int index, int from, int to, double value) {
+        Transaction tx = new Transaction();
+        tx.addInput(prevHash, index);
+        tx.addOutput(value, owner(to));
+        sign(tx, 0, signer(from));
+        tx.finalize();
+        return tx;
+    }
+
+    static void sign(Transaction tx, int input, PrivateKey key) {
+        Crypto.signInput(key, tx, input);
+    }
+
+    /**
+     * @return the hash of synthetic transaction {@code n}: 32 well mixed bytes, distinct for every {@code n},
+     *         much cheaper to make by the hundred million than a real SHA-256
+     */
+    static byte[] syntheticHash(long n) {
+        byte[] hash = new byte[UTXOTable.HASH_BYTES];
+        long x = n;
+        for (int w = 0; w < 4; w++) {
+            x += 0x9E3779B97F4A7C15L;
+            long z = x;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            UTXOTable.writeLong(hash, w * 8, z ^ (z >>> 31));
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,74 @@
+package ScroogeCore;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-transaction costs: hashing ({@link Transaction#finalize}), building the data to sign, and signing and
+ * verifying a signature with {@link Crypto}, for RSA and Ed25519 keys. Runs with the signature cache off,
+ * measuring the signature check itself.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dscrooge.signatureCacheSize=0")
+@State(Scope.Benchmark)
+public class TransactionBenchmark {
+
+    /** inputs and outputs of the measured transaction */
+    @Param({"1", "8"})
+    int width;
+
+    @Param({"RSA", "ED25519"})
+    SignatureScheme scheme;
+
+    Transaction tx;
+    byte[] message;
+    byte[] signature;
+    PublicKey signer;
+    PrivateKey signingKey;
+
+    @Setup
+    public void setUp() {
+        BenchFixtures fixtures = new BenchFixtures(width, scheme);
+        fixtures.fundGenesis(width);
+        tx = new Transaction();
+        for (int i = 0; i < width; i++)
+            tx.addInput(fixtures.genesis.getHash(), i);
+        for (int i = 0; i < width; i++)
+            tx.addOutput(BenchFixtures.GENESIS_VALUE - 1, fixtures.owner(i + 1));
+        for (int i = 0; i < width; i++)
+            BenchFixtures.sign(tx, i, fixtures.signer(i));
+        tx.finalize();
+
+        message = tx.getRawDataToSign(0);
+        signature = tx.getInput(0).signature;
+        signer = fixtures.owner(0);
+        signingKey = fixtures.signer(0);
+    }
+
+    @Benchmark
+    public byte[] finalizeTx() {
+        tx.finalize();
+        return tx.getHash();
+    }
+
+    @Benchmark
+    public byte[] getRawDataToSign() {
+        return tx.getRawDataToSign(0);
+    }
+
+    @Benchmark
+    public byte[] sign() {
+        return Crypto.sign(signingKey, message);
+    }
+
+    @Benchmark
+    public boolean verifySignature() {
+        return Crypto.verifySignature(signer, message, signature);
+    }
+}
@@ -0,0 +1,124 @@
+package ScroogeCore;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validation throughput: a single {@link TxHandler#isValidTx} and whole epochs through {@link TxHandler#handleTxs}
+ * for batches of independent, chained and heavily conflicting transactions, and the epochs of a
+ * {@link WorkloadCorpus} one after the other. Runs with the signature cache off so every epoch pays for its
+ * signatures, as a node does for transactions it has not seen before.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dscrooge.signatureCacheSize=0")
+public class TxHandlerBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Single {
+        TxHandler handler;
+        Transaction tx;
+
+        @Setup
+        public void setUp() {
+            BenchFixtures fixtures = new BenchFixtures(2);
+            fixtures.fundGenesis(1);
+            handler = new TxHandler(fixtures.genesisPool());
+            tx = fixtures.independentBatch(1)[0];
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Epoch {
+        @Param({"independent", "chained", "conflicting"})
+        String shape;
+
+        @Param({"100", "1000"})
+        int batchSize;
+
+        /** verify the signatures of the epoch on the common fork/join pool before walking it */
+        @Param({"false", "true"})
+        boolean parallel;
+
+        BenchFixtures fixtures;
+        Transaction[] txs;
+        TxHandler handler;
+
+        @Setup(Level.Trial)
+        public void setUpTrial() {
+            fixtures = new BenchFixtures(16);
+            fixtures.fundGenesis(batchSize);
+            if (shape.equals("independent"))
+                txs = fixtures.independentBatch(batchSize);
+            else if (shape.equals("chained"))
+                txs = fixtures.chainedBatch(batchSize);
+            else
+                txs = fixtures.conflictingBatch(batchSize, 4);
+        }
+
+        /** handleTxs spends from the pool it is given, so every epoch starts from a fresh one */
+        @Setup(Level.Invocation)
+        public void setUpInvocation() {
+            handler = new TxHandler(fixtures.genesisPool());
+            if (parallel)
+                handler.setVerificationExecutor(ForkJoinPool.commonPool());
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Replay {
+        /** corpus file written by {@link WorkloadGenerator}; empty generates a small default one at setup */
+        @Param("")
+        String corpus;
+
+        WorkloadCorpus workload;
+        TxHandler handler;
+
+        @Setup(Level.Trial)
+        public void setUpTrial() throws IOException {
+            if (!corpus.isEmpty()) {
+                workload = WorkloadCorpus.read(Paths.get(corpus));
+                return;
+            }
+            Path file = Files.createTempFile("workload", ".corpus");
+            try {
+                new WorkloadGenerator(16, SignatureScheme.RSA).write(file);
+                workload = WorkloadCorpus.read(file);
+            } finally {
+                Files.delete(file);
+            }
+        }
+
+        @Setup(Level.Invocation)
+        public void setUpInvocation() {
+            handler = new TxHandler(workload.genesisPool());
+        }
+    }
+
+    @Benchmark
+    public boolean isValidTx(Single s) {
+        return s.handler.isValidTx(s.tx);
+    }
+
+    @Benchmark
+    public Transaction[] handleTxs(Epoch e) {
+        return e.handler.handleTxs(e.txs);
+    }
+
+    /** @return the number of transactions accepted over the whole corpus */
+    @Benchmark
+    public int replayCorpus(Replay r) {
+        int accepted = 0;
+        for (Transaction[] epoch : r.workload.epochs)
+            accepted += r.handler.handleTxs(epoch).length;
+        return accepted;
+    }
+}
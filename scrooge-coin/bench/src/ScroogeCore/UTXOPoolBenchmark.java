@@ -0,0 +1,102 @@
+package ScroogeCore;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups and add/remove churn on pools of one to a hundred million UTXOs, for every backend. The pool is filled
+ * once per trial with synthetic 32-byte hashes; churn removes an existing entry and adds a new one, so the size
+ * holds steady across iterations. The largest pools need tens of gigabytes of heap or direct memory (pass
+ * {@code -Xmx} or {@code -XX:MaxDirectMemorySize} with {@code -jvmArgsAppend}), or narrow the run with
+ * {@code -p size=...}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UTXOPoolBenchmark {
+
+    /** number of precomputed probes, a power of two */
+    private static final int PROBES = 1 << 16;
+
+    @Param({"1000000", "10000000", "100000000"})
+    int size;
+
+    @Param({"heap", "offheap", "sharded"})
+    String backend;
+
+    UTXOPool pool;
+
+    /** outputs shared by all entries; the pool stores references or key ids, never copies of the key */
+    Transaction.Output[] outputs;
+
+    UTXO[] present;
+    UTXO[] absent;
+    int next;
+
+    /** synthetic transaction number of the next UTXO churn adds, and of the oldest one it has not removed */
+    long added;
+    long removed;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchFixtures fixtures = new BenchFixtures(8);
+        outputs = new Transaction.Output[fixtures.keys.length];
+        for (int i = 0; i < outputs.length; i++)
+            outputs[i] = new Transaction.Output(1, fixtures.owner(i));
+
+        if (backend.equals("offheap"))
+            pool = new OffHeapUTXOPool(size);
+        else if (backend.equals("sharded"))
+            pool = new ShardedUTXOPool();
+        else
+            pool = new UTXOPool();
+        for (int i = 0; i < size; i++)
+            pool.addUTXO(utxo(i), outputs[i % outputs.length]);
+        added = size;
+        removed = 0;
+
+        // probes are spread evenly over the pool, so they miss the caches the way random lookups would
+        present = new UTXO[PROBES];
+        absent = new UTXO[PROBES];
+        long stride = Math.max(1, size / PROBES);
+        for (int i = 0; i < PROBES; i++) {
+            present[i] = utxo((i * stride) % size);
+            absent[i] = utxo(-1 - i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        // let the next trial's pool have the memory of this one
+        pool = null;
+    }
+
+    private static UTXO utxo(long n) {
+        return new UTXO(BenchFixtures.syntheticHash(n), (int) (n & 3));
+    }
+
+    @Benchmark
+    public Transaction.Output lookupPresent() {
+        return pool.getTxOutput(present[next++ & (PROBES - 1)]);
+    }
+
+    @Benchmark
+    public boolean lookupAbsent() {
+        return pool.contains(absent[next++ & (PROBES - 1)]);
+    }
+
+    /**
+     * Removes the oldest entry and adds a new one. Building the two UTXOs is part of the measurement, as it is for
+     * a handler that gets them from incoming transactions.
+     */
+    @Benchmark
+    public void removeAndAdd() {
+        pool.removeUTXO(utxo(removed++));
+        long n = added++;
+        pool.addUTXO(utxo(n), outputs[(int) (n % outputs.length)]);
+    }
+}
@@ -0,0 +1,264 @@
+package ScroogeCore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.PublicKey;
+import java.util.ArrayList;
+
+/**
+ * A pre-signed workload written by {@link WorkloadGenerator}: a genesis transaction and the epochs of transactions
+ * proposed after it. Loading a corpus decodes bytes and nothing else, so a load or benchmark run starts in seconds
+ * instead of re-signing every transaction.
+ *
+ * The file holds, big-endian:
+ * <ul>
+ * <li>a header: magic, version and the owner keys, each once, as key algorithm and encoded key;</li>
+ * <li>the genesis outputs, each an owner number and a value;</li>
+ * <li>the epochs, each the hashes of its transactions followed by the transactions in arrival order.</li>
+ * </ul>
+ * Transactions are numbered across the file from 1, genesis being 0, and an input names the transaction it spends
+ * from by number instead of by hash; counts, numbers and lengths are written as variable-length ints. Stored
+ * hashes are taken as they are, as by {@link TransactionCodec#decode}.
+ */
+public class WorkloadCorpus {
+
+    static final int MAGIC = 0x5343574c;
+    static final int VERSION = 1;
+
+    final PublicKey[] keys;
+
+    /** coinbase transaction whose outputs the first epoch spends */
+    public final Transaction genesis;
+
+    /** the proposed transactions of every epoch, in arrival order */
+    public final Transaction[][] epochs;
+
+    private WorkloadCorpus(PublicKey[] keys, Transaction genesis, Transaction[][] epochs) {
+        this.keys = keys;
+        this.genesis = genesis;
+        this.epochs = epochs;
+    }
+
+    /** @return a new heap pool holding the outputs of the genesis transaction */
+    public UTXOPool genesisPool() {
+        UTXOPool pool = new UTXOPool();
+        for (int i = 0; i < genesis.numOutputs(); i++)
+            pool.addUTXO(new UTXO(genesis.getHash(), i), genesis.getOutput(i));
+        return pool;
+    }
+
+    /** @return the number of transactions over all epochs */
+    public int size() {
+        int size = 0;
+        for (Transaction[] epoch : epochs)
+            size += epoch.length;
+        return size;
+    }
+
+    /** @return the corpus in {@code file}, held in memory */
+    public static WorkloadCorpus read(Path file) throws IOException {
+        ArrayList<Transaction[]> epochs = new ArrayList<Transaction[]>();
+        Reader reader = new Reader(file);
+        try {
+            Transaction[] epoch;
+            while ((epoch = reader.next()) != null)
+                epochs.add(epoch);
+        } finally {
+            reader.in.close();
+        }
+        return new WorkloadCorpus(reader.keys, reader.genesis, epochs.toArray(new Transaction[epochs.size()][]));
+    }
+
+    /**
+     * Streams the epochs of the corpus in {@code file} to {@code visitor}, numbered from 1, holding no more than
+     * one epoch and the transaction hashes in memory
+     *
+     * @return the genesis transaction
+     */
+    public static Transaction replay(Path file, BlockLog.EpochVisitor visitor) throws IOException {
+        Reader reader = new Reader(file);
+        try {
+            Transaction[] epoch;
+            for (long e = 1; (epoch = reader.next()) != null; e++)
+                visitor.visit(e, epoch);
+        } finally {
+            reader.in.close();
+        }
+        return reader.genesis;
+    }
+
+    /** Writes a corpus; the caller supplies the transactions, with their inputs as transaction numbers */
+    static final class Writer {
+        final DataOutputStream out;
+
+        Writer(Path file, PublicKey[] keys, Transaction genesis, int[] genesisOwners) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 20));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeVarInt(out, keys.length);
+            for (PublicKey key : keys) {
+                out.writeUTF(key.getAlgorithm());
+                writeBytes(out, key.getEncoded());
+            }
+            writeVarInt(out, genesis.numOutputs());
+            for (int i = 0; i < genesis.numOutputs(); i++) {
+                writeVarInt(out, genesisOwners[i]);
+                out.writeDouble(genesis.getOutput(i).value);
+            }
+        }
+
+        /** Starts an epoch of the hashed transactions {@code txs}, listed in arrival order */
+        void startEpoch(Transaction[] txs) throws IOException {
+            writeVarInt(out, txs.length);
+            for (Transaction tx : txs)
+                out.write(tx.getHash());
+        }
+
+        /**
+         * Writes the next transaction of the epoch
+         *
+         * @param spentTx  the number of the transaction each input spends from
+         * @param owners   the key number of the owner of each output
+         */
+        void write(Transaction tx, long[] spentTx, int[] owners) throws IOException {
+            writeVarInt(out, tx.numInputs());
+            for (int i = 0; i < tx.numInputs(); i++) {
+                Transaction.Input in = tx.getInput(i);
+                writeVarLong(out, spentTx[i]);
+                writeVarInt(out, in.outputIndex);
+                out.writeByte(in.scheme.id());
+                writeBytes(out, in.signature);
+            }
+            writeVarInt(out, tx.numOutputs());
+            for (int i = 0; i < tx.numOutputs(); i++) {
+                writeVarInt(out, owners[i]);
+                out.writeDouble(tx.getOutput(i).value);
+            }
+        }
+
+        void close() throws IOException {
+            out.close();
+        }
+    }
+
+    private static final class Reader {
+        final DataInputStream in;
+        final PublicKey[] keys;
+        final Transaction genesis;
+
+        /** the hash of every transaction read so far, by number */
+        final ArrayList<byte[]> hashes = new ArrayList<byte[]>();
+
+        Reader(Path file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 20));
+            try {
+                if (in.readInt() != MAGIC)
+                    throw new IOException(file + " is not a workload corpus");
+                int version = in.readInt();
+                if (version != VERSION)
+                    throw new IOException(file + " has unknown corpus version " + version);
+                keys = new PublicKey[readVarInt(in)];
+                for (int k = 0; k < keys.length; k++) {
+                    String algorithm = in.readUTF();
+                    keys[k] = KeyRegistry.getDefault().decode(algorithm, readBytes(in));
+                }
+                genesis = new Transaction();
+                int numOutputs = readVarInt(in);
+                for (int i = 0; i < numOutputs; i++) {
+                    PublicKey owner = keys[readVarInt(in)];
+                    genesis.addOutput(in.readDouble(), owner);
+                }
+                genesis.finalize();
+                hashes.add(genesis.getHash());
+            } catch (IOException | RuntimeException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        /** @return the next epoch, or null at the end of the file */
+        Transaction[] next() throws IOException {
+            int numTxs = in.read();
+            if (numTxs < 0)
+                return null;
+            numTxs = readVarInt(in, numTxs);
+            Transaction[] txs = new Transaction[numTxs];
+            int first = hashes.size();
+            for (int t = 0; t < numTxs; t++) {
+                byte[] hash = new byte[Hash256.BYTES];
+                in.readFully(hash);
+                hashes.add(hash);
+            }
+            for (int t = 0; t < numTxs; t++) {
+                Transaction tx = new Transaction();
+                int numInputs = readVarInt(in);
+                for (int i = 0; i < numInputs; i++) {
+                    long spentTx = readVarLong(in);
+                    if (spentTx >= hashes.size())
+                        throw new IOException("input spends unknown transaction " + spentTx);
+                    tx.addInput(hashes.get((int) spentTx), readVarInt(in));
+                    SignatureScheme scheme = SignatureScheme.fromId(in.readByte());
+                    tx.addSignature(readBytes(in), i, scheme);
+                }
+                int numOutputs = readVarInt(in);
+                for (int i = 0; i < numOutputs; i++) {
+                    PublicKey owner = keys[readVarInt(in)];
+                    tx.addOutput(in.readDouble(), owner);
+                }
+                tx.setHash(hashes.get(first + t));
+                txs[t] = tx;
+            }
+            return txs;
+        }
+    }
+
+    static void writeVarInt(DataOutputStream out, int v) throws IOException {
+        writeVarLong(out, v & 0xffffffffL);
+    }
+
+    static void writeVarLong(DataOutputStream out, long v) throws IOException {
+        while ((v & ~0x7fL) != 0) {
+            out.writeByte((int) (v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    static int readVarInt(DataInputStream in) throws IOException {
+        return (int) readVarLong(in);
+    }
+
+    /** @return a variable-length int whose first byte, {@code first}, was read already */
+    private static int readVarInt(DataInputStream in, int first) throws IOException {
+        if ((first & 0x80) == 0)
+            return first;
+        return (int) ((first & 0x7f) | readVarLong(in) << 7);
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            v |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return v;
+        }
+        throw new IOException("malformed variable-length int");
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,369 @@
+package ScroogeCore;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Generates a synthetic workload of pre-signed transactions against a generated genesis pool and writes it as a
+ * {@link WorkloadCorpus}. The shape of the traffic is set by:
+ * <ul>
+ * <li>fan-in and fan-out, the most inputs and outputs a transaction has (the number is drawn uniformly);</li>
+ * <li>chain depth, the longest chain of transactions of one epoch spending each other's outputs, 1 for none;</li>
+ * <li>the double-spend rate, the share of transactions followed by a rival spending the same outputs to someone
+ * else;</li>
+ * <li>the invalid-signature rate, the share of transactions with a corrupted signature;</li>
+ * <li>the number of keys, which the outputs are spread over at random: the fewer keys, the more each is reused;
+ * </li>
+ * <li>whether an epoch arrives shuffled, children possibly ahead of their parents, or in the order it was
+ * generated. Either way a rival arrives after the transaction it double-spends.</li>
+ * </ul>
+ * Only the outputs of transactions that will be accepted by a {@link TxHandler} are spent again, so rejected
+ * transactions do not take later ones with them. Keys and every random choice come from the seed, so a seed and
+ * a shape always give the same corpus. Transactions are planned one at a time and then signed on the common
+ * fork/join pool, a level of the in-epoch chains at a time.
+ *
+ * Run {@code WorkloadGenerator <file> [name=value ...]} to write a corpus from the command line; the names are
+ * those of the setters plus {@code keys} and {@code scheme}, e.g.
+ * {@code epochs=100 txsPerEpoch=10000 keys=256 scheme=ED25519}.
+ */
+public class WorkloadGenerator {
+
+    /** chance that an input spends an output of the same epoch when chains are on and one is available */
+    private static final double CHAIN_PROBABILITY = 0.5;
+
+    /** the most an epoch's transaction pays in fees, as a share of its inputs */
+    private static final double MAX_FEE_SHARE = 0.01;
+
+    private final BenchFixtures fixtures;
+    private int epochs = 10;
+    private int txsPerEpoch = 1000;
+    private int genesisOutputs = 1000;
+    private int fanIn = 2;
+    private int fanOut = 2;
+    private int chainDepth = 4;
+    private double doubleSpendRate = 0.01;
+    private double invalidSignatureRate = 0.01;
+    private boolean shuffled;
+    private long seed = BenchFixtures.SEED;
+
+    /** An output that can be spent: made by genesis or an earlier epoch, or by a transaction of this epoch */
+    private static final class Coin {
+        final int owner;
+        final double value;
+        final int index;
+
+        /** the transaction's number in the corpus and its hash, once its epoch is written */
+        long txNumber;
+        byte[] txHash;
+
+        /** the planned transaction of this epoch making the output, null once its epoch is written */
+        Planned maker;
+
+        Coin(int owner, double value, int index, Planned maker) {
+            this.owner = owner;
+            this.value = value;
+            this.index = index;
+            this.maker = maker;
+        }
+    }
+
+    /** A transaction of the epoch being generated, before and after signing */
+    private static final class Planned {
+        final Coin[] inputs;
+        final int[] owners;
+        final double[] values;
+        final boolean badSignature;
+
+        /** 0 if it spends no output of the epoch, else one more than the highest level it spends from */
+        final int level;
+
+        /** the outputs that may be spent later: none for a bad signature or a rival */
+        Coin[] made = new Coin[0];
+
+        /** the transaction a rival double-spends, null for any other */
+        Planned original;
+
+        int position;
+        Transaction tx;
+
+        Planned(Coin[] inputs, int[] owners, double[] values, boolean badSignature) {
+            this.inputs = inputs;
+            this.owners = owners;
+            this.values = values;
+            this.badSignature = badSignature;
+            int level = 0;
+            for (Coin in : inputs) {
+                if (in.maker != null)
+                    level = Math.max(level, in.maker.level + 1);
+            }
+            this.level = level;
+        }
+    }
+
+    /** Creates a generator whose outputs are spread over {@code numKeys} owners with keys of {@code scheme} */
+    public WorkloadGenerator(int numKeys, SignatureScheme scheme) {
+        if (numKeys < 2)
+            throw new IllegalArgumentException("need at least 2 keys, got " + numKeys);
+        fixtures = new BenchFixtures(numKeys, scheme);
+    }
+
+    public void setEpochs(int epochs) {
+        this.epochs = atLeast(0, epochs, "epochs");
+    }
+
+    /** Sets the transactions generated per epoch, not counting rivals; an epoch ends early if it runs out of coins */
+    public void setTxsPerEpoch(int txsPerEpoch) {
+        this.txsPerEpoch = atLeast(0, txsPerEpoch, "transactions per epoch");
+    }
+
+    public void setGenesisOutputs(int genesisOutputs) {
+        this.genesisOutputs = atLeast(1, genesisOutputs, "genesis outputs");
+    }
+
+    public void setFanIn(int fanIn) {
+        this.fanIn = atLeast(1, fanIn, "fan-in");
+    }
+
+    public void setFanOut(int fanOut) {
+        this.fanOut = atLeast(1, fanOut, "fan-out");
+    }
+
+    public void setChainDepth(int chainDepth) {
+        this.chainDepth = atLeast(1, chainDepth, "chain depth");
+    }
+
+    public void setDoubleSpendRate(double doubleSpendRate) {
+        this.doubleSpendRate = rate(doubleSpendRate, "double-spend rate");
+    }
+
+    public void setInvalidSignatureRate(double invalidSignatureRate) {
+        this.invalidSignatureRate = rate(invalidSignatureRate, "invalid-signature rate");
+    }
+
+    public void setShuffled(boolean shuffled) {
+        this.shuffled = shuffled;
+    }
+
+    /** Sets the seed of the random choices; the keys always come from {@link BenchFixtures#SEED} */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /** Generates the workload and writes it to {@code file}, holding one epoch in memory at a time */
+    public void write(Path file) throws IOException {
+        Random random = new Random(seed);
+        int numKeys = fixtures.keys.length;
+        PublicKey[] keys = new PublicKey[numKeys];
+        for (int k = 0; k < numKeys; k++)
+            keys[k] = fixtures.owner(k);
+        Transaction genesis = new Transaction();
+        int[] genesisOwners = new int[genesisOutputs];
+        for (int i = 0; i < genesisOutputs; i++) {
+            genesisOwners[i] = random.nextInt(numKeys);
+            genesis.addOutput(BenchFixtures.GENESIS_VALUE, keys[genesisOwners[i]]);
+        }
+        genesis.finalize();
+        ArrayList<Coin> settled = new ArrayList<Coin>(genesisOutputs);
+        for (int i = 0; i < genesisOutputs; i++) {
+            Coin coin = new Coin(genesisOwners[i], BenchFixtures.GENESIS_VALUE, i, null);
+            coin.txHash = genesis.getHash();
+            settled.add(coin);
+        }
+
+        WorkloadCorpus.Writer writer = new WorkloadCorpus.Writer(file, keys, genesis, genesisOwners);
+        try {
+            long nextNumber = 1;
+            for (int e = 0; e < epochs; e++) {
+                ArrayList<Planned> epoch = plan(random, settled);
+                sign(epoch);
+                nextNumber = write(writer, epoch, nextNumber);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /** Plans an epoch spending {@code settled}, which is left holding the coins after it */
+    private ArrayList<Planned> plan(Random random, ArrayList<Coin> settled) {
+        ArrayList<Planned> epoch = new ArrayList<Planned>();
+        ArrayList<Coin> fresh = new ArrayList<Coin>();
+        ArrayList<Coin> next = new ArrayList<Coin>();
+        for (int t = 0; t < txsPerEpoch && !(settled.isEmpty() && fresh.isEmpty()); t++) {
+            int numInputs = 1 + random.nextInt(fanIn);
+            ArrayList<Coin> inputs = new ArrayList<Coin>(numInputs);
+            double sum = 0;
+            for (int i = 0; i < numInputs && !(settled.isEmpty() && fresh.isEmpty()); i++) {
+                boolean chain = !fresh.isEmpty() && (settled.isEmpty() || random.nextDouble() < CHAIN_PROBABILITY);
+                Coin coin = take(chain ? fresh : settled, random);
+                inputs.add(coin);
+                sum += coin.value;
+            }
+            Coin[] spent = inputs.toArray(new Coin[inputs.size()]);
+            double fee = sum * MAX_FEE_SHARE * random.nextDouble();
+            Planned tx = planned(random, spent, 1 + random.nextInt(fanOut), sum - fee,
+                    random.nextDouble() < invalidSignatureRate);
+            epoch.add(tx);
+            tx.made = new Coin[tx.badSignature ? 0 : tx.owners.length];
+            for (int o = 0; o < tx.made.length; o++) {
+                tx.made[o] = new Coin(tx.owners[o], tx.values[o], o, tx);
+                // an output of the last link of a chain waits for the next epoch
+                (tx.level + 1 < chainDepth ? fresh : next).add(tx.made[o]);
+            }
+            // the rival spends all the same inputs, so it is ready exactly when the original is and arrival order
+            // alone decides which of them wins
+            if (random.nextDouble() < doubleSpendRate) {
+                Planned rival = planned(random, spent, 1, sum * (1 - MAX_FEE_SHARE * random.nextDouble()), false);
+                rival.original = tx;
+                epoch.add(rival);
+            }
+        }
+        settled.addAll(fresh);
+        settled.addAll(next);
+        if (shuffled) {
+            Collections.shuffle(epoch, random);
+            for (int t = 0; t < epoch.size(); t++)
+                epoch.get(t).position = t;
+            for (Planned p : epoch) {
+                if (p.original != null && p.position < p.original.position) {
+                    int r = p.position;
+                    p.position = p.original.position;
+                    p.original.position = r;
+                    epoch.set(p.position, p);
+                    epoch.set(r, p.original);
+                }
+            }
+        }
+        return epoch;
+    }
+
+    private Planned planned(Random random, Coin[] inputs, int numOutputs, double value, boolean badSignature) {
+        int[] owners = new int[numOutputs];
+        double[] values = new double[numOutputs];
+        for (int o = 0; o < numOutputs; o++) {
+            owners[o] = random.nextInt(fixtures.keys.length);
+            values[o] = value / numOutputs;
+        }
+        return new Planned(inputs, owners, values, badSignature);
+    }
+
+    /** @return a random coin of {@code coins}, removed from it */
+    private static Coin take(ArrayList<Coin> coins, Random random) {
+        int i = random.nextInt(coins.size());
+        Coin coin = coins.get(i);
+        coins.set(i, coins.get(coins.size() - 1));
+        coins.remove(coins.size() - 1);
+        return coin;
+    }
+
+    /** Builds, signs and hashes the transactions of an epoch, a level at a time so the parents are hashed first */
+    private void sign(ArrayList<Planned> epoch) {
+        int levels = 0;
+        for (Planned p : epoch)
+            levels = Math.max(levels, p.level + 1);
+        for (int level = 0; level < levels; level++) {
+            final int l = level;
+            IntStream.range(0, epoch.size()).parallel()
+                    .filter(t -> epoch.get(t).level == l)
+                    .forEach(t -> build(epoch.get(t)));
+        }
+    }
+
+    private void build(Planned p) {
+        Transaction tx = new Transaction();
+        for (Coin in : p.inputs)
+            tx.addInput(in.maker != null ? in.maker.tx.getHash() : in.txHash, in.index);
+        for (int o = 0; o < p.owners.length; o++)
+            tx.addOutput(p.values[o], fixtures.owner(p.owners[o]));
+        for (int i = 0; i < p.inputs.length; i++)
+            Crypto.signInput(fixtures.signer(p.inputs[i].owner), tx, i);
+        if (p.badSignature)
+            tx.getInput(0).signature[0] ^= 1;
+        tx.finalize();
+        p.tx = tx;
+    }
+
+    /** Writes a signed epoch whose first transaction gets number {@code first}, and settles its outputs */
+    private static long write(WorkloadCorpus.Writer writer, ArrayList<Planned> epoch, long first) throws IOException {
+        Transaction[] txs = new Transaction[epoch.size()];
+        for (int t = 0; t < txs.length; t++) {
+            epoch.get(t).position = t;
+            txs[t] = epoch.get(t).tx;
+        }
+        writer.startEpoch(txs);
+        for (Planned p : epoch) {
+            long[] spentTx = new long[p.inputs.length];
+            for (int i = 0; i < spentTx.length; i++) {
+                Coin in = p.inputs[i];
+                spentTx[i] = in.maker != null ? first + in.maker.position : in.txNumber;
+            }
+            writer.write(p.tx, spentTx, p.owners);
+        }
+        for (Planned p : epoch) {
+            for (Coin coin : p.made) {
+                coin.txNumber = first + p.position;
+                coin.txHash = p.tx.getHash();
+                coin.maker = null;
+            }
+        }
+        return first + txs.length;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: WorkloadGenerator <file> [name=value ...]");
+            System.exit(2);
+        }
+        LinkedHashMap<String, String> settings = new LinkedHashMap<String, String>();
+        for (int a = 1; a < args.length; a++) {
+            int eq = args[a].indexOf('=');
+            if (eq < 0)
+                throw new IllegalArgumentException("expected name=value, got " + args[a]);
+            settings.put(args[a].substring(0, eq), args[a].substring(eq + 1));
+        }
+        String keys = settings.remove("keys");
+        String scheme = settings.remove("scheme");
+        WorkloadGenerator generator = new WorkloadGenerator(keys == null ? 64 : Integer.parseInt(keys),
+                scheme == null ? SignatureScheme.RSA : SignatureScheme.valueOf(scheme));
+        for (Map.Entry<String, String> setting : settings.entrySet()) {
+            String value = setting.getValue();
+            switch (setting.getKey()) {
+                case "epochs": generator.setEpochs(Integer.parseInt(value)); break;
+                case "txsPerEpoch": generator.setTxsPerEpoch(Integer.parseInt(value)); break;
+                case "genesisOutputs": generator.setGenesisOutputs(Integer.parseInt(value)); break;
+                case "fanIn": generator.setFanIn(Integer.parseInt(value)); break;
+                case "fanOut": generator.setFanOut(Integer.parseInt(value)); break;
+                case "chainDepth": generator.setChainDepth(Integer.parseInt(value)); break;
+                case "doubleSpendRate": generator.setDoubleSpendRate(Double.parseDouble(value)); break;
+                case "invalidSignatureRate": generator.setInvalidSignatureRate(Double.parseDouble(value)); break;
+                case "shuffled": generator.setShuffled(Boolean.parseBoolean(value)); break;
+                case "seed": generator.setSeed(Long.parseLong(value)); break;
+                default:
+                    throw new IllegalArgumentException("unknown setting: " + setting.getKey());
+            }
+        }
+        Path file = Paths.get(args[0]);
+        long start = System.nanoTime();
+        generator.write(file);
+        System.out.printf("wrote %s in %.1f s%n", file, (System.nanoTime() - start) / 1e9);
+    }
+
+    private static int atLeast(int min, int value, String what) {
+        if (value < min)
+            throw new IllegalArgumentException(what + " must be at least " + min + ", got " + value);
+        return value;
+    }
+
+    private static double rate(double rate, String what) {
+        if (!(rate >= 0 && rate <= 1))
+            throw new IllegalArgumentException(what + " must be between 0 and 1, got " + rate);
+        return rate;
+    }
+}
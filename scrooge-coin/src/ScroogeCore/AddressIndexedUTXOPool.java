@@ -0,0 +1,194 @@
+package ScroogeCore;
+
+import java.security.PublicKey;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeSet;
+
+/**
+ * A ScroogeCore.UTXOPool that keeps, next to the entries of another pool, a secondary index from owner key to
+ * the UTXOs it owns, sorted by value. The index is kept up to date by {@link #addUTXO} and {@link #removeUTXO},
+ * so the balance and coins of one owner cost in proportion to that owner's holdings instead of a walk over
+ * {@link #getAllUTXO()}.
+ *
+ * Writes go through to the base pool, which must not be changed by anyone else. Owners are told apart by their
+ * {@link KeyRegistry} id. Not thread-safe.
+ */
+public class AddressIndexedUTXOPool extends UTXOPool {
+
+    /** A UTXO in the index, ordered by value and then by ScroogeCore.UTXO; a null utxo comes first of its value */
+    private static final class Coin implements Comparable<Coin> {
+        final double value;
+        final UTXO utxo;
+
+        Coin(double value, UTXO utxo) {
+            this.value = value;
+            this.utxo = utxo;
+        }
+
+        public int compareTo(Coin other) {
+            int c = Double.compare(value, other.value);
+            if (c != 0 || utxo == other.utxo)
+                return c;
+            if (utxo == null || other.utxo == null)
+                return utxo == null ? -1 : 1;
+            return utxo.compareTo(other.utxo);
+        }
+    }
+
+    private final UTXOPool base;
+
+    /** the coins of each owner, by key id; owners with no coins have no entry */
+    private final HashMap<Integer, TreeSet<Coin>> byOwner = new HashMap<Integer, TreeSet<Coin>>();
+
+    /** Creates an indexed pool over {@code base}, indexing the UTXOs it already holds */
+    public AddressIndexedUTXOPool(UTXOPool base) {
+        this.base = base;
+        for (UTXO ut : base.getAllUTXO())
+            index(ut, base.getTxOutput(ut));
+    }
+
+    /** @return the pool holding the entries */
+    public UTXOPool getBase() {
+        return base;
+    }
+
+    UTXOPool copy() {
+        return new AddressIndexedUTXOPool(base.copy());
+    }
+
+    public void addUTXO(UTXO utxo, Transaction.Output txOut) {
+        Transaction.Output old = base.getTxOutput(utxo);
+        if (old != null)
+            unindex(utxo, old);
+        base.addUTXO(utxo, txOut);
+        index(utxo, txOut);
+    }
+
+    public void removeUTXO(UTXO utxo) {
+        Transaction.Output old = base.getTxOutput(utxo);
+        if (old == null)
+            return;
+        base.removeUTXO(utxo);
+        unindex(utxo, old);
+    }
+
+    public Transaction.Output getTxOutput(UTXO ut) {
+        return base.getTxOutput(ut);
+    }
+
+    public boolean contains(UTXO utxo) {
+        return base.contains(utxo);
+    }
+
+    public int size() {
+        return base.size();
+    }
+
+    public void commit() {
+        base.commit();
+    }
+
+    public ArrayList<UTXO> getAllUTXO() {
+        return base.getAllUTXO();
+    }
+
+    /**
+     * Streams the coins of the owner straight from the index when {@code filter} names one, at a cost in
+     * proportion to the coins it passes, and the base otherwise; see {@link UTXOPool#stream()}
+     */
+    public Spliterator<Map.Entry<UTXO, Transaction.Output>> spliterator(UTXOFilter filter) {
+        int owner = filter.ownerId();
+        if (owner == UTXOFilter.ANY_OWNER)
+            return base.spliterator(filter);
+        TreeSet<Coin> coins = byOwner.get(owner);
+        ArrayList<Map.Entry<UTXO, Transaction.Output>> entries =
+                new ArrayList<Map.Entry<UTXO, Transaction.Output>>();
+        if (coins != null && filter.minValue <= filter.maxValue) {
+            // a null utxo orders first among coins of its value, making both bounds inclusive
+            Collection<Coin> range = filter.anyValue() ? coins
+                    : coins.subSet(new Coin(filter.minValue, null), true,
+                            new Coin(Math.nextUp(filter.maxValue), null), false);
+            for (Coin coin : range)
+                entries.add(new AbstractMap.SimpleImmutableEntry<UTXO, Transaction.Output>(coin.utxo,
+                        base.getTxOutput(coin.utxo)));
+        }
+        return Spliterators.spliterator(entries, Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+    }
+
+    /** @return the sum of the values of the UTXOs {@code owner} owns */
+    public double getBalance(PublicKey owner) {
+        double balance = 0;
+        for (Coin coin : coins(owner))
+            balance += coin.value;
+        return balance;
+    }
+
+    /** @return the number of UTXOs {@code owner} owns */
+    public int numUTXOs(PublicKey owner) {
+        return coins(owner).size();
+    }
+
+    /** @return the UTXOs {@code owner} owns, by ascending value */
+    public ArrayList<UTXO> getUTXOs(PublicKey owner) {
+        TreeSet<Coin> coins = coins(owner);
+        ArrayList<UTXO> utxos = new ArrayList<UTXO>(coins.size());
+        for (Coin coin : coins)
+            utxos.add(coin.utxo);
+        return utxos;
+    }
+
+    /**
+     * @return UTXOs of {@code owner} worth at least {@code amount} together: the smallest single one that covers
+     *         it if there is one, else the largest ones until they do; null if the balance of {@code owner} falls
+     *         short
+     */
+    public ArrayList<UTXO> selectCoins(PublicKey owner, double amount) {
+        TreeSet<Coin> coins = coins(owner);
+        ArrayList<UTXO> selected = new ArrayList<UTXO>();
+        Coin single = coins.ceiling(new Coin(amount, null));
+        if (single != null) {
+            selected.add(single.utxo);
+            return selected;
+        }
+        double sum = 0;
+        for (Iterator<Coin> it = coins.descendingIterator(); it.hasNext() && sum < amount; ) {
+            Coin coin = it.next();
+            selected.add(coin.utxo);
+            sum += coin.value;
+        }
+        return sum >= amount ? selected : null;
+    }
+
+    /** @return the coins of {@code owner}; a key the registry does not know owns none, and is not interned */
+    private TreeSet<Coin> coins(PublicKey owner) {
+        int id = KeyRegistry.getDefault().idIfPresent(owner);
+        TreeSet<Coin> coins = id < 0 ? null : byOwner.get(id);
+        return coins != null ? coins : new TreeSet<Coin>();
+    }
+
+    private void index(UTXO utxo, Transaction.Output out) {
+        TreeSet<Coin> coins = byOwner.get(out.keyId());
+        if (coins == null) {
+            coins = new TreeSet<Coin>();
+            byOwner.put(out.keyId(), coins);
+        }
+        coins.add(new Coin(out.value, utxo));
+    }
+
+    private void unindex(UTXO utxo, Transaction.Output out) {
+        int id = out.keyIdIfPresent();
+        TreeSet<Coin> coins = id < 0 ? null : byOwner.get(id);
+        if (coins == null)
+            return;
+        coins.remove(new Coin(out.value, utxo));
+        if (coins.isEmpty())
+            byOwner.remove(id);
+    }
+}
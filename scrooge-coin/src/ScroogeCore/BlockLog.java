@@ -0,0 +1,425 @@
+package ScroogeCore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of the transactions accepted in every epoch, kept in a directory of segments, each made of
+ * two files named after the first epoch they hold:
+ * <ul>
+ * <li>{@code <epoch>.blocks}, one checksummed record per epoch holding its transactions in the wire encoding of
+ * {@link TransactionCodec}, in the order they were accepted;</li>
+ * <li>{@code <epoch>.index}, one fixed-size entry per transaction of the segment: its hash, and the offset and
+ * length of its encoding.</li>
+ * </ul>
+ * A new segment is started once the current one would grow past the segment size. Segments are read through
+ * memory maps: looking a transaction up by hash ({@link #get(Hash256)}) is a probe in an in-memory table of
+ * 8-byte slots built from the index files, and {@link #replay} streams history as fast as the disk and page
+ * cache deliver it, without validating anything again.
+ *
+ * Epochs are numbered from 1. Every append is forced to disk before it returns. Opening a log drops a torn last
+ * record and rebuilds an index that does not match its segment. Safe for use by several threads at once; a
+ * directory must not be opened by two logs at once.
+ */
+public class BlockLog implements Closeable {
+
+    public static final long DEFAULT_SEGMENT_BYTES = 64L << 20;
+
+    /** Receives the epochs of a log in order, see {@link #replay(long, EpochVisitor)} */
+    public interface EpochVisitor {
+        void visit(long epoch, Transaction[] accepted);
+    }
+
+    private static final String BLOCKS = ".blocks";
+    private static final String INDEX = ".index";
+    private static final int RECORD_HEADER_BYTES = 8 + 4 + 4;
+    private static final int RECORD_TRAILER_BYTES = 4;
+    private static final int ENTRY_BYTES = Hash256.BYTES + 4 + 4;
+
+    /** offset of the hash in the wire encoding of a transaction, after its 2-byte length */
+    private static final int HASH_OFFSET = 2;
+
+    private static final class Segment {
+        final long firstEpoch;
+        final FileChannel blocks;
+        final FileChannel index;
+
+        /** bytes of complete records, number of index entries and last epoch ({@code firstEpoch - 1} if none) */
+        long blocksSize;
+        int entries;
+        long lastEpoch;
+
+        /** read-only maps of the files, remapped once the files outgrow them */
+        MappedByteBuffer blocksMap;
+        MappedByteBuffer indexMap;
+
+        Segment(long firstEpoch, FileChannel blocks, FileChannel index) {
+            this.firstEpoch = firstEpoch;
+            this.blocks = blocks;
+            this.index = index;
+            this.lastEpoch = firstEpoch - 1;
+        }
+
+        ByteBuffer blocks() throws IOException {
+            if (blocksMap == null || blocksMap.capacity() < blocksSize)
+                blocksMap = blocks.map(FileChannel.MapMode.READ_ONLY, 0, blocksSize);
+            return blocksMap;
+        }
+
+        ByteBuffer index() throws IOException {
+            long bytes = (long) entries * ENTRY_BYTES;
+            if (indexMap == null || indexMap.capacity() < bytes) {
+                indexMap = index.map(FileChannel.MapMode.READ_ONLY, 0, bytes);
+                indexMap.order(ByteOrder.LITTLE_ENDIAN);
+            }
+            return indexMap;
+        }
+    }
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final ArrayList<Segment> segments = new ArrayList<Segment>();
+
+    /**
+     * open-addressing table of every indexed transaction, a slot holding 1 + (segment number << 32 | entry
+     * number), 0 when empty; hashes are read back from the index to compare
+     */
+    private long[] slots = new long[1024];
+    private int indexed;
+
+    /** Opens the log stored in {@code dir} with segments of the default size, creating an empty one if needed */
+    public BlockLog(Path dir) throws IOException {
+        this(dir, DEFAULT_SEGMENT_BYTES);
+    }
+
+    /**
+     * Opens the log stored in {@code dir}, creating an empty one if there is none, and starts new segments once
+     * the current one would grow past {@code segmentBytes}
+     *
+     * @throws IOException if the log cannot be read, or a segment other than the last one is damaged
+     */
+    public BlockLog(Path dir, long segmentBytes) throws IOException {
+        if (segmentBytes <= 0 || segmentBytes > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("segment size out of range: " + segmentBytes);
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(dir);
+
+        // zero-padded names sort in epoch order
+        ArrayList<String> names = new ArrayList<String>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + BLOCKS)) {
+            for (Path file : files)
+                names.add(file.getFileName().toString());
+        }
+        Collections.sort(names);
+        for (int i = 0; i < names.size(); i++) {
+            String name = names.get(i);
+            Segment segment = openSegment(Long.parseLong(name.substring(0, name.length() - BLOCKS.length())),
+                    i == names.size() - 1);
+            if (!segments.isEmpty() && segment.firstEpoch != active().lastEpoch + 1)
+                throw new IOException("segment " + name + " does not follow epoch " + active().lastEpoch);
+            segments.add(segment);
+            loadIndex(segments.size() - 1);
+        }
+        if (segments.isEmpty())
+            segments.add(openSegment(1, true));
+    }
+
+    /**
+     * Appends the transactions accepted in the next epoch, in the order they were accepted, and forces them to
+     * disk
+     *
+     * @return the number of the epoch
+     * @throws IllegalArgumentException if a transaction has no 32-byte hash
+     */
+    public synchronized long append(Transaction[] accepted) throws IOException {
+        long payload = 0;
+        for (Transaction tx : accepted) {
+            if (tx.getHash256() == null)
+                throw new IllegalArgumentException("logged transactions need a 32-byte hash");
+            payload += TransactionCodec.encodedSize(tx);
+        }
+        long recordBytes = RECORD_HEADER_BYTES + payload + RECORD_TRAILER_BYTES;
+        if (recordBytes > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("epoch too large to log: " + recordBytes + " bytes");
+
+        long epoch = active().lastEpoch + 1;
+        Segment segment = active();
+        if (segment.blocksSize > 0 && segment.blocksSize + recordBytes > segmentBytes) {
+            segment = openSegment(epoch, true);
+            segments.add(segment);
+        }
+
+        ByteBuffer record = ByteBuffer.allocate((int) recordBytes);
+        ByteBuffer entries = ByteBuffer.allocate(accepted.length * ENTRY_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        record.putLong(epoch).putInt(accepted.length).putInt((int) payload);
+        for (Transaction tx : accepted) {
+            int start = record.position();
+            TransactionCodec.encode(tx, record);
+            Hash256 hash = tx.getHash256();
+            for (int w = 0; w < 4; w++)
+                entries.putLong(hash.word(w));
+            entries.putInt((int) (segment.blocksSize + start)).putInt(record.position() - start);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, record.position());
+        record.putInt((int) crc.getValue());
+
+        // the records are the log, the index only speeds it up: a crash between the two rebuilds the index
+        record.flip();
+        write(segment.blocks, record, segment.blocksSize);
+        segment.blocks.force(false);
+        entries.flip();
+        write(segment.index, entries, (long) segment.entries * ENTRY_BYTES);
+        segment.index.force(false);
+
+        segment.blocksSize += recordBytes;
+        int first = segment.entries;
+        segment.entries += accepted.length;
+        segment.lastEpoch = epoch;
+        for (int i = 0; i < accepted.length; i++)
+            put(accepted[i].getHash256(), ((long) (segments.size() - 1) << 32) | (first + i));
+        return epoch;
+    }
+
+    /** @return the number of the last epoch appended, 0 if there is none */
+    public synchronized long getEpoch() {
+        return active().lastEpoch;
+    }
+
+    /** @return the number of transactions in the log */
+    public synchronized int size() {
+        return indexed;
+    }
+
+    /** @return the logged transaction with hash {@code hash}, or null; of two with the same hash the last one */
+    public synchronized Transaction get(Hash256 hash) throws IOException {
+        long location = find(hash);
+        if (location < 0)
+            return null;
+        Segment segment = segments.get((int) (location >>> 32));
+        ByteBuffer index = segment.index();
+        int entry = (int) location * ENTRY_BYTES;
+        int offset = index.getInt(entry + Hash256.BYTES);
+        int length = index.getInt(entry + Hash256.BYTES + 4);
+        ByteBuffer tx = segment.blocks().duplicate();
+        tx.limit(offset + length).position(offset);
+        return TransactionCodec.decode(tx);
+    }
+
+    /** @return the logged transaction with hash {@code hash}, or null if there is none or it is not 32 bytes */
+    public Transaction get(byte[] hash) throws IOException {
+        return hash.length == Hash256.BYTES ? get(Hash256.of(hash)) : null;
+    }
+
+    /** @return true if a transaction with hash {@code hash} is in the log */
+    public synchronized boolean contains(Hash256 hash) {
+        return find(hash) >= 0;
+    }
+
+    /**
+     * Hands every epoch from {@code fromEpoch} on to {@code visitor}, in order, decoding the transactions
+     * straight from the mapped segments. The visitor must not append to the log.
+     */
+    public synchronized void replay(long fromEpoch, EpochVisitor visitor) throws IOException {
+        for (Segment segment : segments) {
+            if (segment.lastEpoch < fromEpoch)
+                continue;
+            ByteBuffer blocks = segment.blocks().duplicate();
+            long pos = 0;
+            while (pos < segment.blocksSize) {
+                long epoch = blocks.getLong((int) pos);
+                int count = blocks.getInt((int) pos + 8);
+                int payload = blocks.getInt((int) pos + 12);
+                if (epoch >= fromEpoch) {
+                    blocks.limit((int) pos + RECORD_HEADER_BYTES + payload).position((int) pos + RECORD_HEADER_BYTES);
+                    Transaction[] txs = new Transaction[count];
+                    for (int i = 0; i < count; i++)
+                        txs[i] = TransactionCodec.decode(blocks);
+                    blocks.limit(blocks.capacity());
+                    visitor.visit(epoch, txs);
+                }
+                pos += RECORD_HEADER_BYTES + payload + RECORD_TRAILER_BYTES;
+            }
+        }
+    }
+
+    /**
+     * Applies every logged epoch to {@code pool}, which should hold what the pool of the handler writing the
+     * log held before its first epoch; nothing is validated again
+     */
+    public void replay(UTXOPool pool) throws IOException {
+        replay(1, (epoch, accepted) -> {
+            for (Transaction tx : accepted)
+                TxHandler.applyTx(tx, pool);
+        });
+    }
+
+    public synchronized void close() throws IOException {
+        for (Segment segment : segments) {
+            segment.blocks.close();
+            segment.index.close();
+        }
+    }
+
+    private Segment active() {
+        return segments.get(segments.size() - 1);
+    }
+
+    /**
+     * Opens (creating it if needed) the segment starting at {@code firstEpoch}, checking its records. A torn or
+     * damaged tail is cut off the last segment and is an error in any other one.
+     */
+    private Segment openSegment(long firstEpoch, boolean last) throws IOException {
+        String name = String.format("%020d", firstEpoch);
+        Path blocksPath = dir.resolve(name + BLOCKS);
+        Segment segment = new Segment(firstEpoch,
+                FileChannel.open(blocksPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE),
+                FileChannel.open(dir.resolve(name + INDEX), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE));
+
+        long size = segment.blocks.size();
+        if (size > Integer.MAX_VALUE)
+            throw new IOException(blocksPath + " is too large to be a segment");
+        ByteBuffer blocks = size == 0 ? null : segment.blocks.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        int pos = 0, transactions = 0;
+        while (pos + RECORD_HEADER_BYTES + RECORD_TRAILER_BYTES <= size) {
+            long epoch = blocks.getLong(pos);
+            int count = blocks.getInt(pos + 8);
+            int payload = blocks.getInt(pos + 12);
+            long end = (long) pos + RECORD_HEADER_BYTES + payload;
+            if (epoch != segment.lastEpoch + 1 || count < 0 || payload < 0 || end + RECORD_TRAILER_BYTES > size)
+                break;
+            ByteBuffer covered = blocks.duplicate();
+            covered.limit((int) end).position(pos);
+            CRC32 crc = new CRC32();
+            crc.update(covered);
+            if ((int) crc.getValue() != blocks.getInt((int) end))
+                break;
+            segment.lastEpoch = epoch;
+            transactions += count;
+            pos = (int) end + RECORD_TRAILER_BYTES;
+        }
+        if (pos < size) {
+            if (!last)
+                throw new IOException(blocksPath + " is damaged at offset " + pos);
+            segment.blocks.truncate(pos);
+            segment.blocks.force(true);
+        }
+        segment.blocksSize = pos;
+
+        if (segment.index.size() != (long) transactions * ENTRY_BYTES)
+            rebuildIndex(segment, blocks);
+        segment.entries = transactions;
+        return segment;
+    }
+
+    /** Writes the index of {@code segment} again from its records, which {@code blocks} maps */
+    private void rebuildIndex(Segment segment, ByteBuffer blocks) throws IOException {
+        segment.index.truncate(0);
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        long indexPos = 0;
+        int pos = 0;
+        while (pos < segment.blocksSize) {
+            int count = blocks.getInt(pos + 8);
+            int payload = blocks.getInt(pos + 12);
+            ByteBuffer txs = blocks.duplicate();
+            txs.position(pos + RECORD_HEADER_BYTES);
+            for (int i = 0; i < count; i++) {
+                int start = txs.position();
+                TransactionCodec.decode(txs);
+                entry.clear();
+                // the segment is big-endian and the words little-endian
+                for (int w = 0; w < 4; w++)
+                    entry.putLong(Long.reverseBytes(blocks.getLong(start + HASH_OFFSET + 8 * w)));
+                entry.putInt(start).putInt(txs.position() - start);
+                entry.flip();
+                write(segment.index, entry, indexPos);
+                indexPos += ENTRY_BYTES;
+            }
+            pos += RECORD_HEADER_BYTES + payload + RECORD_TRAILER_BYTES;
+        }
+        segment.index.force(true);
+    }
+
+    /** Adds the entries of segment number {@code number} to the in-memory table */
+    private void loadIndex(int number) throws IOException {
+        Segment segment = segments.get(number);
+        if (segment.entries == 0)
+            return;
+        ByteBuffer index = segment.index();
+        for (int i = 0; i < segment.entries; i++)
+            put(hashAt(index, i), ((long) number << 32) | i);
+    }
+
+    private static Hash256 hashAt(ByteBuffer index, int entry) {
+        int off = entry * ENTRY_BYTES;
+        return Hash256.of(index.getLong(off), index.getLong(off + 8), index.getLong(off + 16),
+                index.getLong(off + 24));
+    }
+
+    private Hash256 hashAt(long location) throws IOException {
+        return hashAt(segments.get((int) (location >>> 32)).index(), (int) location);
+    }
+
+    /** @return the location of {@code hash}, or -1 */
+    private long find(Hash256 hash) {
+        int mask = slots.length - 1;
+        try {
+            for (int slot = hash.hashCode() & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+                if (hashAt(slots[slot] - 1).equals(hash))
+                    return slots[slot] - 1;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return -1;
+    }
+
+    private void put(Hash256 hash, long location) throws IOException {
+        if (2 * (indexed + 1) > slots.length)
+            grow();
+        int mask = slots.length - 1;
+        int slot = hash.hashCode() & mask;
+        for (; slots[slot] != 0; slot = (slot + 1) & mask) {
+            if (hashAt(slots[slot] - 1).equals(hash)) {
+                slots[slot] = location + 1;
+                return;
+            }
+        }
+        slots[slot] = location + 1;
+        indexed++;
+    }
+
+    private void grow() throws IOException {
+        long[] old = slots;
+        slots = new long[2 * old.length];
+        int mask = slots.length - 1;
+        for (long s : old) {
+            if (s == 0)
+                continue;
+            int slot = hashAt(s - 1).hashCode() & mask;
+            while (slots[slot] != 0)
+                slot = (slot + 1) & mask;
+            slots[slot] = s;
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer b, long position) throws IOException {
+        while (b.hasRemaining())
+            position += channel.write(b, position);
+    }
+}
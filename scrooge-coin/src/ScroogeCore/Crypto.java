@@ -1,38 +1,58 @@
 package ScroogeCore;
 
 import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.Signature;
 import java.security.SignatureException;
 
 public class Crypto {
 
+    /** a thread's signers by scheme ordinal, so signing in bulk does not look up a provider per signature */
+    private static final ThreadLocal<Signature[]> signers =
+            ThreadLocal.withInitial(() -> new Signature[SignatureScheme.values().length]);
+
     /**
      * @return true is {@code signature} is a valid digital signature of {@code message} under the
-     *         key {@code pubKey}. Internally, this uses RSA signature, but the student does not
-     *         have to deal with any of the implementation details of the specific signature
-     *         algorithm
+     *         key {@code pubKey}. The signature scheme (RSA or Ed25519, see {@link SignatureScheme}) is that of
+     *         the key, but the student does not have to deal with any of the implementation details of the
+     *         specific signature algorithm. Results are cached, see {@link SignatureVerifier}.
      */
     public static boolean verifySignature(PublicKey pubKey, byte[] message, byte[] signature) {
-        Signature sig = null;
-        try {
-            sig = Signature.getInstance("SHA256withRSA");
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        }
-        try {
-            sig.initVerify(pubKey);
-        } catch (InvalidKeyException e) {
-            e.printStackTrace();
+        return SignatureVerifier.getDefault().verify(pubKey, message, signature);
+    }
+
+    /**
+     * @return true if input {@code index} of {@code tx} is validly signed under {@code pubKey}; equivalent to
+     *         verifying the input's signature over {@code tx.getRawDataToSign(index)}, without building that array
+     */
+    public static boolean verifyInputSignature(PublicKey pubKey, Transaction tx, int index) {
+        return SignatureVerifier.getDefault().verifyInput(pubKey, tx, index);
+    }
+
+    /**
+     * @return the signature of {@code message} under {@code privKey}, in the scheme of the key
+     * @throws IllegalArgumentException if the key belongs to no scheme or cannot be used
+     */
+    public static byte[] sign(PrivateKey privKey, byte[] message) {
+        SignatureScheme scheme = SignatureScheme.of(privKey);
+        Signature[] schemes = signers.get();
+        Signature sig = schemes[scheme.ordinal()];
+        if (sig == null) {
+            sig = scheme.newSignature();
+            schemes[scheme.ordinal()] = sig;
         }
         try {
+            sig.initSign(privKey);
             sig.update(message);
-            return sig.verify(signature);
-        } catch (SignatureException e) {
-            e.printStackTrace();
+            return sig.sign();
+        } catch (InvalidKeyException | SignatureException e) {
+            throw new IllegalArgumentException("cannot sign with " + privKey.getAlgorithm() + " key", e);
         }
-        return false;
+    }
 
+    /** Signs input {@code index} of {@code tx} with {@code privKey}, recording the scheme of the key on the input */
+    public static void signInput(PrivateKey privKey, Transaction tx, int index) {
+        tx.addSignature(sign(privKey, tx.getRawDataToSign(index)), index, SignatureScheme.of(privKey));
     }
 }
@@ -0,0 +1,199 @@
+package ScroogeCore;
+
+import java.util.HashMap;
+
+/**
+ * Dependency graph of the transactions proposed in one epoch. An edge runs from a transaction to every
+ * transaction in the same epoch that spends one of its outputs, so accepting the epoch is a single
+ * topological walk instead of repeated passes over the pending transactions.
+ */
+class EpochGraph {
+
+    /** the proposed transactions, in arrival order */
+    final Transaction[] txs;
+
+    /** number of inputs of each transaction that wait on an output of a not yet accepted transaction */
+    private final int[] waitingInputs;
+
+    /** true if some input of the transaction is neither in the pool nor produced in this epoch */
+    private final boolean[] unresolvable;
+
+    /** inputs of transaction i are numbered inputStart[i] .. inputStart[i + 1] - 1 across the whole epoch */
+    private final int[] inputStart;
+
+    /** in-epoch transaction producing the output spent by each input, or -1 if it comes from the pool */
+    private final int[] parentOf;
+
+    /** children of transaction i are childIndex[childStart[i]] .. childIndex[childStart[i + 1] - 1] */
+    private final int[] childStart;
+    private final int[] childIndex;
+
+    /** spent-outpoint index: which accepted transaction claimed each ScroogeCore.UTXO in this epoch */
+    private final HashMap<UTXO, Integer> spentBy;
+
+    /**
+     * Builds the graph for {@code txs} against {@code pool}. Inputs found in {@code pool} are not edges, even
+     * when a transaction of this epoch also claims to produce them.
+     */
+    EpochGraph(Transaction[] txs, UTXOPool pool) {
+        int n = txs.length;
+        this.txs = txs;
+        waitingInputs = new int[n];
+        unresolvable = new boolean[n];
+        childStart = new int[n + 1];
+        spentBy = new HashMap<UTXO, Integer>();
+
+        HashMap<UTXO, Integer> producedBy = new HashMap<UTXO, Integer>();
+        for (int i = 0; i < n; i++) {
+            byte[] hash = txs[i].getHash();
+            if (hash == null) {
+                unresolvable[i] = true;
+                continue;
+            }
+            for (int j = 0; j < txs[i].numOutputs(); j++)
+                producedBy.putIfAbsent(txs[i].outputUTXO(j), i);
+        }
+
+        // first pass counts the edges of every parent, second pass fills them in
+        inputStart = new int[n + 1];
+        parentOf = new int[countInputs(txs)];
+        int e = 0;
+        for (int i = 0; i < n; i++) {
+            inputStart[i] = e;
+            for (Transaction.Input in : txs[i].getInputs()) {
+                parentOf[e] = -1;
+                if (in.prevTxHash == null) {
+                    unresolvable[i] = true;
+                } else {
+                    UTXO ut = in.spentUTXO();
+                    if (!pool.contains(ut)) {
+                        Integer parent = producedBy.get(ut);
+                        if (parent == null || parent == i) {
+                            unresolvable[i] = true;
+                        } else {
+                            parentOf[e] = parent;
+                            waitingInputs[i]++;
+                            childStart[parent + 1]++;
+                        }
+                    }
+                }
+                e++;
+            }
+        }
+        inputStart[n] = e;
+        for (int i = 0; i < n; i++)
+            childStart[i + 1] += childStart[i];
+
+        childIndex = new int[childStart[n]];
+        int[] fill = new int[n];
+        e = 0;
+        for (int i = 0; i < n; i++) {
+            for (int k = 0; k < txs[i].numInputs(); k++, e++) {
+                int parent = parentOf[e];
+                if (parent >= 0)
+                    childIndex[childStart[parent] + fill[parent]++] = i;
+            }
+        }
+    }
+
+    private static int countInputs(Transaction[] txs) {
+        int count = 0;
+        for (Transaction tx : txs)
+            count += tx.numInputs();
+        return count;
+    }
+
+    int size() {
+        return txs.length;
+    }
+
+    /** @return the number of inputs over all transactions of the epoch */
+    int numInputs() {
+        return parentOf.length;
+    }
+
+    /** @return the transaction owning input {@code e}, numbered across the whole epoch */
+    int txOfInput(int e) {
+        int lo = 0, hi = txs.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (inputStart[mid] <= e)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return lo;
+    }
+
+    /** @return the position of transaction {@code i}'s first input, numbered across the whole epoch */
+    int firstInput(int i) {
+        return inputStart[i];
+    }
+
+    /** @return the in-epoch transaction producing the output spent by input {@code e}, or -1 if there is none */
+    int parentOf(int e) {
+        return parentOf[e];
+    }
+
+    /** @return the position of transaction {@code i}'s first child, children being numbered across the epoch */
+    int firstChild(int i) {
+        return childStart[i];
+    }
+
+    /** @return one past the position of transaction {@code i}'s last child */
+    int endChild(int i) {
+        return childStart[i + 1];
+    }
+
+    /** @return the transaction at child position {@code c}, see {@link #firstChild} */
+    int child(int c) {
+        return childIndex[c];
+    }
+
+    /** @return true if some input of transaction {@code i} can never be satisfied in this epoch */
+    boolean isUnresolvable(int i) {
+        return unresolvable[i];
+    }
+
+    /**
+     * @return the output spent by input {@code e}, taken from the in-epoch transaction producing it or else from
+     *         {@code pool}; null if neither has it
+     */
+    Transaction.Output spentOutput(int e, Transaction.Input in, UTXOPool pool) {
+        int parent = parentOf[e];
+        if (parent >= 0)
+            return txs[parent].getOutput(in.outputIndex);
+        return pool.getTxOutput(in.spentUTXO());
+    }
+
+    /** @return true if transaction {@code i} can be considered now, i.e. all its in-epoch parents are accepted */
+    boolean isReady(int i) {
+        return !unresolvable[i] && waitingInputs[i] == 0;
+    }
+
+    /** @return true if an input of transaction {@code i} was already claimed by an accepted transaction */
+    boolean conflicts(int i) {
+        for (Transaction.Input in : txs[i].getInputs()) {
+            if (spentBy.containsKey(in.spentUTXO()))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records transaction {@code i} as accepted, marks its inputs as spent and appends to {@code queue} every
+     * child that has become ready.
+     *
+     * @return the new tail of {@code queue}
+     */
+    int accept(int i, int[] queue, int tail) {
+        for (Transaction.Input in : txs[i].getInputs())
+            spentBy.put(in.spentUTXO(), i);
+        for (int c = childStart[i]; c < childStart[i + 1]; c++) {
+            int child = childIndex[c];
+            if (--waitingInputs[child] == 0 && !unresolvable[child])
+                queue[tail++] = child;
+        }
+        return tail;
+    }
+}
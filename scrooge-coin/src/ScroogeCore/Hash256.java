@@ -0,0 +1,120 @@
+package ScroogeCore;
+
+/**
+ * A 32-byte (SHA-256) hash held as four longs instead of a byte array: equality compares four words, the hash
+ * code is computed once and mixed from all of them, and the words can be handed to {@link UTXOTable} as they
+ * are. Words are read little-endian, in the same order as {@link UTXOTable}. Immutable.
+ */
+public final class Hash256 implements Comparable<Hash256> {
+
+    public static final int BYTES = 32;
+
+    private final long w0, w1, w2, w3;
+    private final int hashCode;
+
+    private Hash256(long w0, long w1, long w2, long w3) {
+        this.w0 = w0;
+        this.w1 = w1;
+        this.w2 = w2;
+        this.w3 = w3;
+        // hashes from Transaction.finalize are uniform already, but any 32 bytes can be given as a hash
+        long h = w0 * 0x9E3779B97F4A7C15L + w1;
+        h = h * 0x9E3779B97F4A7C15L + w2;
+        h = h * 0x9E3779B97F4A7C15L + w3;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        this.hashCode = (int) h;
+    }
+
+    /**
+     * @return the hash whose bytes are {@code hash}
+     * @throws IllegalArgumentException if {@code hash} is not 32 bytes long
+     */
+    public static Hash256 of(byte[] hash) {
+        if (hash.length != BYTES)
+            throw new IllegalArgumentException("expected a " + BYTES + "-byte hash, got " + hash.length + " bytes");
+        return of(hash, 0);
+    }
+
+    /** @return the hash whose bytes are {@code bytes[off]} .. {@code bytes[off + 31]} */
+    public static Hash256 of(byte[] bytes, int off) {
+        return new Hash256(UTXOTable.readLong(bytes, off), UTXOTable.readLong(bytes, off + 8),
+                UTXOTable.readLong(bytes, off + 16), UTXOTable.readLong(bytes, off + 24));
+    }
+
+    /** @return the hash made of words {@code w0} .. {@code w3}, see {@link #word(int)} */
+    public static Hash256 of(long w0, long w1, long w2, long w3) {
+        return new Hash256(w0, w1, w2, w3);
+    }
+
+    /** @return word {@code i} (0 to 3), bytes {@code 8 * i} .. {@code 8 * i + 7} read little-endian */
+    public long word(int i) {
+        switch (i) {
+            case 0: return w0;
+            case 1: return w1;
+            case 2: return w2;
+            case 3: return w3;
+            default: throw new IndexOutOfBoundsException("word " + i);
+        }
+    }
+
+    /** @return a new array holding the 32 bytes of the hash */
+    public byte[] toBytes() {
+        byte[] bytes = new byte[BYTES];
+        copyTo(bytes, 0);
+        return bytes;
+    }
+
+    /** Writes the 32 bytes of the hash to {@code bytes[off]} .. {@code bytes[off + 31]} */
+    public void copyTo(byte[] bytes, int off) {
+        UTXOTable.writeLong(bytes, off, w0);
+        UTXOTable.writeLong(bytes, off + 8, w1);
+        UTXOTable.writeLong(bytes, off + 16, w2);
+        UTXOTable.writeLong(bytes, off + 24, w3);
+    }
+
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (!(other instanceof Hash256))
+            return false;
+        Hash256 h = (Hash256) other;
+        return hashCode == h.hashCode && w0 == h.w0 && w1 == h.w1 && w2 == h.w2 && w3 == h.w3;
+    }
+
+    public int hashCode() {
+        return hashCode;
+    }
+
+    /**
+     * Compares the bytes of the two hashes one by one, each taken as a signed byte, which is the order UTXOs
+     * have always been sorted in
+     */
+    public int compareTo(Hash256 other) {
+        int c = compareWords(w0, other.w0);
+        if (c == 0)
+            c = compareWords(w1, other.w1);
+        if (c == 0)
+            c = compareWords(w2, other.w2);
+        if (c == 0)
+            c = compareWords(w3, other.w3);
+        return c;
+    }
+
+    private static int compareWords(long a, long b) {
+        // big-endian puts the first byte on top; flipping each sign bit orders signed bytes as unsigned ones
+        final long signs = 0x8080808080808080L;
+        return Long.compareUnsigned(Long.reverseBytes(a) ^ signs, Long.reverseBytes(b) ^ signs);
+    }
+
+    /** @return the hash in hexadecimal */
+    public String toString() {
+        StringBuilder sb = new StringBuilder(2 * BYTES);
+        for (byte b : toBytes()) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
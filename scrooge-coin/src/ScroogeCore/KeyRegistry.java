@@ -0,0 +1,162 @@
+package ScroogeCore;
+
+import java.nio.ByteBuffer;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns public keys: every distinct key gets a compact int id and one shared entry holding the key object and
+ * its encoding. Pools intern the owners of the outputs they take in, and outputs and codecs look keys up here, so
+ * a key that owns many coins is encoded once, parsed once when decoded, and stored as an int wherever ids are
+ * enough.
+ *
+ * Ids are dense, start at 0 and are never reused; interned keys stay for the life of the registry. Only keys that
+ * own an output of a pool are interned, so keys of transactions that are proposed but never accepted leave
+ * nothing behind. Safe for use by several threads at once.
+ */
+public class KeyRegistry {
+
+    /** An interned key, or a key looked up but not interned, whose id is -1; immutable */
+    static final class Entry {
+        final int id;
+        final PublicKey key;
+        /** {@code key.getEncoded()}, computed once; must not be modified */
+        final byte[] encoded;
+        /** the scheme signatures under the key are made with; null if its algorithm has none */
+        final SignatureScheme scheme;
+
+        Entry(int id, PublicKey key, byte[] encoded) {
+            this.id = id;
+            this.key = key;
+            this.encoded = encoded;
+            this.scheme = SignatureScheme.forKeyAlgorithm(key.getAlgorithm());
+        }
+    }
+
+    private static final KeyRegistry DEFAULT = new KeyRegistry();
+
+    private final ConcurrentHashMap<PublicKey, Entry> byKey = new ConcurrentHashMap<PublicKey, Entry>();
+    private final ConcurrentHashMap<ByteBuffer, Entry> byEncoding = new ConcurrentHashMap<ByteBuffer, Entry>();
+
+    /** entries by id; slots below {@link #count} are filled, written only under the registry's lock */
+    private Entry[] byId = new Entry[64];
+
+    /** number of published entries; written after the entry itself, so readers that see an id see its entry */
+    private volatile int count;
+
+    /** @return the registry shared by transactions, pools and codecs */
+    public static KeyRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /** @return the id of {@code key}, interning it if it is new */
+    public int idOf(PublicKey key) {
+        return entry(key).id;
+    }
+
+    /**
+     * @return the id of {@code key}, or -1 if it was never interned; unlike {@link #idOf} this never adds a key,
+     *         so lookups for keys that own nothing leave the registry as it is
+     */
+    public int idIfPresent(PublicKey key) {
+        return idIfPresent(key, ByteBuffer.wrap(key.getEncoded()));
+    }
+
+    /** @return as {@link #idIfPresent(PublicKey)}, {@code encoding} being the encoding of {@code key} */
+    int idIfPresent(PublicKey key, ByteBuffer encoding) {
+        Entry e = byKey.get(key);
+        if (e == null)
+            e = byEncoding.get(encoding);
+        return e != null ? e.id : -1;
+    }
+
+    /** @return the key with id {@code id} */
+    public PublicKey key(int id) {
+        return entry(id).key;
+    }
+
+    /** @return the encoding of the key with id {@code id}; callers must not modify it */
+    public byte[] encoded(int id) {
+        return entry(id).encoded;
+    }
+
+    /** @return the signature scheme of the key with id {@code id}, or null if its algorithm has none */
+    public SignatureScheme scheme(int id) {
+        return entry(id).scheme;
+    }
+
+    /** @return the number of interned keys */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return the key of {@code algorithm} with X.509 encoding {@code encoded}: the interned key if there is one,
+     *         or else a newly parsed key, which is not interned
+     * @throws IllegalArgumentException if {@code encoded} is not a valid {@code algorithm} key
+     */
+    public PublicKey decode(String algorithm, byte[] encoded) {
+        Entry e = byEncoding.get(ByteBuffer.wrap(encoded));
+        if (e != null && e.key.getAlgorithm().equals(algorithm))
+            return e.key;
+        try {
+            return KeyFactory.getInstance(algorithm).generatePublic(new X509EncodedKeySpec(encoded));
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException ex) {
+            throw new IllegalArgumentException("cannot decode " + algorithm + " key", ex);
+        }
+    }
+
+    /**
+     * @return the entry of {@code key} holding {@code key} itself: its interned entry, or an entry of id -1 if
+     *         the key is not interned, in which case nothing is added
+     */
+    Entry lookup(PublicKey key) {
+        Entry e = byKey.get(key);
+        if (e == null) {
+            byte[] encoded = key.getEncoded();
+            e = byEncoding.get(ByteBuffer.wrap(encoded));
+            if (e == null)
+                return new Entry(-1, key, encoded);
+        }
+        return e.key == key ? e : new Entry(e.id, key, e.encoded);
+    }
+
+    /** @return the entry of {@code key}, interning it if it is new */
+    Entry entry(PublicKey key) {
+        Entry e = byKey.get(key);
+        if (e == null)
+            e = intern(key);
+        return e;
+    }
+
+    Entry entry(int id) {
+        if (id < 0 || id >= count)
+            throw new IllegalArgumentException("unknown key id: " + id);
+        // reading count first makes the array and the entry written before it visible
+        return byId[id];
+    }
+
+    private synchronized Entry intern(PublicKey key) {
+        Entry e = byKey.get(key);
+        if (e != null)
+            return e;
+        byte[] encoded = key.getEncoded();
+        // an equal key in another form (e.g. from another provider) shares the entry of the first one seen
+        e = byEncoding.get(ByteBuffer.wrap(encoded));
+        if (e == null) {
+            e = new Entry(count, key, encoded);
+            if (e.id == byId.length)
+                byId = Arrays.copyOf(byId, 2 * byId.length);
+            byId[e.id] = e;
+            byEncoding.put(ByteBuffer.wrap(encoded), e);
+            count = e.id + 1;
+        }
+        byKey.put(key, e);
+        return e;
+    }
+}
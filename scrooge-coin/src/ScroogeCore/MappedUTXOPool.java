@@ -0,0 +1,505 @@
+package ScroogeCore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.zip.CRC32;
+
+/**
+ * A persistent ScroogeCore.UTXOPool kept in a directory of three files:
+ * <ul>
+ * <li>{@code utxo.table}, a header followed by a {@link UTXOTable} mapped into memory, so lookups are served by
+ * the OS page cache and opening the pool does not read the table;</li>
+ * <li>{@code utxo.keys}, the append-only list of owner keys whose position is the key id in the table;</li>
+ * <li>{@code utxo.journal}, a write-ahead journal with one checksummed record of adds and removes per
+ * {@link #commit()}.</li>
+ * </ul>
+ * Changes are buffered until {@link #commit()}, which makes them durable in the journal before applying them
+ * to the table. Every {@link #DEFAULT_CHECKPOINT_INTERVAL} commits (and on {@link #close()}) the table is
+ * flushed, the checkpointed epoch is recorded in its header and the journal is emptied; tombstones are
+ * compacted away at the same time once they make up half the table. After a crash, opening the pool replays
+ * only the journal records past the last checkpoint, dropping a torn last record.
+ *
+ * Like {@link OffHeapUTXOPool}, only UTXOs of 32-byte transaction hashes can be stored. The pool is not
+ * thread-safe, and a directory must not be opened by two pools at once.
+ */
+public class MappedUTXOPool extends UTXOPool implements Closeable {
+
+    /** number of commits between two checkpoints */
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 64;
+
+    private static final long MAGIC = 0x5343524f4f474531L; // "SCROOGE1"
+    private static final int HEADER_BYTES = 4096;
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final int ADD_BYTES = 1 + UTXOTable.HASH_BYTES + 4 + 8 + 4;
+    private static final int REMOVE_BYTES = 1 + UTXOTable.HASH_BYTES + 4;
+    private static final int RECORD_HEADER_BYTES = 8 + 4;
+
+    private final Path dir;
+    private final FileChannel journal;
+    private final FileChannel keyFile;
+
+    private FileChannel tableChannel;
+    private ArrayList<MappedByteBuffer> mapped;
+    private UTXOTable table;
+
+    /** owner keys, the position in the list being the id stored in the table */
+    private final ArrayList<PublicKey> keys = new ArrayList<PublicKey>();
+    private final HashMap<PublicKey, Integer> keyIds = new HashMap<PublicKey, Integer>();
+    private int durableKeys;
+
+    /** changes since the last commit, a null output standing for a removal */
+    private final LinkedHashMap<UTXO, Transaction.Output> pending = new LinkedHashMap<UTXO, Transaction.Output>();
+    private int pendingSizeDelta;
+
+    /** number of the last committed epoch, and of the last one written to the table and checkpointed */
+    private long epoch;
+    private long checkpointEpoch;
+    private int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+
+    /**
+     * Opens the pool stored in {@code dir}, creating an empty one if there is none and recovering from the
+     * journal if the pool was not closed.
+     */
+    public MappedUTXOPool(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        Files.deleteIfExists(dir.resolve("utxo.table.tmp"));
+
+        keyFile = FileChannel.open(dir.resolve("utxo.keys"), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        readKeys();
+
+        Path tablePath = dir.resolve("utxo.table");
+        if (Files.exists(tablePath) && Files.size(tablePath) >= HEADER_BYTES) {
+            openTable(tablePath);
+        } else {
+            createTable(tablePath, UTXOTable.capacityFor(0));
+            writeHeader();
+            tableChannel.force(true);
+        }
+        epoch = checkpointEpoch;
+
+        journal = FileChannel.open(dir.resolve("utxo.journal"), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (replayJournal())
+            checkpoint();
+    }
+
+    /** Sets the number of commits between two checkpoints */
+    public void setCheckpointInterval(int commits) {
+        checkpointInterval = Math.max(1, commits);
+    }
+
+    /** @return the number of commits made to this pool since it was created */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    UTXOPool copy() {
+        return new UTXOPool(this);
+    }
+
+    /**
+     * Adds a mapping from ScroogeCore.UTXO {@code utxo} to transaction output {@code txOut}; it becomes durable on
+     * the next {@link #commit()}
+     *
+     * @throws IllegalArgumentException if the transaction hash of {@code utxo} is not 32 bytes long
+     */
+    public void addUTXO(UTXO utxo, Transaction.Output txOut) {
+        if (utxo.getHash256() == null)
+            throw new IllegalArgumentException("mapped pools only hold 32-byte transaction hashes");
+        if (!contains(utxo))
+            pendingSizeDelta++;
+        pending.put(utxo, txOut);
+    }
+
+    public void removeUTXO(UTXO utxo) {
+        if (!contains(utxo))
+            return;
+        pendingSizeDelta--;
+        pending.put(utxo, null);
+    }
+
+    public Transaction.Output getTxOutput(UTXO ut) {
+        if (pending.containsKey(ut))
+            return pending.get(ut);
+        int slot = find(ut);
+        if (slot < 0)
+            return null;
+        return new Transaction.Output(table.value(slot), keys.get(table.keyId(slot)));
+    }
+
+    public boolean contains(UTXO utxo) {
+        if (pending.containsKey(utxo))
+            return pending.get(utxo) != null;
+        return find(utxo) >= 0;
+    }
+
+    public int size() {
+        return table.size() + pendingSizeDelta;
+    }
+
+    /**
+     * Copies the entries passing {@code filter} first, since commits write the mapped table in place; see
+     * {@link UTXOPool#stream()}
+     */
+    public Spliterator<Map.Entry<UTXO, Transaction.Output>> spliterator(UTXOFilter filter) {
+        return copiedSpliterator(filter);
+    }
+
+    public ArrayList<UTXO> getAllUTXO() {
+        ArrayList<UTXO> allUTXO = new ArrayList<UTXO>(size());
+        for (int slot = 0; slot < table.capacity(); slot++) {
+            if (!table.isFull(slot))
+                continue;
+            UTXO ut = new UTXO(table.hash(slot), table.index(slot));
+            if (!pending.containsKey(ut))
+                allUTXO.add(ut);
+        }
+        for (Map.Entry<UTXO, Transaction.Output> e : pending.entrySet()) {
+            if (e.getValue() != null)
+                allUTXO.add(e.getKey());
+        }
+        return allUTXO;
+    }
+
+    /**
+     * Makes the changes since the last commit durable as one journal record, then applies them to the table
+     *
+     * @throws UncheckedIOException if the journal or the table cannot be written
+     */
+    public void commit() {
+        if (pending.isEmpty())
+            return;
+        try {
+            int adds = writeKeys();
+            appendToJournal(epoch + 1);
+            if (table.needsRebuild(adds))
+                rebuild(table.size() + adds);
+            for (Map.Entry<UTXO, Transaction.Output> e : pending.entrySet())
+                apply(e.getKey().getHash256(), e.getKey().getIndex(), e.getValue());
+            pending.clear();
+            pendingSizeDelta = 0;
+            epoch++;
+            if (epoch - checkpointEpoch >= checkpointInterval)
+                checkpoint();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Flushes the table to disk, records the current epoch in its header and empties the journal, compacting
+     * the table first if tombstones make up half of it
+     */
+    public void checkpoint() throws IOException {
+        if (table.tombstones() > table.size() && table.tombstones() > UTXOTable.capacityFor(0)) {
+            rebuild(table.size());
+        } else {
+            for (MappedByteBuffer chunk : mapped)
+                chunk.force();
+            writeHeader(epoch);
+            tableChannel.force(true);
+            checkpointEpoch = epoch;
+        }
+        journal.truncate(0);
+        journal.force(true);
+    }
+
+    /** Commits pending changes, checkpoints and closes the files */
+    public void close() throws IOException {
+        commit();
+        checkpoint();
+        journal.close();
+        keyFile.close();
+        tableChannel.close();
+    }
+
+    private int find(UTXO utxo) {
+        Hash256 hash = utxo.getHash256();
+        if (hash == null)
+            return -1;
+        return table.find(hash, utxo.getIndex());
+    }
+
+    private void apply(Hash256 hash, int index, Transaction.Output out) {
+        if (out == null) {
+            int slot = table.find(hash, index);
+            if (slot >= 0)
+                table.remove(slot);
+        } else {
+            table.put(hash, index, out.value, keyIds.get(out.address));
+        }
+    }
+
+    private void createTable(Path path, int capacity) throws IOException {
+        tableChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        table = new UTXOTable(capacity, mapper(tableChannel), 0, 0);
+    }
+
+    private void openTable(Path path) throws IOException {
+        tableChannel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(8 + 4 + 4 + 4 + 8);
+        tableChannel.read(header, 0);
+        header.flip();
+        if (header.getLong() != MAGIC)
+            throw new IOException(path + " is not a UTXO table");
+        int capacity = header.getInt();
+        int size = header.getInt();
+        int tombstones = header.getInt();
+        checkpointEpoch = header.getLong();
+        table = new UTXOTable(capacity, mapper(tableChannel), size, tombstones);
+    }
+
+    private UTXOTable.ChunkAllocator mapper(FileChannel channel) {
+        ArrayList<MappedByteBuffer> chunks = new ArrayList<MappedByteBuffer>();
+        mapped = chunks;
+        return (chunk, bytes) -> {
+            try {
+                MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + (long) chunk * bytes,
+                        bytes);
+                chunks.add(b);
+                return b;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+    private void writeHeader() throws IOException {
+        writeHeader(checkpointEpoch);
+    }
+
+    private void writeHeader(long checkpoint) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(8 + 4 + 4 + 4 + 8);
+        header.putLong(MAGIC).putInt(table.capacity()).putInt(table.size()).putInt(table.tombstones())
+                .putLong(checkpoint);
+        header.flip();
+        tableChannel.write(header, 0);
+    }
+
+    /**
+     * Copies the table into a new file sized for {@code entries}, which replaces the old one as a checkpoint of
+     * the current epoch
+     */
+    private void rebuild(int entries) throws IOException {
+        Path tmp = dir.resolve("utxo.table.tmp");
+        UTXOTable old = table;
+        FileChannel oldChannel = tableChannel;
+        createTable(tmp, UTXOTable.capacityFor(entries + entries / 2));
+        old.copyInto(table);
+        for (MappedByteBuffer chunk : mapped)
+            chunk.force();
+        checkpointEpoch = epoch;
+        writeHeader();
+        tableChannel.force(true);
+        Files.move(tmp, dir.resolve("utxo.table"), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        oldChannel.close();
+    }
+
+    /** Appends the keys of pending additions that have no id yet to the key file; @return the number of adds */
+    private int writeKeys() throws IOException {
+        int adds = 0;
+        for (Transaction.Output out : pending.values()) {
+            if (out == null)
+                continue;
+            adds++;
+            if (!keyIds.containsKey(out.address)) {
+                keyIds.put(out.address, keys.size());
+                keys.add(out.address);
+            }
+        }
+        if (durableKeys == keys.size())
+            return adds;
+
+        for (int i = durableKeys; i < keys.size(); i++) {
+            byte[] algorithm = keys.get(i).getAlgorithm().getBytes(StandardCharsets.US_ASCII);
+            byte[] encoded = KeyRegistry.getDefault().entry(keys.get(i)).encoded;
+            ByteBuffer b = ByteBuffer.allocate(4 + 1 + algorithm.length + encoded.length);
+            b.putInt(1 + algorithm.length + encoded.length).put((byte) algorithm.length).put(algorithm).put(encoded);
+            b.flip();
+            while (b.hasRemaining())
+                keyFile.write(b, keyFile.size());
+        }
+        keyFile.force(false);
+        durableKeys = keys.size();
+        return adds;
+    }
+
+    private void readKeys() throws IOException {
+        long size = keyFile.size();
+        ByteBuffer b = ByteBuffer.allocate((int) size);
+        while (b.hasRemaining() && keyFile.read(b, b.position()) >= 0)
+            ;
+        b.flip();
+        int complete = 0;
+        while (b.remaining() >= 4) {
+            int length = b.getInt();
+            if (length <= 0 || length > b.remaining())
+                break;
+            byte[] algorithm = new byte[b.get() & 0xff];
+            b.get(algorithm);
+            byte[] encoded = new byte[length - 1 - algorithm.length];
+            b.get(encoded);
+            PublicKey key = decodeKey(new String(algorithm, StandardCharsets.US_ASCII), encoded);
+            keyIds.put(key, keys.size());
+            keys.add(key);
+            complete = b.position();
+        }
+        // a key cut short belongs to a commit that never reached the journal, nothing refers to it
+        if (complete < size)
+            keyFile.truncate(complete);
+        durableKeys = keys.size();
+    }
+
+    private static PublicKey decodeKey(String algorithm, byte[] encoded) throws IOException {
+        try {
+            // the key owns outputs of the pool, so it is interned as the off-heap pool interns its owners
+            KeyRegistry registry = KeyRegistry.getDefault();
+            return registry.entry(registry.decode(algorithm, encoded)).key;
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e.getCause());
+        }
+    }
+
+    private void appendToJournal(long recordEpoch) throws IOException {
+        int bytes = RECORD_HEADER_BYTES + 4;
+        for (Transaction.Output out : pending.values())
+            bytes += out == null ? REMOVE_BYTES : ADD_BYTES;
+
+        ByteBuffer record = ByteBuffer.allocate(bytes);
+        record.putLong(recordEpoch).putInt(pending.size());
+        for (Map.Entry<UTXO, Transaction.Output> e : pending.entrySet()) {
+            Transaction.Output out = e.getValue();
+            record.put(out == null ? REMOVE : ADD);
+            // the record is big-endian and the words little-endian, reversing them writes the hash bytes in order
+            Hash256 hash = e.getKey().getHash256();
+            for (int w = 0; w < 4; w++)
+                record.putLong(Long.reverseBytes(hash.word(w)));
+            record.putInt(e.getKey().getIndex());
+            if (out != null)
+                record.putDouble(out.value).putInt(keyIds.get(out.address));
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, record.position());
+        record.putInt((int) crc.getValue());
+        record.flip();
+
+        long position = journal.size();
+        while (record.hasRemaining())
+            position += journal.write(record, position);
+        journal.force(false);
+    }
+
+    /**
+     * Applies the journal records written after the last checkpoint to the table, cutting the journal at the
+     * first torn or corrupt record
+     *
+     * @return true if any record was replayed
+     */
+    private boolean replayJournal() throws IOException {
+        long size = journal.size();
+        if (size == 0)
+            return false;
+        ByteBuffer b = journal.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        long validEnd = 0;
+        boolean recounted = false;
+        boolean replayed = false;
+        byte[] hash = new byte[UTXOTable.HASH_BYTES];
+        while (b.remaining() >= RECORD_HEADER_BYTES) {
+            int start = b.position();
+            long recordEpoch = b.getLong();
+            int count = b.getInt();
+            int end = recordEnd(b, start, count);
+            if (end < 0 || !checksumMatches(b, start, end))
+                break;
+            if (recordEpoch > epoch) {
+                if (!recounted) {
+                    // pages of the table may have reached the disk after the checkpoint, trust no counter
+                    table.recount();
+                    recounted = true;
+                }
+                replayRecord(b, start + RECORD_HEADER_BYTES, count, hash);
+                epoch = recordEpoch;
+                replayed = true;
+            }
+            b.position(end + 4);
+            validEnd = end + 4;
+        }
+        if (validEnd < size)
+            journal.truncate(validEnd);
+        return replayed;
+    }
+
+    /** @return the position of the checksum of the record at {@code start}, or -1 if it is cut short */
+    private static int recordEnd(ByteBuffer b, int start, int count) {
+        int p = start + RECORD_HEADER_BYTES;
+        for (int i = 0; i < count; i++) {
+            if (p >= b.limit())
+                return -1;
+            byte op = b.get(p);
+            if (op == ADD)
+                p += ADD_BYTES;
+            else if (op == REMOVE)
+                p += REMOVE_BYTES;
+            else
+                return -1;
+        }
+        return count < 0 || p + 4 > b.limit() ? -1 : p;
+    }
+
+    private static boolean checksumMatches(ByteBuffer b, int start, int end) {
+        ByteBuffer record = b.duplicate();
+        record.position(start);
+        record.limit(end);
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        return (int) crc.getValue() == b.getInt(end);
+    }
+
+    private void replayRecord(ByteBuffer b, int p, int count, byte[] hash) throws IOException {
+        int adds = 0;
+        for (int i = 0, q = p; i < count; i++) {
+            boolean add = b.get(q) == ADD;
+            adds += add ? 1 : 0;
+            q += add ? ADD_BYTES : REMOVE_BYTES;
+        }
+        if (table.needsRebuild(adds))
+            rebuild(table.size() + adds);
+        for (int i = 0; i < count; i++) {
+            byte op = b.get(p);
+            for (int k = 0; k < hash.length; k++)
+                hash[k] = b.get(p + 1 + k);
+            int index = b.getInt(p + 1 + UTXOTable.HASH_BYTES);
+            if (op == ADD) {
+                double value = b.getDouble(p + 1 + UTXOTable.HASH_BYTES + 4);
+                int keyId = b.getInt(p + 1 + UTXOTable.HASH_BYTES + 4 + 8);
+                table.put(hash, index, value, keyId);
+                p += ADD_BYTES;
+            } else {
+                int slot = table.find(hash, index);
+                if (slot >= 0)
+                    table.remove(slot);
+                p += REMOVE_BYTES;
+            }
+        }
+    }
+}
@@ -0,0 +1,608 @@
+package ScroogeCore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A ScroogeCore.TxHandler that, instead of letting the first of two conflicting transactions win, accepts the
+ * mutually valid set of transactions that collects (close to) the most fees, the fee of a transaction being the
+ * sum of its input values minus the sum of its output values.
+ *
+ * Finding the best set is a weighted independent set problem on the conflict graph, so it is approximated: a
+ * greedy pass takes transactions together with the in-epoch ancestors they spend from, highest value first,
+ * and a local search then swaps in left-out transactions whose fees beat those of the transactions they evict.
+ * The greedy pass takes time linear in the number of transactions and in-epoch edges: a transaction found unable
+ * to join is blocked together with its descendants, so none of them is tried again. Only a transaction that fails
+ * its signatures, or whose ancestors spend one outpoint twice, costs a walk of its unselected ancestors that adds
+ * nothing. The local search stops when it finds nothing better or when the time budget (see
+ * {@link #setTimeBudget}) runs out.
+ *
+ * With {@link #setMetrics metrics} set, the checks and the selection are timed as a whole (as
+ * {@link TxHandlerMetrics.Phase#CLASSIFY} and {@link TxHandlerMetrics.Phase#CONFLICTS}), and transactions left
+ * out are not counted by {@link RejectReason}.
+ */
+public class MaxFeeTxHandler extends TxHandler {
+
+    /** time the local search may take per epoch unless set otherwise */
+    public static final long DEFAULT_TIME_BUDGET_MILLIS = 50;
+
+    /** a swap has to gain more than this, so rounding in the fee sums cannot make the search go in circles */
+    private static final double MIN_GAIN = 1e-9;
+
+    private long timeBudgetNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TIME_BUDGET_MILLIS);
+
+    /** Creates a public ledger whose current ScroogeCore.UTXOPool is {@code utxoPool}, see {@link TxHandler} */
+    public MaxFeeTxHandler(UTXOPool utxoPool) {
+        super(utxoPool);
+    }
+
+    /**
+     * Limits the time spent improving on the greedy selection of an epoch; 0 keeps the greedy selection as it is.
+     * Validation and the greedy pass are not counted against the budget.
+     */
+    public void setTimeBudget(long duration, TimeUnit unit) {
+        if (duration < 0)
+            throw new IllegalArgumentException("negative time budget: " + duration);
+        timeBudgetNanos = unit.toNanos(duration);
+    }
+
+    /**
+     * Handles each epoch by receiving an unordered array of proposed transactions, checking each transaction for
+     * correctness, returning a mutually valid array of accepted transactions with (close to) the maximum total
+     * fee, and updating the current ScroogeCore.UTXO pool as appropriate. Parents come before their children in
+     * the returned array.
+     */
+    public Transaction[] handleTxs(Transaction[] possibleTxs) {
+        TxHandlerMetrics.EpochRecorder epoch = TxHandlerMetrics.startEpoch(metrics);
+        OverlayUTXOPool tempPool = new OverlayUTXOPool(pool);
+        EpochGraph graph = new EpochGraph(possibleTxs, tempPool);
+        epoch.lap(TxHandlerMetrics.Phase.GRAPH);
+        Selection selection = new Selection(graph, tempPool);
+        epoch.lap(TxHandlerMetrics.Phase.CLASSIFY);
+        selection.greedy();
+        if (timeBudgetNanos > 0)
+            selection.improve(System.nanoTime() + timeBudgetNanos);
+        epoch.lap(TxHandlerMetrics.Phase.CONFLICTS);
+
+        // the selection is mutually valid by construction; checking it once more against the overlay is cheap
+        // and keeps a mistake in the search from ever reaching the pool
+        ArrayList<Transaction> mValidTxns = new ArrayList<>();
+        for (int i : selection.order) {
+            Transaction tx = possibleTxs[i];
+            if (selection.selected[i] && isValidTxV2(tx, tempPool, true) == ThreeState.TRUE) {
+                applyTx(tx, tempPool);
+                mValidTxns.add(tx);
+            }
+        }
+        epoch.lap(TxHandlerMetrics.Phase.APPLY);
+
+        Transaction[] retVal = new Transaction[mValidTxns.size()];
+        retVal = mValidTxns.toArray(retVal);
+
+        record(retVal);
+        tempPool.commit();
+        epoch.lap(TxHandlerMetrics.Phase.COMMIT);
+        epoch.end(possibleTxs.length, retVal.length, pool);
+        return retVal;
+    }
+
+    /** The transactions of one epoch that could be accepted, their conflicts, and the set currently chosen */
+    private class Selection {
+
+        final EpochGraph graph;
+        final int n;
+
+        /** the transactions in topological order; those on a dependency cycle are left out */
+        int[] order;
+
+        /**
+         * true if the transaction and all its in-epoch ancestors pass every check on their own, as far as known:
+         * signatures are only verified once a transaction is about to be selected, see {@link #verifySignatures}
+         */
+        final boolean[] valid;
+        final double[] fee;
+
+        /** outpoint claimed by each input, numbered across the epoch like the inputs of {@link EpochGraph} */
+        int[] outpointOf;
+
+        /** the valid transactions claiming outpoint o are claimants[claimantStart[o]] .. up to claimantStart[o + 1] */
+        int[] claimantStart;
+        int[] claimants;
+
+        /** the selected transaction spending each outpoint, or -1 */
+        int[] claimedBy;
+
+        final boolean[] selected;
+
+        final UTXOPool pool;
+
+        /** signatures verified up front by the {@link SignatureStage}, or null */
+        private final boolean[] signaturesValid;
+
+        /** true once the signatures of the transaction are known to be valid */
+        private final boolean[] signed;
+
+        /** scratch marks: a transaction or outpoint is marked if its entry equals the current stamp */
+        private final int[] closureMark;
+        private final int[] evictMark;
+        private int[] outpointMark;
+        private int stamp;
+
+        /** scratch lists of the closure being added and the selected transactions it would evict */
+        private final int[] closure;
+        private final int[] evicted;
+        private final int[] stack;
+
+        /** the transaction that made the last {@link #tryAdd} fail, see {@link #greedy} */
+        private int culprit;
+
+        /** the transactions the greedy pass can no longer add, see {@link #block} */
+        private boolean[] blocked;
+
+        Selection(EpochGraph graph, UTXOPool pool) {
+            this.graph = graph;
+            this.pool = pool;
+            n = graph.size();
+            valid = new boolean[n];
+            fee = new double[n];
+            selected = new boolean[n];
+            closureMark = new int[n];
+            evictMark = new int[n];
+            closure = new int[n];
+            evicted = new int[n];
+            stack = new int[n];
+            signed = new boolean[n];
+
+            signaturesValid = verificationExecutor == null ? null
+                    : SignatureStage.verify(graph, pool, verificationExecutor, rules);
+            sortTopologically();
+            indexOutpoints();
+            for (int i : order) {
+                boolean ancestorsValid = true;
+                int first = graph.firstInput(i);
+                for (int e = first; e < first + graph.txs[i].numInputs(); e++) {
+                    int parent = graph.parentOf(e);
+                    if (parent >= 0 && !valid[parent])
+                        ancestorsValid = false;
+                }
+                valid[i] = ancestorsValid && checkAlone(i);
+            }
+            indexClaimants();
+        }
+
+        /** Kahn's algorithm over the in-epoch edges, leaving out unresolvable transactions and their descendants */
+        private void sortTopologically() {
+            int[] waiting = new int[n];
+            int e = 0;
+            for (int i = 0; i < n; i++) {
+                for (int k = 0; k < graph.txs[i].numInputs(); k++, e++) {
+                    if (graph.parentOf(e) >= 0)
+                        waiting[i]++;
+                }
+            }
+            int[] queue = new int[n];
+            int head = 0, tail = 0;
+            for (int i = 0; i < n; i++) {
+                if (waiting[i] == 0 && !graph.isUnresolvable(i))
+                    queue[tail++] = i;
+            }
+            while (head < tail) {
+                int i = queue[head++];
+                for (int c = graph.firstChild(i); c < graph.endChild(i); c++) {
+                    int child = graph.child(c);
+                    if (--waiting[child] == 0 && !graph.isUnresolvable(child))
+                        queue[tail++] = child;
+                }
+            }
+            order = Arrays.copyOf(queue, tail);
+        }
+
+        /** Numbers the distinct outpoints claimed by the epoch */
+        private void indexOutpoints() {
+            outpointOf = new int[graph.numInputs()];
+            HashMap<UTXO, Integer> ids = new HashMap<UTXO, Integer>();
+            int e = 0;
+            for (int i = 0; i < n; i++) {
+                for (Transaction.Input in : graph.txs[i].getInputs()) {
+                    Integer id = -1;
+                    if (in.prevTxHash != null) {
+                        UTXO ut = in.spentUTXO();
+                        id = ids.get(ut);
+                        if (id == null) {
+                            id = ids.size();
+                            ids.put(ut, id);
+                        }
+                    }
+                    outpointOf[e++] = id;
+                }
+            }
+            claimedBy = new int[ids.size()];
+            Arrays.fill(claimedBy, -1);
+            outpointMark = new int[ids.size()];
+        }
+
+        /** Lists the valid claimants of every outpoint, so the rivals of a transaction are found without a search */
+        private void indexClaimants() {
+            claimantStart = new int[claimedBy.length + 1];
+            for (int i = 0; i < n; i++) {
+                if (valid[i]) {
+                    for (int e = graph.firstInput(i); e < graph.firstInput(i) + graph.txs[i].numInputs(); e++)
+                        claimantStart[outpointOf[e] + 1]++;
+                }
+            }
+            for (int o = 0; o < claimedBy.length; o++)
+                claimantStart[o + 1] += claimantStart[o];
+            claimants = new int[claimantStart[claimedBy.length]];
+            int[] fill = new int[claimedBy.length];
+            for (int i = 0; i < n; i++) {
+                if (valid[i]) {
+                    for (int e = graph.firstInput(i); e < graph.firstInput(i) + graph.txs[i].numInputs(); e++)
+                        claimants[claimantStart[outpointOf[e]] + fill[outpointOf[e]]++] = i;
+                }
+            }
+        }
+
+        /**
+         * Runs the {@link ValidationRule.Cost#STRUCTURE} and {@link ValidationRule.Cost#POOL} rules of the
+         * handler's pipeline on transaction {@code i} on its own, taking the outputs it spends from the pool or from
+         * its in-epoch parents, and records its fee. The {@link ValidationRule.Cost#CRYPTO} rules wait for
+         * {@link #verifySignatures}.
+         */
+        private boolean checkAlone(int i) {
+            if (signaturesValid != null && !signaturesValid[i])
+                return false;
+            Transaction tx = graph.txs[i];
+            if (rules.checkStructure(tx) != null)
+                return false;
+            Transaction.Output[] spent = spentOutputs(i);
+            if (spent == null)
+                return false;
+            // the selection tells transactions apart by the outpoints they claim, whatever the rules allow
+            stamp++;
+            for (int e = graph.firstInput(i); e < graph.firstInput(i) + tx.numInputs(); e++) {
+                int o = outpointOf[e];
+                if (outpointMark[o] == stamp)
+                    return false;
+                outpointMark[o] = stamp;
+            }
+            if (rules.checkSpent(tx, spent) != null)
+                return false;
+            double sumOfInputVals = 0, sumOfOutputVals = 0;
+            for (Transaction.Output prev : spent)
+                sumOfInputVals += prev.value;
+            for (Transaction.Output out : tx.getOutputs())
+                sumOfOutputVals += out.value;
+            fee[i] = sumOfInputVals - sumOfOutputVals;
+            return true;
+        }
+
+        /** @return the outputs transaction {@code i} spends, from the pool or its in-epoch parents, or null */
+        private Transaction.Output[] spentOutputs(int i) {
+            Transaction tx = graph.txs[i];
+            int first = graph.firstInput(i);
+            Transaction.Output[] spent = new Transaction.Output[tx.numInputs()];
+            for (int k = 0; k < spent.length; k++) {
+                Transaction.Input in = tx.getInput(k);
+                if (in.prevTxHash == null)
+                    return null;
+                spent[k] = graph.spentOutput(first + k, in, pool);
+                if (spent[k] == null)
+                    return null;
+            }
+            return spent;
+        }
+
+        /**
+         * Selects transactions by the fees they and their in-epoch descendants could bring, divided by the number
+         * of rivals they shut out, highest first; each comes with the ancestors it needs, and any that conflicts
+         * with what is selected already is skipped.
+         *
+         * As nothing is unselected during the pass, a transaction that cannot be added now never can, and neither
+         * can its descendants, whose closures hold it: such transactions are {@link #block blocked} as soon as
+         * they are known, the rivals of a selected transaction when it is selected, so none is walked again.
+         */
+        void greedy() {
+            double[] value = new double[n];
+            for (int k = order.length - 1; k >= 0; k--) {
+                int i = order[k];
+                if (!valid[i])
+                    continue;
+                value[i] = fee[i];
+                for (int c = graph.firstChild(i); c < graph.endChild(i); c++) {
+                    int child = graph.child(c);
+                    if (valid[child])
+                        value[i] += value[child] / inDegree(child);
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                if (valid[i])
+                    value[i] /= 1 + rivals(i);
+            }
+            blocked = new boolean[n];
+            for (int i : byValue(value)) {
+                if (selected[i] || blocked[i])
+                    continue;
+                int closureSize = tryAdd(i);
+                if (closureSize < 0) {
+                    block(culprit);
+                    continue;
+                }
+                for (int k = 0; k < closureSize; k++) {
+                    int t = closure[k];
+                    for (int e = graph.firstInput(t); e < graph.firstInput(t) + graph.txs[t].numInputs(); e++) {
+                        int o = outpointOf[e];
+                        for (int c = claimantStart[o]; c < claimantStart[o + 1]; c++) {
+                            if (claimants[c] != t)
+                                block(claimants[c]);
+                        }
+                    }
+                }
+            }
+            blocked = null;
+        }
+
+        /** Blocks transaction {@code i} and its in-epoch descendants for the rest of the greedy pass */
+        private void block(int i) {
+            if (blocked[i])
+                return;
+            int top = 0;
+            stack[top++] = i;
+            blocked[i] = true;
+            while (top > 0) {
+                int t = stack[--top];
+                for (int c = graph.firstChild(t); c < graph.endChild(t); c++) {
+                    int child = graph.child(c);
+                    if (!blocked[child]) {
+                        blocked[child] = true;
+                        stack[top++] = child;
+                    }
+                }
+            }
+        }
+
+        /** @return the number of claims other transactions make on the outpoints transaction {@code i} spends */
+        private int rivals(int i) {
+            int count = 0;
+            for (int e = graph.firstInput(i); e < graph.firstInput(i) + graph.txs[i].numInputs(); e++)
+                count += claimantStart[outpointOf[e] + 1] - claimantStart[outpointOf[e]] - 1;
+            return count;
+        }
+
+        /** @return the number of in-epoch parent edges of transaction {@code i}, splitting its value between them */
+        private int inDegree(int i) {
+            int count = 0;
+            for (int e = graph.firstInput(i); e < graph.firstInput(i) + graph.txs[i].numInputs(); e++) {
+                if (graph.parentOf(e) >= 0)
+                    count++;
+            }
+            return count;
+        }
+
+        /** @return the valid transactions ordered by descending {@code value}, ties in topological order */
+        private Integer[] byValue(double[] value) {
+            ArrayList<Integer> candidates = new ArrayList<Integer>();
+            for (int i : order) {
+                if (valid[i])
+                    candidates.add(i);
+            }
+            Integer[] sorted = candidates.toArray(new Integer[candidates.size()]);
+            Arrays.sort(sorted, (a, b) -> Double.compare(value[b], value[a]));
+            return sorted;
+        }
+
+        /**
+         * Repeatedly swaps left-out transactions into the selection: the selected transactions a swap conflicts
+         * with are evicted, the rivals they leave free are added where they fit, and the swap is kept if the total
+         * fee went up. Stops at {@code deadline} (a {@link System#nanoTime} value) or once a whole pass finds no
+         * improvement.
+         */
+        void improve(long deadline) {
+            boolean improved = true;
+            while (improved) {
+                improved = false;
+                for (int i : order) {
+                    if (System.nanoTime() - deadline >= 0)
+                        return;
+                    if (valid[i] && !selected[i] && trySwap(i))
+                        improved = true;
+                }
+            }
+        }
+
+        /**
+         * Adds transaction {@code i} and its unselected ancestors to the selection if they conflict with nothing
+         * selected, leaving them in {@link #closure}.
+         *
+         * @return the size of the closure added, or -1 if nothing changed, {@link #culprit} being then the
+         *         transaction of the closure that cannot be added as long as the selection only grows
+         */
+        private int tryAdd(int i) {
+            stamp++;
+            int closureSize = collectClosure(i);
+            if (closureSize < 0)
+                return -1;
+            for (int k = 0; k < closureSize; k++) {
+                int t = closure[k];
+                for (int e = graph.firstInput(t); e < graph.firstInput(t) + graph.txs[t].numInputs(); e++) {
+                    if (claimedBy[outpointOf[e]] >= 0) {
+                        culprit = t;
+                        return -1;
+                    }
+                }
+            }
+            if (!verifySignatures(closureSize))
+                return -1;
+            for (int k = 0; k < closureSize; k++)
+                setSelected(closure[k], true);
+            return closureSize;
+        }
+
+        /**
+         * Adds transaction {@code i} and its unselected ancestors, evicting the selected transactions they conflict
+         * with together with their selected descendants, then refills; undoes it all unless the total fee rises.
+         *
+         * @return true if the selection changed
+         */
+        private boolean trySwap(int i) {
+            stamp++;
+            int closureSize = collectClosure(i);
+            if (closureSize < 0)
+                return false;
+            int evictedSize = 0;
+            for (int k = 0; k < closureSize; k++) {
+                int t = closure[k];
+                for (int e = graph.firstInput(t); e < graph.firstInput(t) + graph.txs[t].numInputs(); e++) {
+                    int rival = claimedBy[outpointOf[e]];
+                    if (rival >= 0 && evictMark[rival] != stamp)
+                        evictedSize = collectDescendants(rival, evictedSize);
+                }
+            }
+            // the closure must not lean on a selected ancestor that the swap is about to evict
+            for (int k = 0; k < closureSize; k++) {
+                int t = closure[k];
+                for (int e = graph.firstInput(t); e < graph.firstInput(t) + graph.txs[t].numInputs(); e++) {
+                    int parent = graph.parentOf(e);
+                    if (parent >= 0 && evictMark[parent] == stamp)
+                        return false;
+                }
+            }
+            if (!verifySignatures(closureSize))
+                return false;
+
+            int[] dropped = Arrays.copyOf(evicted, evictedSize);
+            int[] added = Arrays.copyOf(closure, closureSize);
+            double gain = 0;
+            for (int t : dropped) {
+                gain -= fee[t];
+                setSelected(t, false);
+            }
+            for (int t : added) {
+                gain += fee[t];
+                setSelected(t, true);
+            }
+            int[] refilled = refill(dropped);
+            for (int t : refilled)
+                gain += fee[t];
+            if (gain > MIN_GAIN)
+                return true;
+
+            for (int t : refilled)
+                setSelected(t, false);
+            for (int t : added)
+                setSelected(t, false);
+            for (int t : dropped)
+                setSelected(t, true);
+            return false;
+        }
+
+        /**
+         * Gives the rivals of the {@code dropped} transactions a chance to join without evicting anything
+         *
+         * @return the transactions added
+         */
+        private int[] refill(int[] dropped) {
+            int[] refilled = new int[0];
+            int size = 0;
+            for (int t : dropped) {
+                for (int e = graph.firstInput(t); e < graph.firstInput(t) + graph.txs[t].numInputs(); e++) {
+                    int o = outpointOf[e];
+                    for (int c = claimantStart[o]; c < claimantStart[o + 1]; c++) {
+                        if (selected[claimants[c]])
+                            continue;
+                        int closureSize = tryAdd(claimants[c]);
+                        if (closureSize > 0) {
+                            if (size + closureSize > refilled.length)
+                                refilled = Arrays.copyOf(refilled, Math.max(2 * refilled.length, size + closureSize));
+                            System.arraycopy(closure, 0, refilled, size, closureSize);
+                            size += closureSize;
+                        }
+                    }
+                }
+            }
+            return Arrays.copyOf(refilled, size);
+        }
+
+        /**
+         * Runs the {@link ValidationRule.Cost#CRYPTO} rules of the handler's pipeline on the first {@code size}
+         * transactions of {@link #closure}, marking those that fail as invalid. Checking them this late means a
+         * transaction that loses every conflict costs no RSA verification at all.
+         *
+         * @return true if all of them are valid
+         */
+        private boolean verifySignatures(int size) {
+            for (int k = 0; k < size; k++) {
+                int t = closure[k];
+                if (signed[t])
+                    continue;
+                if (rules.checkCrypto(graph.txs[t], spentOutputs(t), signaturesValid != null) != null) {
+                    valid[t] = false;
+                    culprit = t;
+                    return false;
+                }
+                signed[t] = true;
+            }
+            return true;
+        }
+
+        /**
+         * Collects transaction {@code i} and its unselected in-epoch ancestors into {@link #closure}, marking them.
+         *
+         * @return the size of the closure, or -1 if it is not valid or claims an outpoint twice, setting
+         *         {@link #culprit} to the invalid transaction or to {@code i}
+         */
+        private int collectClosure(int i) {
+            int size = 0, top = 0;
+            stack[top++] = i;
+            closureMark[i] = stamp;
+            while (top > 0) {
+                int t = stack[--top];
+                if (!valid[t]) {
+                    culprit = t;
+                    return -1;
+                }
+                closure[size++] = t;
+                for (int e = graph.firstInput(t); e < graph.firstInput(t) + graph.txs[t].numInputs(); e++) {
+                    int o = outpointOf[e];
+                    if (outpointMark[o] == stamp) {
+                        culprit = i;
+                        return -1;
+                    }
+                    outpointMark[o] = stamp;
+                    int parent = graph.parentOf(e);
+                    if (parent >= 0 && !selected[parent] && closureMark[parent] != stamp) {
+                        closureMark[parent] = stamp;
+                        stack[top++] = parent;
+                    }
+                }
+            }
+            return size;
+        }
+
+        /** Appends selected transaction {@code i} and its selected descendants to {@link #evicted}, marking them */
+        private int collectDescendants(int i, int size) {
+            int top = 0;
+            stack[top++] = i;
+            evictMark[i] = stamp;
+            while (top > 0) {
+                int t = stack[--top];
+                evicted[size++] = t;
+                for (int c = graph.firstChild(t); c < graph.endChild(t); c++) {
+                    int child = graph.child(c);
+                    if (selected[child] && evictMark[child] != stamp) {
+                        evictMark[child] = stamp;
+                        stack[top++] = child;
+                    }
+                }
+            }
+            return size;
+        }
+
+        private void setSelected(int i, boolean select) {
+            selected[i] = select;
+            for (int e = graph.firstInput(i); e < graph.firstInput(i) + graph.txs[i].numInputs(); e++)
+                claimedBy[outpointOf[e]] = select ? i : -1;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package ScroogeCore;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Accepts the transactions of an epoch one at a time instead of as one array when it closes. Every transaction is
+ * validated on arrival against a tentative ScroogeCore.UTXOPool (an {@link OverlayUTXOPool} over the handler's
+ * pool holding the epoch so far), so the cost of validation is spread over the epoch and closing it only writes
+ * the UTXOs the accepted transactions spent and created.
+ *
+ * A transaction spending an output that is not known yet is kept in an {@link OrphanPool} and submitted again as
+ * soon as a transaction producing that output is accepted, in this epoch or a later one.
+ *
+ * As with {@link TxHandler#handleTxs}, the first of two conflicting transactions wins. The handler's pool must not
+ * be changed by anyone else (e.g. by {@link TxHandler#handleTxs}) while an epoch is open. Safe for use by several
+ * threads at once.
+ *
+ * When the handler has {@link TxHandler#setMetrics metrics} as an epoch opens, the epoch is recorded as it is closed,
+ * its time being that spent in {@link #submit} and {@link #closeEpoch} while it was open.
+ */
+public class Mempool {
+
+    private final TxHandler handler;
+
+    /** the handler's pool with the transactions accepted in this epoch applied */
+    private final OverlayUTXOPool tentativePool;
+
+    /** spent-outpoint index: the accepted transaction that claimed each ScroogeCore.UTXO in this epoch */
+    private HashMap<UTXO, Transaction> spentBy;
+
+    /** the transactions accepted in this epoch, in the order they arrived */
+    private ArrayList<Transaction> accepted;
+
+    private final OrphanPool orphans;
+
+    /** times and counts this epoch into the handler's metrics */
+    private TxHandlerMetrics.EpochRecorder epoch;
+
+    /** the number of transactions submitted in this epoch, not counting orphans submitted again */
+    private int submitted;
+
+    /** Creates a mempool feeding the pool of {@code handler}, with an orphan pool of the default bounds */
+    public Mempool(TxHandler handler) {
+        this(handler, new OrphanPool());
+    }
+
+    /** Creates a mempool feeding the pool of {@code handler} and keeping orphans in {@code orphans} */
+    public Mempool(TxHandler handler, OrphanPool orphans) {
+        this.handler = handler;
+        this.orphans = orphans;
+        tentativePool = new OverlayUTXOPool(handler.getPool());
+        spentBy = new HashMap<UTXO, Transaction>();
+        accepted = new ArrayList<Transaction>();
+        openEpoch();
+    }
+
+    private void openEpoch() {
+        epoch = TxHandlerMetrics.startEpoch(handler.getMetrics());
+        epoch.pause();
+        submitted = 0;
+    }
+
+    /**
+     * Validates {@code tx} against the pool as the epoch has left it so far and, if it is valid, accepts it into
+     * the epoch, making its outputs available to the transactions submitted after it. The orphans waiting on
+     * those outputs are then submitted again, and so on down their descendants.
+     *
+     * @return TRUE if {@code tx} was accepted; FALSE if it is invalid or spends an output already spent in this
+     *         epoch; MAYBE if it spends an output that is not known (yet), in which case it is kept as an orphan
+     */
+    public synchronized TxHandler.ThreeState submit(Transaction tx) {
+        epoch.resume();
+        submitted++;
+        TxHandler.ThreeState state = accept(tx);
+        if (state == TxHandler.ThreeState.MAYBE)
+            orphans.add(tx, tentativePool);
+        if (state != TxHandler.ThreeState.TRUE) {
+            epoch.pause();
+            return state;
+        }
+
+        // breadth-first over the orphans the accepted transactions wake, instead of recursing down a long chain
+        ArrayDeque<Transaction> parents = new ArrayDeque<Transaction>();
+        parents.add(tx);
+        while (!parents.isEmpty()) {
+            for (Transaction orphan : orphans.wake(parents.poll())) {
+                epoch.lap(TxHandlerMetrics.Phase.PENDING);
+                TxHandler.ThreeState orphanState = accept(orphan);
+                if (orphanState == TxHandler.ThreeState.TRUE)
+                    parents.add(orphan);
+                else if (orphanState == TxHandler.ThreeState.MAYBE)
+                    orphans.add(orphan, tentativePool);
+            }
+        }
+        epoch.lap(TxHandlerMetrics.Phase.PENDING);
+        epoch.pause();
+        return state;
+    }
+
+    /** @return the pool keeping the transactions submitted before their parents */
+    public OrphanPool getOrphans() {
+        return orphans;
+    }
+
+    /** Validates and accepts one transaction, timing it from the last mark or lap of {@link #epoch} */
+    private TxHandler.ThreeState accept(Transaction tx) {
+        if (tx.getHash() == null) {
+            epoch.lap(TxHandlerMetrics.Phase.CLASSIFY);
+            epoch.reject(RejectReason.MALFORMED, 1);
+            return TxHandler.ThreeState.FALSE;
+        }
+        for (Transaction.Input in : tx.getInputs()) {
+            if (in.prevTxHash != null && spentBy.containsKey(in.spentUTXO())) {
+                epoch.lap(TxHandlerMetrics.Phase.CONFLICTS);
+                epoch.reject(RejectReason.CONFLICT, 1);
+                return TxHandler.ThreeState.FALSE;
+            }
+        }
+        epoch.lap(TxHandlerMetrics.Phase.CONFLICTS);
+        RejectReason reason = handler.validate(tx, tentativePool, false);
+        epoch.lap(TxHandlerMetrics.Phase.CLASSIFY);
+        // an orphan is held rather than rejected, see the OrphanPool for those it has to drop
+        if (reason == RejectReason.MISSING_UTXO)
+            return TxHandler.ThreeState.MAYBE;
+        if (reason != null) {
+            epoch.reject(reason, 1);
+            return TxHandler.ThreeState.FALSE;
+        }
+
+        for (Transaction.Input in : tx.getInputs())
+            spentBy.put(in.spentUTXO(), tx);
+        TxHandler.applyTx(tx, tentativePool);
+        accepted.add(tx);
+        epoch.lap(TxHandlerMetrics.Phase.APPLY);
+        return TxHandler.ThreeState.TRUE;
+    }
+
+    /** @return true if an accepted transaction of this epoch spends {@code utxo} */
+    public synchronized boolean isSpent(UTXO utxo) {
+        return spentBy.containsKey(utxo);
+    }
+
+    /** @return the number of transactions accepted in this epoch */
+    public synchronized int size() {
+        return accepted.size();
+    }
+
+    /**
+     * Closes the epoch: builds the handler's {@link TxHandler#getEpochTree epoch tree} over the accepted
+     * transactions, appends them to the handler's block log if it has one, writes the UTXOs they spent and created
+     * into the handler's pool, at a cost in proportion to their number, and starts a new empty epoch.
+     *
+     * @return the transactions accepted in the epoch, in the order they were accepted
+     */
+    public synchronized Transaction[] closeEpoch() {
+        epoch.resume();
+        Transaction[] retVal = new Transaction[accepted.size()];
+        retVal = accepted.toArray(retVal);
+        handler.record(retVal);
+        tentativePool.commit();
+        epoch.lap(TxHandlerMetrics.Phase.COMMIT);
+        epoch.end(submitted, retVal.length, handler.getPool());
+        spentBy = new HashMap<UTXO, Transaction>();
+        accepted = new ArrayList<Transaction>();
+        openEpoch();
+        return retVal;
+    }
+}
@@ -0,0 +1,269 @@
+package ScroogeCore;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * A SHA-256 Merkle tree over the hashes of an epoch's accepted transactions, in the order they were accepted. The
+ * root commits to the epoch, and a {@link Proof} of O(log n) hashes shows that one transaction is in it, checked
+ * by {@link #verify} from the root alone.
+ *
+ * Leaves and inner nodes are hashed with different prefixes, a leaf as SHA-256(0x00 || transaction hash) and a
+ * node as SHA-256(0x01 || left || right), so no node can pass for a leaf. The last node of a level with an odd
+ * number of nodes moves up unchanged rather than being paired with itself, so no two lists of transactions share
+ * a top node. The root is SHA-256(0x02 || n || top), n being the number of transactions as a big-endian int, so
+ * it commits to the shape of the tree and with it to the index a proof names; the top of no transactions is
+ * empty. Immutable.
+ */
+public final class MerkleTree {
+
+    public static final int HASH_BYTES = 32;
+
+    private static final byte LEAF = 0;
+    private static final byte NODE = 1;
+    private static final byte ROOT = 2;
+
+    /** nodes a level needs before it is hashed in parallel */
+    private static final int MIN_PARALLEL_NODES = 2048;
+
+    /** the nodes of each level back to back, the leaves first and the top node last; none for no leaves */
+    private final byte[][] levels;
+    private final int size;
+    private final byte[] root;
+
+    private MerkleTree(byte[][] levels, int size) {
+        this.levels = levels;
+        this.size = size;
+        root = rootOf(newDigest(), size, levels.length == 0 ? new byte[0] : levels[levels.length - 1]);
+    }
+
+    /** @return the tree over the hashes of {@code txs}, which must all be finalized */
+    public static MerkleTree of(Transaction[] txs) {
+        return of(txs, null);
+    }
+
+    /**
+     * @return the tree over the hashes of {@code txs}, which must all be finalized, hashing large levels in
+     *         parallel on {@code executor} when it is not null; the tree is the same either way
+     */
+    public static MerkleTree of(Transaction[] txs, ExecutorService executor) {
+        byte[][] hashes = new byte[txs.length][];
+        for (int i = 0; i < txs.length; i++) {
+            hashes[i] = txs[i].getHash();
+            if (hashes[i] == null)
+                throw new IllegalArgumentException("transaction " + i + " has no hash");
+        }
+        return of(hashes, executor);
+    }
+
+    /** @return the tree over {@code hashes}, see {@link #of(Transaction[], ExecutorService)} */
+    public static MerkleTree of(byte[][] hashes, ExecutorService executor) {
+        int size = hashes.length;
+        if (size == 0)
+            return new MerkleTree(new byte[0][], 0);
+
+        ArrayList<byte[]> levels = new ArrayList<byte[]>();
+        byte[] leaves = new byte[size * HASH_BYTES];
+        hashLevel(size, executor, (digest, from, to) -> {
+            for (int i = from; i < to; i++) {
+                digest.update(LEAF);
+                digest.update(hashes[i]);
+                digestInto(digest, leaves, i);
+            }
+        });
+        levels.add(leaves);
+
+        for (int width = size; width > 1; width = (width + 1) / 2) {
+            byte[] below = levels.get(levels.size() - 1);
+            byte[] level = new byte[(width + 1) / 2 * HASH_BYTES];
+            int pairs = width / 2;
+            hashLevel(pairs, executor, (digest, from, to) -> {
+                for (int i = from; i < to; i++) {
+                    digest.update(NODE);
+                    digest.update(below, 2 * i * HASH_BYTES, 2 * HASH_BYTES);
+                    digestInto(digest, level, i);
+                }
+            });
+            if (width % 2 == 1)
+                System.arraycopy(below, (width - 1) * HASH_BYTES, level, pairs * HASH_BYTES, HASH_BYTES);
+            levels.add(level);
+        }
+        return new MerkleTree(levels.toArray(new byte[levels.size()][]), size);
+    }
+
+    /** @return the number of transactions in the tree */
+    public int size() {
+        return size;
+    }
+
+    /** @return the root hash, see the class comment */
+    public byte[] getRoot() {
+        return root.clone();
+    }
+
+    /**
+     * @return the proof that the transaction at {@code index}, in the order the tree was built from, is in it
+     * @throws IndexOutOfBoundsException if there is no such transaction
+     */
+    public Proof proof(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("no transaction " + index + " in a tree of " + size);
+        ArrayList<byte[]> siblings = new ArrayList<byte[]>();
+        int at = index;
+        for (int l = 0, width = size; width > 1; l++, width = (width + 1) / 2) {
+            int sibling = at ^ 1;
+            if (sibling < width)
+                siblings.add(Arrays.copyOfRange(levels[l], sibling * HASH_BYTES, (sibling + 1) * HASH_BYTES));
+            at >>= 1;
+        }
+        return new Proof(index, size, siblings.toArray(new byte[siblings.size()][]));
+    }
+
+    /**
+     * @return true if {@code proof} shows that the transaction of hash {@code txHash} is in the tree whose root is
+     *         {@code root}, at the index the proof names, the tree holding as many transactions as it names
+     */
+    public static boolean verify(byte[] root, byte[] txHash, Proof proof) {
+        MessageDigest digest = newDigest();
+        digest.update(LEAF);
+        digest.update(txHash);
+        byte[] node = digest.digest();
+        int at = proof.index, used = 0;
+        for (int width = proof.size; width > 1; width = (width + 1) / 2) {
+            int sibling = at ^ 1;
+            if (sibling < width) {
+                if (used == proof.siblings.length)
+                    return false;
+                digest.update(NODE);
+                digest.update(sibling < at ? proof.siblings[used] : node);
+                digest.update(sibling < at ? node : proof.siblings[used]);
+                node = digest.digest();
+                used++;
+            }
+            at >>= 1;
+        }
+        return used == proof.siblings.length && MessageDigest.isEqual(rootOf(digest, proof.size, node), root);
+    }
+
+    /** @return SHA-256(0x02 || {@code size} || {@code top}) */
+    private static byte[] rootOf(MessageDigest digest, int size, byte[] top) {
+        digest.update(ROOT);
+        digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(size).array());
+        digest.update(top);
+        return digest.digest();
+    }
+
+    /**
+     * The hashes needed to get from one transaction of a tree to its root: the sibling of the node on the way at
+     * each level that has one. Only the transaction's hash and the root are needed besides. Immutable.
+     */
+    public static final class Proof {
+        final int index;
+        final int size;
+        final byte[][] siblings;
+
+        private Proof(int index, int size, byte[][] siblings) {
+            this.index = index;
+            this.size = size;
+            this.siblings = siblings;
+        }
+
+        /** @return the index of the transaction in its tree */
+        public int getIndex() {
+            return index;
+        }
+
+        /** @return the number of transactions in the tree */
+        public int getTreeSize() {
+            return size;
+        }
+
+        /** @return the proof as bytes: index, tree size and sibling count as ints, then the siblings */
+        public byte[] toBytes() {
+            ByteBuffer buf = ByteBuffer.allocate(3 * Integer.BYTES + siblings.length * HASH_BYTES);
+            buf.putInt(index).putInt(size).putInt(siblings.length);
+            for (byte[] sibling : siblings)
+                buf.put(sibling);
+            return buf.array();
+        }
+
+        /**
+         * @return the proof written by {@link #toBytes()}
+         * @throws IllegalArgumentException if {@code bytes} do not hold a proof
+         */
+        public static Proof fromBytes(byte[] bytes) {
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            if (buf.remaining() < 3 * Integer.BYTES)
+                throw new IllegalArgumentException("proof too short: " + bytes.length + " bytes");
+            int index = buf.getInt(), size = buf.getInt(), count = buf.getInt();
+            if (index < 0 || index >= size || count < 0 || count > Integer.SIZE
+                    || buf.remaining() != count * HASH_BYTES)
+                throw new IllegalArgumentException("malformed proof");
+            byte[][] siblings = new byte[count][HASH_BYTES];
+            for (byte[] sibling : siblings)
+                buf.get(sibling);
+            return new Proof(index, size, siblings);
+        }
+    }
+
+    /** Hashes nodes {@code from} .. {@code to - 1} of a level with {@code digest} */
+    private interface LevelTask {
+        void hash(MessageDigest digest, int from, int to);
+    }
+
+    /** Runs {@code task} over {@code count} nodes, split over {@code executor} when there are enough of them */
+    private static void hashLevel(int count, ExecutorService executor, LevelTask task) {
+        if (executor == null || count < MIN_PARALLEL_NODES) {
+            task.hash(newDigest(), 0, count);
+            return;
+        }
+        int parallelism = executor instanceof ForkJoinPool ? ((ForkJoinPool) executor).getParallelism()
+                : Runtime.getRuntime().availableProcessors();
+        int chunk = Math.max(MIN_PARALLEL_NODES / 4, (count + parallelism * 4 - 1) / (parallelism * 4));
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int lo = 0; lo < count; lo += chunk) {
+            final int from = lo, to = Math.min(count, lo + chunk);
+            tasks.add(() -> {
+                task.hash(newDigest(), from, to);
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> f : executor.invokeAll(tasks))
+                f.get();
+        } catch (InterruptedException e) {
+            // some chunks may be done; hashing every node again gives the same level
+            Thread.currentThread().interrupt();
+            task.hash(newDigest(), 0, count);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private static void digestInto(MessageDigest digest, byte[] level, int node) {
+        byte[] hash = digest.digest();
+        System.arraycopy(hash, 0, level, node * HASH_BYTES, HASH_BYTES);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
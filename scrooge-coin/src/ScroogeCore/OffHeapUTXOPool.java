@@ -0,0 +1,136 @@
+package ScroogeCore;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A ScroogeCore.UTXOPool that keeps its entries in direct memory instead of a {@link java.util.HashMap}. Each UTXO is a
+ * 64-byte record (see {@link UTXOTable}) holding the hash, the output index, the value and the
+ * {@link KeyRegistry} id of the owner's key, so tens of millions of entries cost neither heap objects nor garbage
+ * collection work.
+ *
+ * Only UTXOs of 32-byte (SHA-256) transaction hashes can be stored; looking up any other UTXO simply finds
+ * nothing. {@link #getTxOutput(UTXO)} builds a new Transaction.Output for every call.
+ */
+public class OffHeapUTXOPool extends UTXOPool {
+
+    private static final UTXOTable.ChunkAllocator DIRECT = (chunk, bytes) -> ByteBuffer.allocateDirect(bytes);
+
+    private UTXOTable table;
+
+    /** the streams still reading {@link #table}; a write copies it first while there are any */
+    private volatile AtomicInteger readers = new AtomicInteger();
+
+    /** Creates a new empty pool */
+    public OffHeapUTXOPool() {
+        this(0);
+    }
+
+    /** Creates a new empty pool with room for {@code expectedSize} entries before it has to grow */
+    public OffHeapUTXOPool(int expectedSize) {
+        table = new UTXOTable(UTXOTable.capacityFor(expectedSize), DIRECT, 0, 0);
+    }
+
+    /** Creates a new pool holding the same entries as {@code uPool} */
+    public OffHeapUTXOPool(UTXOPool uPool) {
+        this(0);
+        ArrayList<UTXO> allUTXO = uPool.getAllUTXO();
+        rebuild(allUTXO.size());
+        for (UTXO ut : allUTXO)
+            addUTXO(ut, uPool.getTxOutput(ut));
+    }
+
+    /** Creates a new pool that is a copy of {@code uPool}, copying the records without decoding them */
+    public OffHeapUTXOPool(OffHeapUTXOPool uPool) {
+        table = new UTXOTable(UTXOTable.capacityFor(uPool.table.size()), DIRECT, 0, 0);
+        uPool.table.copyInto(table);
+    }
+
+    UTXOPool copy() {
+        return new OffHeapUTXOPool(this);
+    }
+
+    /**
+     * Adds a mapping from ScroogeCore.UTXO {@code utxo} to transaction output {@code txOut} to the pool
+     *
+     * @throws IllegalArgumentException if the transaction hash of {@code utxo} is not 32 bytes long
+     */
+    public void addUTXO(UTXO utxo, Transaction.Output txOut) {
+        Hash256 hash = utxo.getHash256();
+        if (hash == null)
+            throw new IllegalArgumentException("off-heap pools only hold 32-byte transaction hashes");
+        if (readers.get() > 0 || table.needsRebuild(1))
+            rebuild(table.size() + 1);
+        table.put(hash, utxo.getIndex(), txOut.value, txOut.keyId());
+    }
+
+    public void removeUTXO(UTXO utxo) {
+        int slot = find(utxo);
+        if (slot < 0)
+            return;
+        if (readers.get() > 0) {
+            rebuild(table.size());
+            slot = find(utxo);
+        }
+        table.remove(slot);
+    }
+
+    public Transaction.Output getTxOutput(UTXO ut) {
+        int slot = find(ut);
+        if (slot < 0)
+            return null;
+        return new Transaction.Output(table.value(slot), KeyRegistry.getDefault().key(table.keyId(slot)));
+    }
+
+    public boolean contains(UTXO utxo) {
+        return find(utxo) >= 0;
+    }
+
+    public ArrayList<UTXO> getAllUTXO() {
+        ArrayList<UTXO> allUTXO = new ArrayList<UTXO>(table.size());
+        for (int slot = 0; slot < table.capacity(); slot++) {
+            if (table.isFull(slot))
+                allUTXO.add(new UTXO(table.hash(slot), table.index(slot)));
+        }
+        return allUTXO;
+    }
+
+    /** Streams the records straight from the table, splitting it by slot range; see {@link UTXOPool#stream()} */
+    public Spliterator<Map.Entry<UTXO, Transaction.Output>> spliterator(UTXOFilter filter) {
+        UTXOTable snapshot;
+        AtomicInteger live;
+        synchronized (this) {
+            snapshot = table;
+            live = readers;
+            live.incrementAndGet();
+        }
+        return new Reader(snapshot.entries(filter, 0, snapshot.capacity()), new Lease(live));
+    }
+
+    /** @return the number of UTXOs in the pool */
+    public int size() {
+        return table.size();
+    }
+
+    private int find(UTXO utxo) {
+        Hash256 hash = utxo.getHash256();
+        if (hash == null)
+            return -1;
+        return table.find(hash, utxo.getIndex());
+    }
+
+    /**
+     * Moves the records to a table sized for {@code entries} with half as much again to spare, dropping the
+     * tombstones; the slack keeps a pool that shrinks and grows around one size from rebuilding on every add. The
+     * old table is left as it is for the streams reading it.
+     */
+    private synchronized void rebuild(int entries) {
+        UTXOTable larger = new UTXOTable(UTXOTable.capacityFor(entries + entries / 2), DIRECT, 0, 0);
+        table.copyInto(larger);
+        table = larger;
+        readers = new AtomicInteger();
+    }
+}
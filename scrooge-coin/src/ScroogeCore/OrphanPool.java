@@ -0,0 +1,173 @@
+package ScroogeCore;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds transactions that spend outputs not known yet (those {@link TxHandler#isValidTxV2} answers MAYBE for),
+ * indexed by the ScroogeCore.UTXOs they are missing, so that accepting a parent wakes exactly the orphans waiting
+ * on its outputs instead of re-validating every orphan. Orphans outlive the epoch they arrived in.
+ *
+ * The pool is bounded by the number of orphans and by their encoded size (see {@link TransactionCodec}); past
+ * either bound the least recently added orphan is evicted, and orphans older than the maximum age expire. Safe
+ * for use by several threads at once.
+ */
+public class OrphanPool {
+
+    public static final int DEFAULT_MAX_COUNT = 10000;
+    public static final long DEFAULT_MAX_BYTES = 16L << 20;
+    public static final long DEFAULT_MAX_AGE_MINUTES = 20;
+
+    private static final class Orphan {
+        final Transaction tx;
+        final int bytes;
+        final long addedAt;
+        final ArrayList<UTXO> missing;
+
+        Orphan(Transaction tx, int bytes, long addedAt, ArrayList<UTXO> missing) {
+            this.tx = tx;
+            this.bytes = bytes;
+            this.addedAt = addedAt;
+            this.missing = missing;
+        }
+    }
+
+    private final int maxCount;
+    private final long maxBytes;
+    private final long maxAgeNanos;
+
+    /** orphans by transaction hash, least recently added first */
+    private final LinkedHashMap<ByteBuffer, Orphan> orphans;
+
+    /** the orphans waiting on each missing ScroogeCore.UTXO */
+    private final HashMap<UTXO, ArrayList<Orphan>> waitingOn;
+
+    private long bytes;
+
+    /** Creates a pool with the default bounds */
+    public OrphanPool() {
+        this(DEFAULT_MAX_COUNT, DEFAULT_MAX_BYTES, DEFAULT_MAX_AGE_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /** Creates a pool of at most {@code maxCount} orphans and {@code maxBytes}, each kept at most {@code maxAge} */
+    public OrphanPool(int maxCount, long maxBytes, long maxAge, TimeUnit unit) {
+        if (maxCount < 0 || maxBytes < 0 || maxAge < 0)
+            throw new IllegalArgumentException("negative orphan pool bound");
+        this.maxCount = maxCount;
+        this.maxBytes = maxBytes;
+        this.maxAgeNanos = unit.toNanos(maxAge);
+        orphans = new LinkedHashMap<ByteBuffer, Orphan>();
+        waitingOn = new HashMap<UTXO, ArrayList<Orphan>>();
+    }
+
+    /**
+     * Adds {@code tx}, waiting on those of its inputs that {@code pool} does not hold. Adding an orphan that is
+     * already in the pool makes it the most recently added one.
+     *
+     * @return true if {@code tx} is in the pool afterwards; false if it misses no input, or is too large to keep
+     */
+    public synchronized boolean add(Transaction tx, UTXOPool pool) {
+        if (tx.getHash() == null)
+            return false;
+        ArrayList<UTXO> missing = new ArrayList<UTXO>();
+        for (Transaction.Input in : tx.getInputs()) {
+            if (in.prevTxHash == null)
+                return false;
+            UTXO ut = in.spentUTXO();
+            if (!pool.contains(ut) && !missing.contains(ut))
+                missing.add(ut);
+        }
+        if (missing.isEmpty())
+            return false;
+
+        long now = System.nanoTime();
+        expire(now);
+        remove(ByteBuffer.wrap(tx.getHash()));
+        Orphan orphan = new Orphan(tx, TransactionCodec.encodedSize(tx), now, missing);
+        if (orphan.bytes > maxBytes || maxCount == 0)
+            return false;
+        while (orphans.size() >= maxCount || bytes + orphan.bytes > maxBytes)
+            remove(orphans.keySet().iterator().next());
+
+        orphans.put(ByteBuffer.wrap(tx.getHash().clone()), orphan);
+        bytes += orphan.bytes;
+        for (UTXO ut : missing) {
+            ArrayList<Orphan> waiting = waitingOn.get(ut);
+            if (waiting == null) {
+                waiting = new ArrayList<Orphan>(1);
+                waitingOn.put(ut, waiting);
+            }
+            waiting.add(orphan);
+        }
+        return true;
+    }
+
+    /**
+     * Takes out of the pool every orphan waiting on an output of {@code parent}, typically because {@code parent}
+     * has just been accepted. The orphans are handed back to be validated again; one that still misses another
+     * input can simply be added again.
+     */
+    public synchronized ArrayList<Transaction> wake(Transaction parent) {
+        ArrayList<Transaction> woken = new ArrayList<Transaction>();
+        if (parent.getHash() == null || waitingOn.isEmpty())
+            return woken;
+        expire(System.nanoTime());
+        for (int i = 0; i < parent.numOutputs(); i++) {
+            ArrayList<Orphan> waiting = waitingOn.get(parent.outputUTXO(i));
+            if (waiting == null)
+                continue;
+            for (Orphan orphan : new ArrayList<Orphan>(waiting)) {
+                remove(ByteBuffer.wrap(orphan.tx.getHash()));
+                woken.add(orphan.tx);
+            }
+        }
+        return woken;
+    }
+
+    /** @return true if the pool holds the orphan with hash {@code txHash} */
+    public synchronized boolean contains(byte[] txHash) {
+        return orphans.containsKey(ByteBuffer.wrap(txHash));
+    }
+
+    /** @return the number of orphans in the pool */
+    public synchronized int size() {
+        return orphans.size();
+    }
+
+    /** @return the encoded size of the orphans in the pool, in bytes */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    /** Drops the orphans added {@code maxAge} or more before {@code now}; they are the first in {@link #orphans} */
+    private void expire(long now) {
+        Iterator<Orphan> it = orphans.values().iterator();
+        while (it.hasNext()) {
+            Orphan orphan = it.next();
+            if (now - orphan.addedAt < maxAgeNanos)
+                break;
+            it.remove();
+            unindex(orphan);
+        }
+    }
+
+    private void remove(ByteBuffer txHash) {
+        Orphan orphan = orphans.remove(txHash);
+        if (orphan != null)
+            unindex(orphan);
+    }
+
+    private void unindex(Orphan orphan) {
+        bytes -= orphan.bytes;
+        for (UTXO ut : orphan.missing) {
+            ArrayList<Orphan> waiting = waitingOn.get(ut);
+            waiting.remove(orphan);
+            if (waiting.isEmpty())
+                waitingOn.remove(ut);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package ScroogeCore;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A ScroogeCore.UTXOPool that records additions and removals on top of another pool without touching it. Reads
+ * see the base pool with the changes applied. {@link #commit()} writes the changes through to the base and
+ * {@link #rollback()} forgets them, so an epoch (or any speculative validation) costs in proportion to the UTXOs
+ * it touches instead of to the size of the ledger.
+ *
+ * The base must not be changed by anyone else while the overlay holds changes.
+ */
+public class OverlayUTXOPool extends UTXOPool {
+
+    private final UTXOPool base;
+
+    /** UTXOs added on top of the base; never one the base holds and {@link #removed} does not hide */
+    private HashMap<UTXO, Transaction.Output> added;
+
+    /** UTXOs of the base that are hidden, either removed or replaced by an entry of {@link #added} */
+    private HashSet<UTXO> removed;
+
+    /** Creates an overlay with no changes on top of {@code base} */
+    public OverlayUTXOPool(UTXOPool base) {
+        this.base = base;
+        added = new HashMap<UTXO, Transaction.Output>();
+        removed = new HashSet<UTXO>();
+    }
+
+    /** @return the pool this overlay records changes against */
+    public UTXOPool getBase() {
+        return base;
+    }
+
+    UTXOPool copy() {
+        OverlayUTXOPool copy = new OverlayUTXOPool(base);
+        copy.added.putAll(added);
+        copy.removed.addAll(removed);
+        return copy;
+    }
+
+    public void addUTXO(UTXO utxo, Transaction.Output txOut) {
+        if (!removed.contains(utxo) && base.contains(utxo))
+            removed.add(utxo);
+        added.put(utxo, txOut);
+    }
+
+    public void removeUTXO(UTXO utxo) {
+        if (added.remove(utxo) == null && base.contains(utxo))
+            removed.add(utxo);
+    }
+
+    public Transaction.Output getTxOutput(UTXO ut) {
+        Transaction.Output out = added.get(ut);
+        if (out != null || removed.contains(ut))
+            return out;
+        return base.getTxOutput(ut);
+    }
+
+    public boolean contains(UTXO utxo) {
+        if (added.containsKey(utxo))
+            return true;
+        return !removed.contains(utxo) && base.contains(utxo);
+    }
+
+    public int size() {
+        return base.size() - removed.size() + added.size();
+    }
+
+    public ArrayList<UTXO> getAllUTXO() {
+        ArrayList<UTXO> allUTXO = new ArrayList<UTXO>(size());
+        for (UTXO ut : base.getAllUTXO()) {
+            if (!removed.contains(ut))
+                allUTXO.add(ut);
+        }
+        allUTXO.addAll(added.keySet());
+        return allUTXO;
+    }
+
+    /**
+     * Streams the entries of the base the overlay does not hide, then those it added; the changes are copied,
+     * the base streams as it does by itself. See {@link UTXOPool#stream()}.
+     */
+    public Spliterator<Map.Entry<UTXO, Transaction.Output>> spliterator(UTXOFilter filter) {
+        HashSet<UTXO> hidden = new HashSet<UTXO>(removed);
+        HashMap<UTXO, Transaction.Output> own = new HashMap<UTXO, Transaction.Output>(added);
+        Stream<Map.Entry<UTXO, Transaction.Output>> visible = StreamSupport.stream(base.spliterator(filter), false)
+                .filter(e -> !hidden.contains(e.getKey()));
+        Stream<Map.Entry<UTXO, Transaction.Output>> changes =
+                StreamSupport.stream(new Filtered(own.entrySet().spliterator(), filter), false);
+        return Stream.concat(visible, changes).spliterator();
+    }
+
+    /** @return the number of UTXOs added or removed since the last commit or rollback */
+    public int numChanges() {
+        return added.size() + removed.size();
+    }
+
+    /** Applies the recorded changes to the base pool, commits the base and starts over with no changes */
+    public void commit() {
+        base.apply(removed, added);
+        rollback();
+        base.commit();
+    }
+
+    /** Forgets the recorded changes, leaving the base pool as it was */
+    public void rollback() {
+        added = new HashMap<UTXO, Transaction.Output>();
+        removed = new HashSet<UTXO>();
+    }
+}
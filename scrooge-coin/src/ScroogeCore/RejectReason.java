@@ -0,0 +1,26 @@
+package ScroogeCore;
+
+/** Why a proposed transaction was not accepted, see {@link TxHandlerMetrics} */
+public enum RejectReason {
+
+    /** an input spends a ScroogeCore.UTXO that is neither in the pool nor created in the epoch */
+    MISSING_UTXO,
+
+    /** an input has no signature, or one that does not verify under the owner of the output it spends */
+    BAD_SIGNATURE,
+
+    /** the transaction claims the same ScroogeCore.UTXO twice */
+    DOUBLE_CLAIM,
+
+    /** an output value is negative */
+    NEGATIVE_OUTPUT,
+
+    /** the outputs are worth more than the inputs */
+    OVERSPEND,
+
+    /** an input was already claimed by a transaction accepted earlier in the epoch */
+    CONFLICT,
+
+    /** an input has no previous transaction hash */
+    MALFORMED
+}
@@ -0,0 +1,191 @@
+package ScroogeCore;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A ScroogeCore.UTXOPool partitioned by the prefix of the UTXO's transaction hash into a power-of-two number of
+ * shards, each a {@link ConcurrentHashMap}. Lookups never lock, so any number of threads can serve balance and
+ * validity queries while an epoch is written, and writes to different shards never contend.
+ *
+ * An epoch committed through an {@link OverlayUTXOPool} is written shard by shard, on an executor when one is set
+ * (see {@link #setWriteExecutor}) and the epoch is large enough to be worth spreading. A reader sees each change
+ * as soon as its shard has it, so it may see part of an epoch; {@link #stream()} and {@link #getAllUTXO()} copy
+ * the entries as they find them, shard by shard. Safe for use by several threads at once.
+ */
+public class ShardedUTXOPool extends UTXOPool {
+
+    public static final int DEFAULT_SHARDS = 64;
+
+    /** changes an epoch needs before its shards are written in parallel */
+    private static final int MIN_PARALLEL_CHANGES = 1024;
+
+    private final ConcurrentHashMap<UTXO, Transaction.Output>[] shards;
+    private final int mask;
+
+    /** writes the shards of a large commit in parallel when set, see {@link #setWriteExecutor} */
+    private volatile ExecutorService writeExecutor;
+
+    /** Creates an empty pool of {@link #DEFAULT_SHARDS} shards */
+    public ShardedUTXOPool() {
+        this(DEFAULT_SHARDS);
+    }
+
+    /**
+     * Creates an empty pool of {@code numShards} shards
+     *
+     * @throws IllegalArgumentException if {@code numShards} is not a positive power of two
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ShardedUTXOPool(int numShards) {
+        if (numShards <= 0 || Integer.bitCount(numShards) != 1)
+            throw new IllegalArgumentException("shard count must be a power of two: " + numShards);
+        shards = new ConcurrentHashMap[numShards];
+        for (int s = 0; s < numShards; s++)
+            shards[s] = new ConcurrentHashMap<UTXO, Transaction.Output>();
+        mask = numShards - 1;
+    }
+
+    /** Creates a pool of {@code numShards} shards holding the entries of {@code uPool} */
+    public ShardedUTXOPool(UTXOPool uPool, int numShards) {
+        this(numShards);
+        for (UTXO ut : uPool.getAllUTXO())
+            addUTXO(ut, uPool.getTxOutput(ut));
+    }
+
+    UTXOPool copy() {
+        ShardedUTXOPool copy = new ShardedUTXOPool(shards.length);
+        for (int s = 0; s < shards.length; s++)
+            copy.shards[s].putAll(shards[s]);
+        copy.writeExecutor = writeExecutor;
+        return copy;
+    }
+
+    /**
+     * Writes the shards of every large enough commit in parallel on {@code executor}; the result is the same
+     * either way. Passing null goes back to writing on the committing thread; the pool never shuts the executor
+     * down.
+     */
+    public void setWriteExecutor(ExecutorService executor) {
+        writeExecutor = executor;
+    }
+
+    /** @return the number of shards */
+    public int numShards() {
+        return shards.length;
+    }
+
+    /** @return the shard holding {@code utxo}, picked by the first bytes of its transaction hash */
+    int shardOf(UTXO utxo) {
+        Hash256 hash = utxo.getHash256();
+        if (hash != null)
+            return (int) hash.word(0) & mask;
+        int h = utxo.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    public void addUTXO(UTXO utxo, Transaction.Output txOut) {
+        shards[shardOf(utxo)].put(utxo, txOut);
+    }
+
+    public void removeUTXO(UTXO utxo) {
+        shards[shardOf(utxo)].remove(utxo);
+    }
+
+    public Transaction.Output getTxOutput(UTXO ut) {
+        return shards[shardOf(ut)].get(ut);
+    }
+
+    public boolean contains(UTXO utxo) {
+        return shards[shardOf(utxo)].containsKey(utxo);
+    }
+
+    public int size() {
+        int size = 0;
+        for (ConcurrentHashMap<UTXO, Transaction.Output> shard : shards)
+            size += shard.size();
+        return size;
+    }
+
+    public ArrayList<UTXO> getAllUTXO() {
+        ArrayList<UTXO> allUTXO = new ArrayList<UTXO>(size());
+        for (ConcurrentHashMap<UTXO, Transaction.Output> shard : shards)
+            allUTXO.addAll(shard.keySet());
+        return allUTXO;
+    }
+
+    /** Copies the entries passing {@code filter}, shard by shard; see the class comment */
+    public Spliterator<Map.Entry<UTXO, Transaction.Output>> spliterator(UTXOFilter filter) {
+        ArrayList<Map.Entry<UTXO, Transaction.Output>> entries =
+                new ArrayList<Map.Entry<UTXO, Transaction.Output>>();
+        for (ConcurrentHashMap<UTXO, Transaction.Output> shard : shards) {
+            for (Map.Entry<UTXO, Transaction.Output> e : shard.entrySet()) {
+                if (filter.test(e.getValue()))
+                    entries.add(new AbstractMap.SimpleImmutableEntry<UTXO, Transaction.Output>(e));
+            }
+        }
+        return Spliterators.spliterator(entries, Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+    }
+
+    /** Splits the changes by shard and writes each shard's removals and then its additions, see the class comment */
+    void apply(Collection<UTXO> removed, Map<UTXO, Transaction.Output> added) {
+        ExecutorService executor = writeExecutor;
+        if (executor == null || shards.length == 1 || removed.size() + added.size() < MIN_PARALLEL_CHANGES) {
+            super.apply(removed, added);
+            return;
+        }
+        ArrayList<UTXO>[] removedBy = bucket(removed.size());
+        ArrayList<Map.Entry<UTXO, Transaction.Output>>[] addedBy = bucket(added.size());
+        for (UTXO ut : removed)
+            removedBy[shardOf(ut)].add(ut);
+        for (Map.Entry<UTXO, Transaction.Output> e : added.entrySet())
+            addedBy[shardOf(e.getKey())].add(e);
+
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int s = 0; s < shards.length; s++) {
+            if (removedBy[s].isEmpty() && addedBy[s].isEmpty())
+                continue;
+            final int shard = s;
+            tasks.add(() -> {
+                for (UTXO ut : removedBy[shard])
+                    shards[shard].remove(ut);
+                for (Map.Entry<UTXO, Transaction.Output> e : addedBy[shard])
+                    shards[shard].put(e.getKey(), e.getValue());
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> f : executor.invokeAll(tasks))
+                f.get();
+        } catch (InterruptedException e) {
+            // some shards may be done; writing every change again is harmless and leaves none undone
+            Thread.currentThread().interrupt();
+            super.apply(removed, added);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private <T> ArrayList<T>[] bucket(int total) {
+        ArrayList<T>[] buckets = new ArrayList[shards.length];
+        for (int s = 0; s < shards.length; s++)
+            buckets[s] = new ArrayList<T>(total / shards.length + 1);
+        return buckets;
+    }
+}
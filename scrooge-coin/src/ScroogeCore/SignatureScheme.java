@@ -0,0 +1,95 @@
+package ScroogeCore;
+
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
+
+/**
+ * The signature algorithms inputs can be signed with. Every key belongs to exactly one scheme, told by its
+ * algorithm, and every input names the scheme its signature was made with; a signature only verifies if the
+ * input's scheme is that of the key owning the spent output. The id is what the wire encoding stores.
+ *
+ * Ed25519 keys and signatures are 32 and 64 bytes against about 294 and 256 for 2048-bit RSA, and Ed25519 signs
+ * much faster. It needs a JDK that provides it (15 or later); {@link #isAvailable()} tells.
+ */
+public enum SignatureScheme {
+
+    /** RSA PKCS#1 v1.5 over SHA-256, the scheme of every input signed before schemes existed */
+    RSA((byte) 0, "SHA256withRSA", "RSA"),
+
+    /** Ed25519 (RFC 8032); the JDK names its keys EdDSA or Ed25519 */
+    ED25519((byte) 1, "Ed25519", "EdDSA", "Ed25519");
+
+    private final byte id;
+    private final String signatureAlgorithm;
+    private final String[] keyAlgorithms;
+
+    SignatureScheme(byte id, String signatureAlgorithm, String... keyAlgorithms) {
+        this.id = id;
+        this.signatureAlgorithm = signatureAlgorithm;
+        this.keyAlgorithms = keyAlgorithms;
+    }
+
+    /** @return the id of the scheme in the wire encoding */
+    public byte id() {
+        return id;
+    }
+
+    /** @return the {@link Signature} algorithm name of the scheme */
+    public String signatureAlgorithm() {
+        return signatureAlgorithm;
+    }
+
+    /** @return true if this JVM can sign and verify with the scheme */
+    public boolean isAvailable() {
+        try {
+            Signature.getInstance(signatureAlgorithm);
+            return true;
+        } catch (NoSuchAlgorithmException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the scheme with id {@code id}
+     * @throws IllegalArgumentException if no scheme has that id
+     */
+    public static SignatureScheme fromId(byte id) {
+        for (SignatureScheme scheme : values()) {
+            if (scheme.id == id)
+                return scheme;
+        }
+        throw new IllegalArgumentException("unknown signature scheme id: " + id);
+    }
+
+    /**
+     * @return the scheme of {@code key}, public or private
+     * @throws IllegalArgumentException if no scheme uses keys of its algorithm
+     */
+    public static SignatureScheme of(Key key) {
+        SignatureScheme scheme = forKeyAlgorithm(key.getAlgorithm());
+        if (scheme == null)
+            throw new IllegalArgumentException("no signature scheme for " + key.getAlgorithm() + " keys");
+        return scheme;
+    }
+
+    /** @return the scheme of keys of algorithm {@code algorithm}, or null */
+    static SignatureScheme forKeyAlgorithm(String algorithm) {
+        for (SignatureScheme scheme : values()) {
+            for (String keyAlgorithm : scheme.keyAlgorithms) {
+                if (keyAlgorithm.equals(algorithm))
+                    return scheme;
+            }
+        }
+        return null;
+    }
+
+    /** @return a new Signature of the scheme */
+    Signature newSignature() {
+        try {
+            return Signature.getInstance(signatureAlgorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(signatureAlgorithm + " is not available", e);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package ScroogeCore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Verifies the signatures on every input of an epoch up front, spread over an executor. The key an input has
+ * to be signed with is fixed before the epoch is walked (it belongs either to an output in the pool or to an
+ * output of a transaction proposed in the same epoch), so the verdicts do not depend on acceptance order.
+ * Transactions failing a {@link ValidationRule.Cost#STRUCTURE} rule are rejected by it anyway, so their
+ * signatures are never verified.
+ */
+class SignatureStage {
+
+    /** inputs handed to one task; small enough to balance, large enough to amortise the scheduling */
+    private static final int MIN_CHUNK = 64;
+
+    private SignatureStage() {
+    }
+
+    /**
+     * @return for each transaction of {@code graph}, whether the signatures on all its inputs are valid (or
+     *         need no checking as {@code rules} reject it before they would), or null if the stage was
+     *         interrupted and the caller should verify sequentially
+     */
+    static boolean[] verify(EpochGraph graph, UTXOPool pool, ExecutorService executor, ValidationPipeline rules) {
+        int numInputs = graph.numInputs();
+        boolean[] badTx = new boolean[graph.size()];
+        if (numInputs == 0)
+            return invert(badTx);
+        boolean[] skipped = new boolean[graph.size()];
+        for (int i = 0; i < skipped.length; i++)
+            skipped[i] = graph.isUnresolvable(i) || rules.checkStructure(graph.txs[i]) != null;
+
+        int parallelism = executor instanceof ForkJoinPool ? ((ForkJoinPool) executor).getParallelism()
+                : Runtime.getRuntime().availableProcessors();
+        int chunk = Math.max(MIN_CHUNK, (numInputs + parallelism * 4 - 1) / (parallelism * 4));
+
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int lo = 0; lo < numInputs; lo += chunk) {
+            final int from = lo, to = Math.min(numInputs, lo + chunk);
+            tasks.add(() -> {
+                verifyRange(graph, pool, from, to, skipped, badTx);
+                return null;
+            });
+        }
+
+        try {
+            for (Future<Void> f : executor.invokeAll(tasks))
+                f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+        return invert(badTx);
+    }
+
+    /** Verifies inputs {@code from} .. {@code to - 1} of the epoch, flagging the transactions that fail */
+    private static void verifyRange(EpochGraph graph, UTXOPool pool, int from, int to, boolean[] skipped,
+                                    boolean[] badTx) {
+        int i = graph.txOfInput(from);
+        int e = from;
+        while (e < to) {
+            Transaction tx = graph.txs[i];
+            int first = graph.firstInput(i);
+            int end = Math.min(to, first + tx.numInputs());
+            if (skipped[i]) {
+                e = end;
+            }
+            for (; e < end; e++) {
+                // another chunk may have failed this transaction already, the flag only ever goes one way
+                if (badTx[i])
+                    continue;
+                Transaction.Input in = tx.getInput(e - first);
+                Transaction.Output spent = graph.spentOutput(e, in, pool);
+                if (spent == null || in.signature == null
+                        || !Crypto.verifyInputSignature(spent.address, tx, e - first))
+                    badTx[i] = true;
+            }
+            i++;
+        }
+    }
+
+    private static boolean[] invert(boolean[] flags) {
+        for (int i = 0; i < flags.length; i++)
+            flags[i] = !flags[i];
+        return flags;
+    }
+}
@@ -0,0 +1,231 @@
+package ScroogeCore;
+
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Verifies signatures of every {@link SignatureScheme} with one reusable {@link Signature} per scheme and thread,
+ * and remembers the outcome of recent checks so that verifying the same signature again (e.g. when a transaction
+ * is proposed in several epochs) costs a digest and a hash lookup. Safe for use by several threads at once.
+ */
+public class SignatureVerifier {
+
+    /** number of verdicts the default verifier remembers, 0 (e.g. to benchmark cold verification) disabling it */
+    public static final int DEFAULT_CACHE_SIZE = Integer.getInteger("scrooge.signatureCacheSize", 1 << 15);
+
+    private static final SignatureVerifier DEFAULT = new SignatureVerifier(DEFAULT_CACHE_SIZE);
+
+    /** marks signed data that has no int between its head and tail */
+    private static final long NO_INDEX = Long.MIN_VALUE;
+
+    /** the cache is split in independently locked segments so parallel verification does not serialise on it */
+    private static final int SEGMENTS = 16;
+
+    /** a thread's verifiers by scheme ordinal, each created the first time the thread meets the scheme */
+    private final ThreadLocal<Verifier[]> verifiers =
+            ThreadLocal.withInitial(() -> new Verifier[SignatureScheme.values().length]);
+    private final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(SignatureVerifier::newDigest);
+    private final Segment[] segments;
+
+    /** Creates a verifier remembering about {@code cacheSize} verdicts; 0 disables the cache */
+    public SignatureVerifier(int cacheSize) {
+        segments = new Segment[cacheSize > 0 ? SEGMENTS : 0];
+        for (int i = 0; i < segments.length; i++)
+            segments[i] = new Segment(Math.max(1, cacheSize / SEGMENTS));
+    }
+
+    /** @return the verifier shared by {@link Crypto#verifySignature} */
+    public static SignatureVerifier getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return true if {@code signature} is a valid signature of {@code message} under {@code pubKey}, in the
+     *         scheme of the key; false if it is not, or if the key or the signature is malformed
+     */
+    public boolean verify(PublicKey pubKey, byte[] message, byte[] signature) {
+        if (message == null || pubKey == null)
+            return false;
+        return verify(SignatureScheme.forKeyAlgorithm(pubKey.getAlgorithm()), pubKey, message, NO_INDEX, null,
+                signature);
+    }
+
+    /**
+     * @return true if input {@code index} of {@code tx} carries a valid signature under {@code pubKey}. The
+     *         signing data is fed to the verifier piece by piece, reusing the cached outputs section of
+     *         {@code tx}, rather than being assembled with {@link Transaction#getRawDataToSign(int)}. The input
+     *         must name the scheme of {@code pubKey}.
+     */
+    public boolean verifyInput(PublicKey pubKey, Transaction tx, int index) {
+        Transaction.Input in = tx.getInput(index);
+        if (in == null)
+            return false;
+        return verify(in.scheme, pubKey, in.prevTxHash, in.outputIndex, tx.getOutputsSection(), in.signature);
+    }
+
+    /**
+     * Verifies {@code signature} over the concatenation of {@code head}, {@code index} as a big-endian int
+     * (left out when it is {@link #NO_INDEX}) and {@code tail}; null pieces are empty. The signature must have
+     * been made in {@code scheme}, which must be the scheme of {@code pubKey}.
+     */
+    boolean verify(SignatureScheme scheme, PublicKey pubKey, byte[] head, long index, byte[] tail, byte[] signature) {
+        return verify(scheme, pubKey, head, 0, head == null ? 0 : head.length, index, tail, signature);
+    }
+
+    /**
+     * As {@link #verify(SignatureScheme, PublicKey, byte[], long, byte[], byte[])}, with the head being
+     * {@code headLength} bytes of {@code head} from {@code headOffset}, so it can be read where it is stored
+     */
+    boolean verify(SignatureScheme scheme, PublicKey pubKey, byte[] head, int headOffset, int headLength, long index,
+            byte[] tail, byte[] signature) {
+        if (pubKey == null || signature == null || scheme == null)
+            return false;
+        if (scheme != SignatureScheme.forKeyAlgorithm(pubKey.getAlgorithm()))
+            return false;
+        if (segments.length == 0)
+            return check(scheme, pubKey, head, headOffset, headLength, index, tail, signature);
+
+        Key key = new Key(digest(head, headOffset, headLength, index, tail, signature), pubKey);
+        Segment segment = segments[(key.hash >>> 1) % segments.length];
+        Boolean known = segment.lookup(key);
+        if (known != null)
+            return known;
+        boolean valid = check(scheme, pubKey, head, headOffset, headLength, index, tail, signature);
+        segment.remember(key, valid);
+        return valid;
+    }
+
+    private boolean check(SignatureScheme scheme, PublicKey pubKey, byte[] head, int headOffset, int headLength,
+            long index, byte[] tail, byte[] signature) {
+        Verifier[] schemes = verifiers.get();
+        Verifier verifier = schemes[scheme.ordinal()];
+        if (verifier == null) {
+            verifier = new Verifier(scheme.newSignature());
+            schemes[scheme.ordinal()] = verifier;
+        }
+        Signature sig = verifier.signature;
+        try {
+            // verify() leaves the Signature initialised with the same key, so a key signing several inputs in a
+            // row is parsed once; the registry hands out the same key object for every output of one owner
+            if (verifier.key != pubKey) {
+                verifier.key = null;
+                sig.initVerify(pubKey);
+                verifier.key = pubKey;
+            }
+            if (head != null)
+                sig.update(head, headOffset, headLength);
+            if (index != NO_INDEX) {
+                sig.update((byte) (index >>> 24));
+                sig.update((byte) (index >>> 16));
+                sig.update((byte) (index >>> 8));
+                sig.update((byte) index);
+            }
+            if (tail != null)
+                sig.update(tail);
+            return sig.verify(signature);
+        } catch (InvalidKeyException e) {
+            return false;
+        } catch (SignatureException e) {
+            // the state of the Signature is unknown after a failure, initialise it again next time
+            verifier.key = null;
+            return false;
+        }
+    }
+
+    /** Digest of both the signed data and the signature, with the data length so the two cannot be re-split */
+    private byte[] digest(byte[] head, int headOffset, int headLength, long index, byte[] tail, byte[] signature) {
+        int length = (head == null ? 0 : headLength) + (index == NO_INDEX ? 0 : 4) + (tail == null ? 0 : tail.length);
+        MessageDigest md = digests.get();
+        md.update((byte) (length >>> 24));
+        md.update((byte) (length >>> 16));
+        md.update((byte) (length >>> 8));
+        md.update((byte) length);
+        if (head != null)
+            md.update(head, headOffset, headLength);
+        if (index != NO_INDEX) {
+            md.update((byte) (index >>> 24));
+            md.update((byte) (index >>> 16));
+            md.update((byte) (index >>> 8));
+            md.update((byte) index);
+        }
+        if (tail != null)
+            md.update(tail);
+        md.update(signature);
+        return md.digest();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /** A thread's Signature of one scheme and the key it was last initialised with */
+    private static final class Verifier {
+        final Signature signature;
+        PublicKey key;
+
+        Verifier(Signature signature) {
+            this.signature = signature;
+        }
+    }
+
+    /** Cache key: digest of the signed data and signature, plus the key they were checked against */
+    private static final class Key {
+        private final byte[] digest;
+        private final PublicKey pubKey;
+        private final int hash;
+
+        Key(byte[] digest, PublicKey pubKey) {
+            this.digest = digest;
+            this.pubKey = pubKey;
+            // the digest is uniformly distributed already, its first bytes make a good hash
+            this.hash = ((digest[0] & 0xff) << 24) | ((digest[1] & 0xff) << 16) | ((digest[2] & 0xff) << 8)
+                    | (digest[3] & 0xff);
+        }
+
+        public boolean equals(Object other) {
+            if (!(other instanceof Key))
+                return false;
+            Key k = (Key) other;
+            return hash == k.hash && Arrays.equals(digest, k.digest) && pubKey.equals(k.pubKey);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /** One independently locked LRU part of the cache */
+    private static final class Segment extends LinkedHashMap<Key, Boolean> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        synchronized Boolean lookup(Key key) {
+            return get(key);
+        }
+
+        synchronized void remember(Key key, boolean valid) {
+            put(key, valid);
+        }
+
+        protected boolean removeEldestEntry(Map.Entry<Key, Boolean> eldest) {
+            return size() > capacity;
+        }
+    }
+}
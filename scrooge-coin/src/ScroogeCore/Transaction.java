@@ -9,13 +9,15 @@ import java.security.PublicKey;
 
 public class Transaction {
 
-    public class Input {
+    public static class Input {
         /** hash of the ScroogeCore.Transaction whose output is being used */
         public byte[] prevTxHash;
         /** used output's index in the previous transaction */
         public int outputIndex;
         /** the signature produced to check validity */
         public byte[] signature;
+        /** the scheme {@link #signature} was made with, which must be that of the key owning the spent output */
+        public SignatureScheme scheme = SignatureScheme.RSA;
 
         public Input(byte[] prevHash, int index) {
             if (prevHash == null)
@@ -25,31 +27,121 @@ public class Transaction {
             outputIndex = index;
         }
 
+        /** the ScroogeCore.UTXO this input spends, with the prevTxHash array it was built from */
+        private static final class Spent {
+            final byte[] prevTxHash;
+            final UTXO utxo;
+
+            Spent(byte[] prevTxHash, UTXO utxo) {
+                this.prevTxHash = prevTxHash;
+                this.utxo = utxo;
+            }
+        }
+
+        private Spent spent;
+
+        /**
+         * @return the ScroogeCore.UTXO this input spends, or null if prevTxHash is null. Built once, and again only
+         *         if prevTxHash or outputIndex is assigned; a prevTxHash changed in place is not noticed.
+         */
+        UTXO spentUTXO() {
+            byte[] prev = prevTxHash;
+            if (prev == null)
+                return null;
+            // final fields make a Spent safe to share between threads, like the entries of Output
+            Spent s = spent;
+            if (s == null || s.prevTxHash != prev || s.utxo.getIndex() != outputIndex) {
+                s = new Spent(prev, new UTXO(prev, outputIndex));
+                spent = s;
+            }
+            return s.utxo;
+        }
+
         public void addSignature(byte[] sig) {
             if (sig == null)
                 signature = null;
             else
                 signature = Arrays.copyOf(sig, sig.length);
         }
+
+        public void addSignature(byte[] sig, SignatureScheme sigScheme) {
+            addSignature(sig);
+            scheme = sigScheme;
+        }
     }
 
-    public class Output {
+    public static class Output {
         /** value in bitcoins of the output */
         public double value;
         /** the address or public key of the recipient */
         public PublicKey address;
 
+        /**
+         * the address with its encoding, from the {@link KeyRegistry}; its id is -1 until the address is found
+         * interned, as outputs that only pass through validation or codecs must not intern their keys
+         */
+        private KeyRegistry.Entry entry;
+
         public Output(double v, PublicKey addr) {
             value = v;
             address = addr;
         }
+
+        /** @return {@code address.getEncoded()}, computed once per key; callers must not modify it */
+        byte[] encodedAddress() {
+            return entry().encoded;
+        }
+
+        /** @return the {@link KeyRegistry} id of the address, interning it; for pools taking the output in */
+        int keyId() {
+            KeyRegistry.Entry e = entry();
+            if (e.id < 0) {
+                e = KeyRegistry.getDefault().entry(address);
+                if (e.key != address)
+                    e = new KeyRegistry.Entry(e.id, address, e.encoded);
+                entry = e;
+            }
+            return e.id;
+        }
+
+        /** @return the {@link KeyRegistry} id of the address, or -1 if it is not interned; never interns it */
+        int keyIdIfPresent() {
+            KeyRegistry.Entry e = entry();
+            if (e.id < 0) {
+                // another output of the same key may have entered a pool since
+                int id = KeyRegistry.getDefault().idIfPresent(address, ByteBuffer.wrap(e.encoded));
+                if (id < 0)
+                    return -1;
+                e = new KeyRegistry.Entry(id, address, e.encoded);
+                entry = e;
+            }
+            return e.id;
+        }
+
+        // entries are immutable, so outputs can share them between threads without locking
+        private KeyRegistry.Entry entry() {
+            KeyRegistry.Entry e = entry;
+            if (e == null || e.key != address) {
+                e = KeyRegistry.getDefault().lookup(address);
+                entry = e;
+            }
+            return e;
+        }
     }
 
     /** hash of the transaction, its unique id */
     private byte[] hash;
+    /** {@link #hash} as a Hash256, built on first use; null until then or if the hash is not 32 bytes long */
+    private volatile Hash256 hash256;
     private ArrayList<Input> inputs;
     private ArrayList<Output> outputs;
 
+    /**
+     * encoding of all outputs, the part of the signing data shared by every input; built on first use and
+     * dropped by addOutput. Outputs changed in place through getOutputs() are not noticed.
+     */
+    private volatile byte[] outputsSection;
+
     public Transaction() {
         inputs = new ArrayList<Input>();
         outputs = new ArrayList<Output>();
@@ -59,6 +151,7 @@ public class Transaction {
         hash = tx.hash.clone();
         inputs = new ArrayList<Input>(tx.inputs);
         outputs = new ArrayList<Output>(tx.outputs);
+        outputsSection = tx.outputsSection;
     }
 
     public void addInput(byte[] prevTxHash, int outputIndex) {
@@ -69,6 +162,7 @@ public class Transaction {
     public void addOutput(double value, PublicKey address) {
         Output op = new Output(value, address);
         outputs.add(op);
+        outputsSection = null;
     }
 
     public void removeInput(int index) {
@@ -78,8 +172,7 @@ public class Transaction {
     public void removeInput(UTXO ut) {
         for (int i = 0; i < inputs.size(); i++) {
             Input in = inputs.get(i);
-            UTXO u = new UTXO(in.prevTxHash, in.outputIndex);
-            if (u.equals(ut)) {
+            if (ut.equals(in.spentUTXO())) {
                 inputs.remove(i);
                 return;
             }
@@ -88,75 +181,36 @@ public class Transaction {
 
     public byte[] getRawDataToSign(int index) {
         // ith input and all outputs
-        ArrayList<Byte> sigData = new ArrayList<Byte>();
-        if (index > inputs.size())
+        if (index >= inputs.size())
             return null;
-        Input in = inputs.get(index);
-        byte[] prevTxHash = in.prevTxHash;
-        ByteBuffer b = ByteBuffer.allocate(Integer.SIZE / 8);
-        b.putInt(in.outputIndex);
-        byte[] outputIndex = b.array();
-        if (prevTxHash != null)
-            for (int i = 0; i < prevTxHash.length; i++)
-                sigData.add(prevTxHash[i]);
-        for (int i = 0; i < outputIndex.length; i++)
-            sigData.add(outputIndex[i]);
-        for (Output op : outputs) {
-            ByteBuffer bo = ByteBuffer.allocate(Double.SIZE / 8);
-            bo.putDouble(op.value);
-            byte[] value = bo.array();
-            byte[] addressBytes = op.address.getEncoded();
-            for (int i = 0; i < value.length; i++)
-                sigData.add(value[i]);
-
-            for (int i = 0; i < addressBytes.length; i++)
-                sigData.add(addressBytes[i]);
-        }
-        byte[] sigD = new byte[sigData.size()];
-        int i = 0;
-        for (Byte sb : sigData)
-            sigD[i++] = sb;
+        byte[] sigD = new byte[TransactionCodec.dataToSignSize(this, index)];
+        TransactionCodec.writeDataToSign(this, index, ByteBuffer.wrap(sigD));
         return sigD;
     }
 
+    /** @return the encoding of all outputs as it appears in the signing data; callers must not modify it */
+    byte[] getOutputsSection() {
+        byte[] section = outputsSection;
+        if (section == null) {
+            section = TransactionCodec.encodeOutputs(this);
+            outputsSection = section;
+        }
+        return section;
+    }
+
+    /** Sets the signature of input {@code index}, made with {@link SignatureScheme#RSA} */
     public void addSignature(byte[] signature, int index) {
         inputs.get(index).addSignature(signature);
     }
 
-    public byte[] getRawTx() {
-        ArrayList<Byte> rawTx = new ArrayList<Byte>();
-        for (Input in : inputs) {
-            byte[] prevTxHash = in.prevTxHash;
-            ByteBuffer b = ByteBuffer.allocate(Integer.SIZE / 8);
-            b.putInt(in.outputIndex);
-            byte[] outputIndex = b.array();
-            byte[] signature = in.signature;
-            if (prevTxHash != null)
-                for (int i = 0; i < prevTxHash.length; i++)
-                    rawTx.add(prevTxHash[i]);
-            for (int i = 0; i < outputIndex.length; i++)
-                rawTx.add(outputIndex[i]);
-            if (signature != null)
-                for (int i = 0; i < signature.length; i++)
-                    rawTx.add(signature[i]);
-        }
-        for (Output op : outputs) {
-            ByteBuffer b = ByteBuffer.allocate(Double.SIZE / 8);
-            b.putDouble(op.value);
-            byte[] value = b.array();
-            byte[] addressBytes = op.address.getEncoded();
-            for (int i = 0; i < value.length; i++) {
-                rawTx.add(value[i]);
-            }
-            for (int i = 0; i < addressBytes.length; i++) {
-                rawTx.add(addressBytes[i]);
-            }
+    /** Sets the signature of input {@code index}, made with {@code scheme} */
+    public void addSignature(byte[] signature, int index, SignatureScheme scheme) {
+        inputs.get(index).addSignature(signature, scheme);
+    }
 
-        }
-        byte[] tx = new byte[rawTx.size()];
-        int i = 0;
-        for (Byte b : rawTx)
-            tx[i++] = b;
+    public byte[] getRawTx() {
+        byte[] tx = new byte[TransactionCodec.rawTxSize(this)];
+        TransactionCodec.writeRawTx(this, ByteBuffer.wrap(tx));
         return tx;
     }
 
@@ -165,6 +219,7 @@ public class Transaction {
             MessageDigest md = MessageDigest.getInstance("SHA-256");
             md.update(getRawTx());
             hash = md.digest();
+            hash256 = null;
         } catch (NoSuchAlgorithmException x) {
             x.printStackTrace(System.err);
         }
@@ -172,12 +227,35 @@ public class Transaction {
 
     public void setHash(byte[] h) {
         hash = h;
+        hash256 = null;
     }
 
     public byte[] getHash() {
         return hash;
     }
 
+    /**
+     * @return the hash as a Hash256, or null if the transaction has no hash or it is not 32 bytes long. Built
+     *         once per hash; a hash changed in place is not noticed.
+     */
+    public Hash256 getHash256() {
+        byte[] h = hash;
+        Hash256 id = hash256;
+        if (h == null || h.length != Hash256.BYTES)
+            return null;
+        if (id == null) {
+            id = Hash256.of(h);
+            hash256 = id;
+        }
+        return id;
+    }
+
+    /** @return the ScroogeCore.UTXO of output {@code index} of this transaction, which must have a hash */
+    UTXO outputUTXO(int index) {
+        Hash256 id = getHash256();
+        return id != null ? new UTXO(id, index) : new UTXO(hash, index);
+    }
+
     public ArrayList<Input> getInputs() {
         return inputs;
     }
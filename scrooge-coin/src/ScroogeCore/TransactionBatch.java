@@ -0,0 +1,293 @@
+package ScroogeCore;
+
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * A batch of transactions stored column by column: the inputs and outputs of all transactions sit in parallel
+ * primitive arrays, and every hash (of the transactions and of the outputs they spend) in one byte array. The
+ * checks of {@link TxHandler#isValidTxV2} that need no pool run as plain loops over these arrays, instead of
+ * following a pointer per Input and Output.
+ *
+ * Keys are held as ids into a table of the batch's own, not the {@link KeyRegistry}, so batching proposed
+ * transactions interns none of their keys; signatures and the signed outputs section of each transaction are kept
+ * by reference. A batch is immutable once built.
+ */
+public class TransactionBatch {
+
+    private final int size;
+
+    /** inputs of transaction i are numbered inputStart[i] .. inputStart[i + 1] - 1 across the batch */
+    private final int[] inputStart;
+    private final int[] outputStart;
+
+    /** all hashes, back to back; a hash is an offset into the arena and a length, -1 for a null hash */
+    private final byte[] hashArena;
+    private final int[] txHashOffset;
+    private final int[] txHashLength;
+
+    /** input columns */
+    private final int[] prevHashOffset;
+    private final int[] prevHashLength;
+    private final int[] prevIndex;
+    private final byte[][] signatures;
+    private final SignatureScheme[] schemes;
+
+    /** output columns */
+    private final double[] value;
+    private final int[] keyId;
+
+    /** the distinct keys of the outputs, {@link #keyId} indexing this table */
+    private final PublicKey[] keys;
+
+    /** the signed encoding of the outputs of each transaction, see {@link Transaction#getOutputsSection} */
+    private final byte[][] outputsSections;
+
+    private TransactionBatch(Transaction[] txs) {
+        size = txs.length;
+        inputStart = new int[size + 1];
+        outputStart = new int[size + 1];
+        int arenaBytes = 0;
+        for (int i = 0; i < size; i++) {
+            Transaction tx = txs[i];
+            inputStart[i + 1] = inputStart[i] + tx.numInputs();
+            outputStart[i + 1] = outputStart[i] + tx.numOutputs();
+            arenaBytes += tx.getHash() == null ? 0 : tx.getHash().length;
+            for (Transaction.Input in : tx.getInputs())
+                arenaBytes += in.prevTxHash == null ? 0 : in.prevTxHash.length;
+        }
+
+        hashArena = new byte[arenaBytes];
+        txHashOffset = new int[size];
+        txHashLength = new int[size];
+        prevHashOffset = new int[inputStart[size]];
+        prevHashLength = new int[inputStart[size]];
+        prevIndex = new int[inputStart[size]];
+        signatures = new byte[inputStart[size]][];
+        schemes = new SignatureScheme[inputStart[size]];
+        value = new double[outputStart[size]];
+        keyId = new int[outputStart[size]];
+        outputsSections = new byte[size][];
+
+        // outputs of one owner usually share the key object, so keys are told apart by identity
+        IdentityHashMap<PublicKey, Integer> ids = new IdentityHashMap<PublicKey, Integer>();
+        ArrayList<PublicKey> table = new ArrayList<PublicKey>();
+        int pos = 0, e = 0, o = 0;
+        for (int i = 0; i < size; i++) {
+            Transaction tx = txs[i];
+            txHashOffset[i] = pos;
+            txHashLength[i] = tx.getHash() == null ? -1 : tx.getHash().length;
+            pos = append(tx.getHash(), pos);
+            for (Transaction.Input in : tx.getInputs()) {
+                prevHashOffset[e] = pos;
+                prevHashLength[e] = in.prevTxHash == null ? -1 : in.prevTxHash.length;
+                pos = append(in.prevTxHash, pos);
+                prevIndex[e] = in.outputIndex;
+                signatures[e] = in.signature;
+                schemes[e] = in.scheme;
+                e++;
+            }
+            for (Transaction.Output op : tx.getOutputs()) {
+                value[o] = op.value;
+                Integer id = ids.get(op.address);
+                if (id == null) {
+                    id = table.size();
+                    ids.put(op.address, id);
+                    table.add(op.address);
+                }
+                keyId[o] = id;
+                o++;
+            }
+            outputsSections[i] = tx.getOutputsSection();
+        }
+        keys = table.toArray(new PublicKey[table.size()]);
+    }
+
+    /** @return a batch holding {@code txs}, in the same order */
+    public static TransactionBatch of(Transaction[] txs) {
+        return new TransactionBatch(txs);
+    }
+
+    private int append(byte[] hash, int pos) {
+        if (hash == null)
+            return pos;
+        System.arraycopy(hash, 0, hashArena, pos, hash.length);
+        return pos + hash.length;
+    }
+
+    /** @return the number of transactions in the batch */
+    public int size() {
+        return size;
+    }
+
+    public int numInputs(int tx) {
+        return inputStart[tx + 1] - inputStart[tx];
+    }
+
+    public int numOutputs(int tx) {
+        return outputStart[tx + 1] - outputStart[tx];
+    }
+
+    /** @return a copy of the hash of transaction {@code tx}, or null */
+    public byte[] getHash(int tx) {
+        return slice(txHashOffset[tx], txHashLength[tx]);
+    }
+
+    /** @return the ScroogeCore.UTXO spent by input {@code input} of transaction {@code tx}, or null */
+    public UTXO getSpentUTXO(int tx, int input) {
+        int e = inputStart[tx] + input;
+        if (prevHashLength[e] < 0)
+            return null;
+        return spentUTXO(e);
+    }
+
+    public double getValue(int tx, int output) {
+        return value[outputStart[tx] + output];
+    }
+
+    public PublicKey getAddress(int tx, int output) {
+        return keys[keyId[outputStart[tx] + output]];
+    }
+
+    /** @return transaction {@code tx} as a Transaction, its hash taken as it is rather than recomputed */
+    public Transaction toTransaction(int tx) {
+        Transaction t = new Transaction();
+        for (int e = inputStart[tx]; e < inputStart[tx + 1]; e++) {
+            t.addInput(slice(prevHashOffset[e], prevHashLength[e]), prevIndex[e]);
+            t.addSignature(signatures[e], e - inputStart[tx], schemes[e]);
+        }
+        for (int o = outputStart[tx]; o < outputStart[tx + 1]; o++)
+            t.addOutput(value[o], keys[keyId[o]]);
+        t.setHash(getHash(tx));
+        return t;
+    }
+
+    /** @return every transaction of the batch as a Transaction, see {@link #toTransaction} */
+    public Transaction[] toTransactions() {
+        Transaction[] txs = new Transaction[size];
+        for (int i = 0; i < size; i++)
+            txs[i] = toTransaction(i);
+        return txs;
+    }
+
+    /** @return for each transaction, the sum of its output values */
+    public double[] outputSums() {
+        double[] sums = new double[size];
+        for (int i = 0; i < size; i++) {
+            double sum = 0;
+            for (int o = outputStart[i]; o < outputStart[i + 1]; o++)
+                sum += value[o];
+            sums[i] = sum;
+        }
+        return sums;
+    }
+
+    /** @return for each transaction, whether any of its output values is negative */
+    public boolean[] negativeOutputs() {
+        boolean[] negative = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            for (int o = outputStart[i]; o < outputStart[i + 1]; o++)
+                negative[i] |= value[o] < 0;
+        }
+        return negative;
+    }
+
+    /** @return for each transaction, whether it claims the same ScroogeCore.UTXO twice */
+    public boolean[] duplicateInputs() {
+        boolean[] duplicate = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            // transactions have few inputs, comparing every pair in the arena beats building a set
+            for (int a = inputStart[i] + 1; a < inputStart[i + 1] && !duplicate[i]; a++) {
+                for (int b = inputStart[i]; b < a; b++) {
+                    if (sameOutpoint(a, b)) {
+                        duplicate[i] = true;
+                        break;
+                    }
+                }
+            }
+        }
+        return duplicate;
+    }
+
+    private boolean sameOutpoint(int a, int b) {
+        if (prevIndex[a] != prevIndex[b] || prevHashLength[a] != prevHashLength[b])
+            return false;
+        int offA = prevHashOffset[a], offB = prevHashOffset[b];
+        for (int k = 0; k < prevHashLength[a]; k++) {
+            if (hashArena[offA + k] != hashArena[offB + k])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Validates every transaction of the batch on its own against {@code pool}, exactly as
+     * {@link TxHandler#isValidTxV2} would with the {@link ValidationPipeline#DEFAULT default rules}, in their
+     * order. The checks that need no pool run first, a column at a time, and signatures are verified last.
+     */
+    public TxHandler.ThreeState[] validate(UTXOPool pool) {
+        double[] outputSums = outputSums();
+        boolean[] negative = negativeOutputs();
+        boolean[] duplicate = duplicateInputs();
+        SignatureVerifier verifier = SignatureVerifier.getDefault();
+
+        TxHandler.ThreeState[] states = new TxHandler.ThreeState[size];
+        Transaction.Output[] prevs = new Transaction.Output[maxInputs()];
+        for (int i = 0; i < size; i++) {
+            states[i] = TxHandler.ThreeState.TRUE;
+            for (int e = inputStart[i]; e < inputStart[i + 1]; e++) {
+                if (prevHashLength[e] < 0)
+                    states[i] = TxHandler.ThreeState.FALSE;
+            }
+            if (states[i] != TxHandler.ThreeState.TRUE || duplicate[i] || negative[i]) {
+                states[i] = TxHandler.ThreeState.FALSE;
+                continue;
+            }
+            double inputSum = 0;
+            for (int e = inputStart[i]; e < inputStart[i + 1]; e++) {
+                Transaction.Output prev = pool.getTxOutput(spentUTXO(e));
+                if (prev == null) {
+                    states[i] = TxHandler.ThreeState.MAYBE;
+                    break;
+                }
+                prevs[e - inputStart[i]] = prev;
+                inputSum += prev.value;
+            }
+            if (states[i] != TxHandler.ThreeState.TRUE)
+                continue;
+            if (inputSum < outputSums[i]) {
+                states[i] = TxHandler.ThreeState.FALSE;
+                continue;
+            }
+            for (int e = inputStart[i]; e < inputStart[i + 1]; e++) {
+                // the spent hash is signed where it sits in the arena, not copied out of it
+                if (!verifier.verify(schemes[e], prevs[e - inputStart[i]].address, hashArena, prevHashOffset[e],
+                        prevHashLength[e], prevIndex[e], outputsSections[i], signatures[e])) {
+                    states[i] = TxHandler.ThreeState.FALSE;
+                    break;
+                }
+            }
+        }
+        return states;
+    }
+
+    private int maxInputs() {
+        int max = 0;
+        for (int i = 0; i < size; i++)
+            max = Math.max(max, inputStart[i + 1] - inputStart[i]);
+        return max;
+    }
+
+    /** @return the ScroogeCore.UTXO spent by input {@code e} of the batch, whose hash must not be null */
+    private UTXO spentUTXO(int e) {
+        if (prevHashLength[e] == Hash256.BYTES)
+            return new UTXO(Hash256.of(hashArena, prevHashOffset[e]), prevIndex[e]);
+        return new UTXO(slice(prevHashOffset[e], prevHashLength[e]), prevIndex[e]);
+    }
+
+    private byte[] slice(int offset, int length) {
+        return length < 0 ? null : Arrays.copyOfRange(hashArena, offset, offset + length);
+    }
+}
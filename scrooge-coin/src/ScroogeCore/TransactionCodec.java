@@ -0,0 +1,176 @@
+package ScroogeCore;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.PublicKey;
+
+/**
+ * Binary encodings of a ScroogeCore.Transaction, written straight into a caller supplied {@link ByteBuffer}.
+ *
+ * The raw and signing encodings are the ones that get hashed and signed: the fields are concatenated without
+ * any framing, exactly as {@link Transaction#getRawTx()} and {@link Transaction#getRawDataToSign(int)} always
+ * produced them. Because they cannot be parsed back, transactions are stored and shipped in the framed wire
+ * encoding instead, which adds lengths, the transaction hash, the {@link SignatureScheme} of every input and
+ * the key algorithm of every output, and has a matching {@link #decode(ByteBuffer)}.
+ */
+public class TransactionCodec {
+
+    private static final int INT_BYTES = Integer.SIZE / 8;
+    private static final int DOUBLE_BYTES = Double.SIZE / 8;
+    private static final int SHORT_BYTES = Short.SIZE / 8;
+
+    /** length written in the wire encoding for a null byte array */
+    private static final short NULL_LENGTH = -1;
+
+    /** longest byte array the wire encoding can frame, 0xffff being taken by {@link #NULL_LENGTH} */
+    private static final int MAX_FRAMED_LENGTH = 0xfffe;
+
+    private TransactionCodec() {
+    }
+
+    /** @return the exact number of bytes {@link #writeRawTx} writes for {@code tx} */
+    public static int rawTxSize(Transaction tx) {
+        int size = 0;
+        for (Transaction.Input in : tx.getInputs())
+            size += length(in.prevTxHash) + INT_BYTES + length(in.signature);
+        return size + tx.getOutputsSection().length;
+    }
+
+    /** Writes the raw encoding of {@code tx}, the bytes its hash is computed over, into {@code out} */
+    public static void writeRawTx(Transaction tx, ByteBuffer out) {
+        for (Transaction.Input in : tx.getInputs()) {
+            putBytes(out, in.prevTxHash);
+            out.putInt(in.outputIndex);
+            putBytes(out, in.signature);
+        }
+        out.put(tx.getOutputsSection());
+    }
+
+    /** @return the exact number of bytes {@link #writeDataToSign} writes for input {@code index} of {@code tx} */
+    public static int dataToSignSize(Transaction tx, int index) {
+        return length(tx.getInput(index).prevTxHash) + INT_BYTES + tx.getOutputsSection().length;
+    }
+
+    /** Writes the data the owner of input {@code index} of {@code tx} signs: that input and all outputs */
+    public static void writeDataToSign(Transaction tx, int index, ByteBuffer out) {
+        Transaction.Input in = tx.getInput(index);
+        putBytes(out, in.prevTxHash);
+        out.putInt(in.outputIndex);
+        out.put(tx.getOutputsSection());
+    }
+
+    /**
+     * @return the outputs of {@code tx} as they appear at the end of both the raw and the signing encodings;
+     *         {@link Transaction#getOutputsSection()} keeps the result
+     */
+    static byte[] encodeOutputs(Transaction tx) {
+        int size = 0;
+        for (Transaction.Output op : tx.getOutputs())
+            size += DOUBLE_BYTES + op.encodedAddress().length;
+        ByteBuffer out = ByteBuffer.allocate(size);
+        for (Transaction.Output op : tx.getOutputs()) {
+            out.putDouble(op.value);
+            out.put(op.encodedAddress());
+        }
+        return out.array();
+    }
+
+    /** @return the exact number of bytes {@link #encode} writes for {@code tx} */
+    public static int encodedSize(Transaction tx) {
+        int size = SHORT_BYTES + length(tx.getHash()) + INT_BYTES;
+        for (Transaction.Input in : tx.getInputs())
+            size += SHORT_BYTES + length(in.prevTxHash) + INT_BYTES + SHORT_BYTES + length(in.signature) + 1;
+        size += INT_BYTES;
+        for (Transaction.Output op : tx.getOutputs()) {
+            size += DOUBLE_BYTES + 1 + op.address.getAlgorithm().length();
+            size += SHORT_BYTES + op.encodedAddress().length;
+        }
+        return size;
+    }
+
+    /** Writes the framed wire encoding of {@code tx}, including its hash, into {@code out} */
+    public static void encode(Transaction tx, ByteBuffer out) {
+        putFramed(out, tx.getHash());
+        out.putInt(tx.numInputs());
+        for (Transaction.Input in : tx.getInputs()) {
+            putFramed(out, in.prevTxHash);
+            out.putInt(in.outputIndex);
+            putFramed(out, in.signature);
+            out.put(in.scheme.id());
+        }
+        out.putInt(tx.numOutputs());
+        for (Transaction.Output op : tx.getOutputs()) {
+            out.putDouble(op.value);
+            String algorithm = op.address.getAlgorithm();
+            out.put((byte) algorithm.length());
+            for (int i = 0; i < algorithm.length(); i++)
+                out.put((byte) algorithm.charAt(i));
+            putFramed(out, op.encodedAddress());
+        }
+    }
+
+    /** @return the wire encoding of {@code tx} in a new array */
+    public static byte[] encode(Transaction tx) {
+        byte[] bytes = new byte[encodedSize(tx)];
+        encode(tx, ByteBuffer.wrap(bytes));
+        return bytes;
+    }
+
+    /**
+     * Reads back a transaction written by {@link #encode(Transaction, ByteBuffer)}, leaving {@code in} positioned
+     * after it. The stored hash is taken as is; call {@link Transaction#finalize()} to recompute it.
+     *
+     * @throws IllegalArgumentException if an output key cannot be parsed or an input names an unknown scheme
+     */
+    public static Transaction decode(ByteBuffer in) {
+        Transaction tx = new Transaction();
+        byte[] hash = getFramed(in);
+        int numInputs = in.getInt();
+        for (int i = 0; i < numInputs; i++) {
+            byte[] prevTxHash = getFramed(in);
+            int outputIndex = in.getInt();
+            tx.addInput(prevTxHash, outputIndex);
+            byte[] signature = getFramed(in);
+            tx.addSignature(signature, i, SignatureScheme.fromId(in.get()));
+        }
+        int numOutputs = in.getInt();
+        for (int i = 0; i < numOutputs; i++) {
+            double value = in.getDouble();
+            byte[] algorithm = new byte[in.get() & 0xff];
+            in.get(algorithm);
+            String alg = new String(algorithm, StandardCharsets.US_ASCII);
+            tx.addOutput(value, KeyRegistry.getDefault().decode(alg, getFramed(in)));
+        }
+        tx.setHash(hash);
+        return tx;
+    }
+
+    private static int length(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    private static void putBytes(ByteBuffer out, byte[] bytes) {
+        if (bytes != null)
+            out.put(bytes);
+    }
+
+    private static void putFramed(ByteBuffer out, byte[] bytes) {
+        if (bytes == null) {
+            out.putShort(NULL_LENGTH);
+        } else {
+            if (bytes.length > MAX_FRAMED_LENGTH)
+                throw new IllegalArgumentException("cannot frame " + bytes.length + " bytes");
+            out.putShort((short) bytes.length);
+            out.put(bytes);
+        }
+    }
+
+    private static byte[] getFramed(ByteBuffer in) {
+        short length = in.getShort();
+        if (length == NULL_LENGTH)
+            return null;
+        byte[] bytes = new byte[length & 0xffff];
+        in.get(bytes);
+        return bytes;
+    }
+}
@@ -1,14 +1,43 @@
 package ScroogeCore;
 
-import java.util.*;
-import java.util.Map.Entry;
-import java.util.function.BinaryOperator;
-import java.util.stream.Collectors;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
 
 public class TxHandler {
-    UTXOPool pool;
+    /** never replaced, so a thread given the handler sees the pool (a {@link ShardedUTXOPool} may be read by many) */
+    final UTXOPool pool;
 
+    /** runs the signature checks of an epoch in parallel when set, see {@link #setVerificationExecutor} */
+    ExecutorService verificationExecutor;
+
+    /** records every accepted epoch when set, see {@link #setBlockLog} */
+    BlockLog blockLog;
+
+    /** counts and times every epoch when set, see {@link #setMetrics} */
+    TxHandlerMetrics metrics;
+
+    /** the rules every transaction must pass, see {@link #setValidationPipeline} */
+    ValidationPipeline rules = ValidationPipeline.DEFAULT;
+
+    /** the Merkle tree of the last epoch accepted, see {@link #getEpochTree} */
+    volatile MerkleTree epochTree;
+
+    /** @return the live pool, which may be partway through an epoch; see {@link #getSnapshot()} for queries */
     public UTXOPool getPool() { return pool; }
+
+    /**
+     * @return the ledger as of the last epoch committed, which stays as it is while later epochs are handled and
+     *         can be read from any thread
+     * @throws IllegalStateException if the handler's pool is not a {@link VersionedUTXOPool}
+     */
+    public VersionedUTXOPool.Snapshot getSnapshot() {
+        if (!(pool instanceof VersionedUTXOPool))
+            throw new IllegalStateException("pool is not versioned: " + pool.getClass().getSimpleName());
+        return ((VersionedUTXOPool) pool).snapshot();
+    }
+
     public enum ThreeState {
         TRUE,
         FALSE,
@@ -17,222 +46,208 @@ public class TxHandler {
 
     /**
      * Creates a public ledger whose current ScroogeCore.UTXOPool (collection of unspent transaction outputs) is
-     * {@code utxoPool}. This should make a copy of utxoPool by using the ScroogeCore.UTXOPool(ScroogeCore.UTXOPool uPool)
-     * constructor.
+     * {@code utxoPool}. The handler takes the pool over: every epoch accepted by
+     * {@link #handleTxs(Transaction[])} is written into it, so pass a copy (see the
+     * ScroogeCore.UTXOPool(ScroogeCore.UTXOPool uPool) constructor) to keep the original.
      */
     public TxHandler(UTXOPool utxoPool) {
         pool = utxoPool;
     }
 
     /**
-     * @return true if:
-     * (1) all outputs claimed by {@code tx} are in the current ScroogeCore.UTXO pool,
-     * (2) the signatures on each input of {@code tx} are valid, 
-     * (3) no ScroogeCore.UTXO is claimed multiple times by {@code tx},
-     * (4) all of {@code tx}s output values are non-negative, and
-     * (5) the sum of {@code tx}s input values is greater than or equal to the sum of its output
-     *     values; and false otherwise.
+     * Verifies the signatures of every epoch passed to {@link #handleTxs(Transaction[])} up front on
+     * {@code executor} (e.g. a {@link java.util.concurrent.ForkJoinPool} or a virtual-thread executor) instead of
+     * one input at a time while the epoch is walked. The accepted transactions are the same either way. Passing
+     * null goes back to sequential verification; the handler never shuts the executor down.
      */
-    public boolean isValidTx(Transaction tx) {
-        HashSet<UTXO> utxoSet = new HashSet<>();
-        double sumOfInputVals = 0, sumOfOutputVals = 0;
-        int i = 0;
-        for (Transaction.Input input: tx.getInputs()) {
-            UTXO lastUTXO = new UTXO(input.prevTxHash, input.outputIndex);
-            Transaction.Output prevTx = pool.getTxOutput(lastUTXO);
-            // check 1 - all output claimed by tx are in current utxopool
-            if (!pool.contains(lastUTXO)) {
-                return false;
-            }
-            // check 2 - signatures of each input are valid
-            if (input.signature == null || !Crypto.verifySignature(prevTx.address, tx.getRawDataToSign(i), input.signature)) {
-                return false;
-            }
-            utxoSet.add(lastUTXO);
-            sumOfInputVals += prevTx.value;
-            i++;
-        }
+    public void setVerificationExecutor(ExecutorService executor) {
+        verificationExecutor = executor;
+    }
 
-        // check 3 - no utxo is claimed multiple times
-        if (utxoSet.size() != tx.getInputs().size())
-            return false;
+    /**
+     * Appends the transactions accepted in every epoch to {@code log} before they are written to the pool, so
+     * history can be looked up and replayed later. Passing null stops logging; the handler never closes the log.
+     */
+    public void setBlockLog(BlockLog log) {
+        blockLog = log;
+    }
 
-        // check 4 - non negative output values
-        for (Transaction.Output output: tx.getOutputs()) {
-            sumOfOutputVals += output.value;
-            if (output.value < 0)
-                return false;
-        }
+    /**
+     * Counts the transactions proposed, accepted and rejected (by {@link RejectReason}) in every epoch into
+     * {@code metrics}, and times its phases. Passing null stops recording, which then costs nothing.
+     */
+    public void setMetrics(TxHandlerMetrics metrics) {
+        this.metrics = metrics;
+    }
 
-        // check 5 - validating input values >= sum of output values
-        if (sumOfInputVals < sumOfOutputVals)
-            return false;
+    /** @return the metrics epochs are recorded into, null if none */
+    public TxHandlerMetrics getMetrics() {
+        return metrics;
+    }
 
-        return true;
+    /**
+     * Validates transactions with {@code pipeline} instead of {@link ValidationPipeline#DEFAULT}, e.g. the default
+     * with rules of its own added by {@link ValidationPipeline#withRule}. Applies to {@link #isValidTx} and every
+     * epoch handled after the call; signatures verified up front (see {@link #setVerificationExecutor}) are
+     * checked as the default rules do either way.
+     */
+    public void setValidationPipeline(ValidationPipeline pipeline) {
+        if (pipeline == null)
+            throw new NullPointerException("pipeline");
+        rules = pipeline;
     }
 
-    public ThreeState isValidTxV2(Transaction tx) {
-        HashSet<UTXO> utxoSet = new HashSet<>();
-        double sumOfInputVals = 0, sumOfOutputVals = 0;
-        int i = 0;
-        for (Transaction.Input input: tx.getInputs()) {
-            UTXO lastUTXO = new UTXO(input.prevTxHash, input.outputIndex);
-            Transaction.Output prevTx = pool.getTxOutput(lastUTXO);
-            // check 1 - all output claimed by tx are in current utxopool
-            if (!pool.contains(lastUTXO)) {
-                return ThreeState.MAYBE;
-            }
-            // check 2 - signatures of each input are valid
-            if (input.signature == null || !Crypto.verifySignature(prevTx.address, tx.getRawDataToSign(i), input.signature)) {
-                return ThreeState.FALSE;
+    /** @return the rules every transaction must pass */
+    public ValidationPipeline getValidationPipeline() {
+        return rules;
+    }
+
+    /**
+     * @return the Merkle tree over the transactions accepted in the last epoch, in the order they were returned,
+     *         whose root commits to the epoch and whose {@link MerkleTree#proof proofs} show a transaction was
+     *         accepted without the rest of the epoch; null until an epoch is handled
+     */
+    public MerkleTree getEpochTree() {
+        return epochTree;
+    }
+
+    /**
+     * Builds the Merkle tree of {@code accepted} and appends them to the block log, if there is one
+     *
+     * @throws UncheckedIOException if the log cannot be written, in which case the epoch must not be committed
+     */
+    void record(Transaction[] accepted) {
+        MerkleTree tree = MerkleTree.of(accepted, verificationExecutor);
+        if (blockLog != null) {
+            try {
+                blockLog.append(accepted);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
-            utxoSet.add(lastUTXO);
-            sumOfInputVals += prevTx.value;
-            i++;
         }
+        epochTree = tree;
+    }
 
-        // check 3 - no utxo is claimed multiple times
-        if (utxoSet.size() != tx.getInputs().size())
-            return ThreeState.FALSE;
+    /**
+     * @return true if:
+     * (1) all outputs claimed by {@code tx} are in the current ScroogeCore.UTXO pool,
+     * (2) the signatures on each input of {@code tx} are valid, 
+     * (3) no ScroogeCore.UTXO is claimed multiple times by {@code tx},
+     * (4) all of {@code tx}s output values are non-negative, and
+     * (5) the sum of {@code tx}s input values is greater than or equal to the sum of its output
+     *     values; and false otherwise. The checks run as rules of the handler's {@link ValidationPipeline},
+     *     signatures last.
+     */
+    public boolean isValidTx(Transaction tx) {
+        return isValidTxV2(tx) == ThreeState.TRUE;
+    }
 
-        // check 4 - non negative output values
-        for (Transaction.Output output: tx.getOutputs()) {
-            sumOfOutputVals += output.value;
-            if (output.value < 0)
-                return ThreeState.FALSE;
-        }
+    /**
+     * Same checks as {@link #isValidTx(Transaction)}, but answers MAYBE rather than false when an input refers to
+     * a ScroogeCore.UTXO that is not (yet) in the pool.
+     */
+    public ThreeState isValidTxV2(Transaction tx) {
+        return isValidTxV2(tx, pool);
+    }
 
-        // check 5 - validating input values >= sum of output values
-        if (sumOfInputVals < sumOfOutputVals)
-            return ThreeState.FALSE;;
+    private ThreeState isValidTxV2(Transaction tx, UTXOPool pool) {
+        return isValidTxV2(tx, pool, false);
+    }
 
-        return ThreeState.TRUE;
+    /** @param signaturesChecked true if the signatures of {@code tx} are already known to be valid */
+    ThreeState isValidTxV2(Transaction tx, UTXOPool pool, boolean signaturesChecked) {
+        RejectReason reason = validate(tx, pool, signaturesChecked);
+        if (reason == null)
+            return ThreeState.TRUE;
+        return reason == RejectReason.MISSING_UTXO ? ThreeState.MAYBE : ThreeState.FALSE;
     }
 
-    private static <T> BinaryOperator<ArrayList<T>> arrayListMerger() {
-        return (u,v) -> { ArrayList<T> temp = new ArrayList<>(); temp.addAll(u); temp.addAll(v); return temp; };
+    /**
+     * Runs the rules of the handler's {@link #setValidationPipeline pipeline} against {@code pool}
+     *
+     * @param signaturesChecked true if the signatures of {@code tx} are already known to be valid
+     * @return the first rule {@code tx} fails, null if it passes them all
+     */
+    RejectReason validate(Transaction tx, UTXOPool pool, boolean signaturesChecked) {
+        return rules.validate(tx, pool, signaturesChecked);
     }
 
-    private Map<ComparableTransactionInput, ArrayList<Transaction>> getInputTransactionMap(ArrayList<Transaction> iValidTxns) {
-        Map<ComparableTransactionInput, ArrayList<Transaction>> inputTxn = iValidTxns.stream().map(tx -> {
-            Map<ComparableTransactionInput, ArrayList<Transaction>> inputTxMap = new HashMap<ComparableTransactionInput, ArrayList<Transaction>>();
-            ArrayList<Transaction> at = new ArrayList<Transaction>();
-            at.add(tx);
-            for (Transaction.Input input : tx.getInputs()) {
-                inputTxMap.put(new ComparableTransactionInput(input.prevTxHash, input.outputIndex), at);
-            }
-            return inputTxMap;
-        }).map(Map::entrySet).flatMap(Set::stream)
-                .collect(
-                        Collectors.toMap(
-                                Entry::getKey,
-                                Entry::getValue,
-                                arrayListMerger()
-                        ));
-        return inputTxn;
-    }
-
-    private boolean checkIfMutuallyValid(ArrayList<Transaction> goodTxnSet, Transaction tx, UTXOPool pool) {
-        goodTxnSet.add(tx);
-        Map<ComparableTransactionInput, ArrayList<Transaction>> inputTransactionMap = getInputTransactionMap(goodTxnSet);
-
-        for (ComparableTransactionInput input : inputTransactionMap.keySet()) {
-            if (inputTransactionMap.get(input).size() > 1) return false;
+    static void applyTx(Transaction txn, UTXOPool pool) {
+        for (Transaction.Input input : txn.getInputs()) { // remove utxos that have been spent
+            pool.removeUTXO(input.spentUTXO());
+        }
+        int idx = 0;
+        for (Transaction.Output out : txn.getOutputs()) {
+            pool.addUTXO(txn.outputUTXO(idx), out);
+            idx++;
         }
-        return true;
     }
 
     /**
      * Handles each epoch by receiving an unordered array of proposed transactions, checking each
      * transaction for correctness, returning a mutually valid array of accepted transactions, and
-     * updating the current ScroogeCore.UTXO pool as appropriate.
+     * updating the current ScroogeCore.UTXO pool as appropriate. The epoch is worked out in an overlay on
+     * top of the pool and only the UTXOs it spends and creates are written back.
      */
     public Transaction[] handleTxs(Transaction[] possibleTxs) {
-        UTXOPool tempPool = new UTXOPool(pool);
-
+        TxHandlerMetrics.EpochRecorder epoch = TxHandlerMetrics.startEpoch(metrics);
+        OverlayUTXOPool tempPool = new OverlayUTXOPool(pool);
+        EpochGraph graph = new EpochGraph(possibleTxs, tempPool);
         ArrayList<Transaction> mValidTxns = new ArrayList<>(); // mutually valid txns
-        ArrayList<Transaction> ignoredValidTxns = new ArrayList<>();  // independently valid txns
-        ArrayList<Transaction> iValidTxns = new ArrayList<>();  // independently valid txns
-        ArrayList<Transaction> pendingTxns = new ArrayList<>();  // txns which may depend on other txns in this set
-
-        // filter out transactions that depend on the current set of transactions.. these will be looked at last
-        // definition of depends - tx ref is of one that doesn't exist in utxo pool
-        // step 1 find out independently valid transactions and possible dependent txns..
-        for (Transaction tx: possibleTxs) {
-            if (isValidTxV2(tx) == ThreeState.TRUE)
-                iValidTxns.add(tx);
-            else if (isValidTxV2(tx) == ThreeState.MAYBE)
-                pendingTxns.add(tx);
+        epoch.lap(TxHandlerMetrics.Phase.GRAPH);
+        boolean[] signaturesValid = null;
+        if (verificationExecutor != null) {
+            signaturesValid = SignatureStage.verify(graph, tempPool, verificationExecutor, rules);
+            epoch.lap(TxHandlerMetrics.Phase.SIGNATURES);
         }
 
-        while (iValidTxns.size() != 0) {
-            Transaction tx = iValidTxns.get(0);
-            if (checkIfMutuallyValid(new ArrayList<>(mValidTxns), tx, pool)) {
-                mValidTxns.add(tx);
-                iValidTxns.remove(0);
-            } else {
-                ignoredValidTxns.add(tx);
-                iValidTxns.remove(0);
-            }
+        // walk the epoch in topological order: transactions valid against the current pool come first, in
+        // arrival order, and a transaction is only looked at once every in-epoch parent it spends is accepted.
+        // an earlier accepted transaction wins every conflict, a rejected one takes its dependants with it.
+        int[] queue = new int[graph.size()];
+        int head = 0, tail = 0;
+        for (int i = 0; i < graph.size(); i++) {
+            if (graph.isReady(i))
+                queue[tail++] = i;
         }
-
-        for (Transaction txn : mValidTxns) {
-            for (Transaction.Input input : txn.getInputs()) { // remove utxos that have been spent
-                UTXO lastUTXO = new UTXO(input.prevTxHash, input.outputIndex);
-                tempPool.removeUTXO(lastUTXO);
+        while (head < tail) {
+            int i = queue[head++];
+            Transaction tx = possibleTxs[i];
+            if (signaturesValid != null && !signaturesValid[i]) {
+                epoch.reject(RejectReason.BAD_SIGNATURE, 1);
+                continue;
             }
-            int idx = 0;
-            for (Transaction.Output out : txn.getOutputs()) {
-                UTXO utxo = new UTXO(txn.getHash(), idx);
-                tempPool.addUTXO(utxo, out);
-                idx++;
+            epoch.mark();
+            boolean conflicts = graph.conflicts(i);
+            epoch.lap(TxHandlerMetrics.Phase.CONFLICTS);
+            if (conflicts) {
+                epoch.reject(RejectReason.CONFLICT, 1);
+                continue;
             }
-        }
-
-        pool = tempPool;
-
-        while (pendingTxns.size() > 0 && mValidTxns.size() > 0) { // check new transactions in the new pool.. apply if can
-            Transaction[] pendingTx = new Transaction[pendingTxns.size()];
-            pendingTx = pendingTxns.toArray(pendingTx);
-            Transaction[] txnPendingCorrect = this.handleTxs(pendingTx);
-
-            if (txnPendingCorrect.length == 0) {
-                break;
-            } else {
-                pendingTxns.removeAll(Arrays.asList(txnPendingCorrect));
-                mValidTxns.addAll(Arrays.asList(txnPendingCorrect));
+            RejectReason reason = validate(tx, tempPool, signaturesValid != null);
+            epoch.lap(TxHandlerMetrics.Phase.CLASSIFY);
+            if (reason != null) {
+                epoch.reject(reason, 1);
+                continue;
             }
+            applyTx(tx, tempPool);
+            mValidTxns.add(tx);
+            epoch.lap(TxHandlerMetrics.Phase.APPLY);
+            tail = graph.accept(i, queue, tail);
+            epoch.lap(TxHandlerMetrics.Phase.PENDING);
         }
+        // the rest spend an output nobody created, or one of a rejected transaction
+        epoch.reject(RejectReason.MISSING_UTXO, graph.size() - head);
+
         Transaction[] retVal = new Transaction[mValidTxns.size()];
         retVal = mValidTxns.toArray(retVal);
 
+        epoch.mark();
+        record(retVal);
+        tempPool.commit();
+        epoch.lap(TxHandlerMetrics.Phase.COMMIT);
+        epoch.end(possibleTxs.length, retVal.length, pool);
         return retVal;
     }
 
-    private class ComparableTransactionInput {
-        public byte[] prevTxHash;
-        public int outputIndex;
-
-        public ComparableTransactionInput(byte[] prevHash, int index) {
-            if (prevHash == null)
-                prevTxHash = null;
-            else
-                prevTxHash = Arrays.copyOf(prevHash, prevHash.length);
-            outputIndex = index;
-        }
-
-        public boolean equals(Object other) {
-            if (other != null && Arrays.equals(((ComparableTransactionInput)other).prevTxHash, prevTxHash) && ((ComparableTransactionInput)other).outputIndex == outputIndex)
-                return true;
-            else
-                return false;
-        }
-
-        public int hashCode() {
-            int sum = outputIndex;
-            for (byte b: prevTxHash) sum += b;
-            return sum;
-        }
-    }
-
 }
@@ -0,0 +1,248 @@
+package ScroogeCore;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and per-phase latency histograms of the epochs a {@link TxHandler} (or a handler or mempool built on
+ * it) works out, see {@link TxHandler#setMetrics}. One instance may be shared by several handlers, and can be
+ * read through JMX once {@link #register registered}.
+ *
+ * An epoch times its phases into an {@link EpochRecorder} of plain fields, and the shared counters and histograms
+ * are only touched once per phase when the epoch ends, so the cost inside the per-transaction loop is a pair of
+ * {@link System#nanoTime()} reads around each phase.
+ */
+public class TxHandlerMetrics implements TxHandlerMetricsMXBean {
+
+    /** The phases of an epoch, each timed over the whole epoch */
+    public enum Phase {
+        /** the whole of {@link TxHandler#handleTxs}, or the calls to a {@link Mempool} for the epoch */
+        EPOCH,
+        /** building the {@link EpochGraph}, which orders the epoch so no transaction waits on a pending parent */
+        GRAPH,
+        /** checking the signatures up front, when a verification executor is set */
+        SIGNATURES,
+        /** the rule checks of {@link TxHandler#isValidTxV2}, or the fee selection of a MaxFeeTxHandler */
+        CLASSIFY,
+        /** looking for inputs already claimed by an accepted transaction of the epoch */
+        CONFLICTS,
+        /** writing accepted transactions into the epoch's overlay */
+        APPLY,
+        /**
+         * releasing the transactions an accepted one held up: its in-epoch dependants, or the orphans a
+         * {@link Mempool} submits again
+         */
+        PENDING,
+        /** appending the epoch to the block log and committing the overlay to the pool */
+        COMMIT
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+    private static final RejectReason[] REASONS = RejectReason.values();
+
+    private final LongAdder epochs = new LongAdder();
+    private final LongAdder proposed = new LongAdder();
+    private final LongAdder accepted = new LongAdder();
+    private final AtomicLong poolSize = new AtomicLong();
+    private final LongAdder[] rejections = new LongAdder[REASONS.length];
+    private final LatencyHistogram[] phases = new LatencyHistogram[PHASES.length];
+    private ObjectName registeredName;
+
+    public TxHandlerMetrics() {
+        for (int r = 0; r < REASONS.length; r++)
+            rejections[r] = new LongAdder();
+        for (int p = 0; p < PHASES.length; p++)
+            phases[p] = new LatencyHistogram();
+    }
+
+    /**
+     * Times the phases and counts the rejections of one epoch on the thread working it out, and adds them to
+     * the metrics on {@link #end}. The recorder of a handler without metrics ({@link #OFF}) does nothing.
+     *
+     * The epoch is busy from its start until {@link #pause()}, and again from each {@link #resume()}: only busy
+     * time counts as {@link Phase#EPOCH}, so an epoch spread over calls (a {@link Mempool} one) leaves out the
+     * time spent waiting between them.
+     */
+    static final class EpochRecorder {
+        static final EpochRecorder OFF = new EpochRecorder(null);
+
+        private final TxHandlerMetrics metrics;
+        private final long[] nanos;
+        private final int[] rejected;
+        private long mark;
+        private long busySince;
+        private boolean busy;
+
+        private EpochRecorder(TxHandlerMetrics metrics) {
+            this.metrics = metrics;
+            this.nanos = metrics == null ? null : new long[PHASES.length];
+            this.rejected = metrics == null ? null : new int[REASONS.length];
+            resume();
+        }
+
+        /** Starts timing a phase */
+        void mark() {
+            if (metrics != null)
+                mark = System.nanoTime();
+        }
+
+        /** Adds the time since the last mark or lap to {@code phase}, and starts timing the next one */
+        void lap(Phase phase) {
+            if (metrics == null)
+                return;
+            long now = System.nanoTime();
+            nanos[phase.ordinal()] += now - mark;
+            mark = now;
+        }
+
+        void reject(RejectReason reason, int count) {
+            if (metrics != null)
+                rejected[reason.ordinal()] += count;
+        }
+
+        /** Stops counting time as part of the epoch */
+        void pause() {
+            if (metrics == null || !busy)
+                return;
+            nanos[Phase.EPOCH.ordinal()] += System.nanoTime() - busySince;
+            busy = false;
+        }
+
+        /** Counts time as part of the epoch again, and starts timing a phase */
+        void resume() {
+            if (metrics == null)
+                return;
+            busySince = mark = System.nanoTime();
+            busy = true;
+        }
+
+        /** Adds the epoch to the metrics: {@code proposed} transactions, of which {@code accepted} made it */
+        void end(int proposed, int accepted, UTXOPool pool) {
+            if (metrics == null)
+                return;
+            pause();
+            metrics.add(this, proposed, accepted, pool.size());
+        }
+    }
+
+    /** @return a busy recorder for an epoch worked out by a handler with {@code metrics}, which may be null */
+    static EpochRecorder startEpoch(TxHandlerMetrics metrics) {
+        return metrics == null ? EpochRecorder.OFF : new EpochRecorder(metrics);
+    }
+
+    private void add(EpochRecorder epoch, int proposedTxs, int acceptedTxs, int size) {
+        for (int p = 0; p < PHASES.length; p++) {
+            // a phase the epoch never entered is not a sample of zero
+            if (epoch.nanos[p] != 0 || PHASES[p] == Phase.EPOCH)
+                phases[p].record(epoch.nanos[p]);
+        }
+        for (int r = 0; r < REASONS.length; r++) {
+            if (epoch.rejected[r] != 0)
+                rejections[r].add(epoch.rejected[r]);
+        }
+        epochs.increment();
+        proposed.add(proposedTxs);
+        accepted.add(acceptedTxs);
+        poolSize.set(size);
+    }
+
+    /** @return the number of transactions rejected for {@code reason} */
+    public long getRejections(RejectReason reason) {
+        return rejections[reason.ordinal()].sum();
+    }
+
+    /** @return the number of epochs in which {@code phase} was timed */
+    public long getCount(Phase phase) {
+        return phases[phase.ordinal()].count();
+    }
+
+    /** @return the mean time spent in {@code phase} per epoch, in nanoseconds */
+    public double getMeanNanos(Phase phase) {
+        LatencyHistogram h = phases[phase.ordinal()];
+        long count = h.count();
+        return count == 0 ? 0 : (double) h.sumNanos() / count;
+    }
+
+    /** @return an upper bound, within a factor of two, of the {@code quantile} of the time spent in {@code phase} */
+    public long getQuantileNanos(Phase phase, double quantile) {
+        return phases[phase.ordinal()].quantileNanos(quantile);
+    }
+
+    public long getEpochs() {
+        return epochs.sum();
+    }
+
+    public long getProposedTxs() {
+        return proposed.sum();
+    }
+
+    public long getAcceptedTxs() {
+        return accepted.sum();
+    }
+
+    public double getAcceptedTxsPerSecond() {
+        long nanos = phases[Phase.EPOCH.ordinal()].sumNanos();
+        return nanos == 0 ? 0 : accepted.sum() * 1e9 / nanos;
+    }
+
+    public long getPoolSize() {
+        return poolSize.get();
+    }
+
+    public Map<String, Long> getRejections() {
+        Map<String, Long> map = new LinkedHashMap<String, Long>();
+        for (RejectReason reason : REASONS)
+            map.put(reason.name(), getRejections(reason));
+        return map;
+    }
+
+    public Map<String, PhaseStats> getPhases() {
+        Map<String, PhaseStats> map = new LinkedHashMap<String, PhaseStats>();
+        for (Phase phase : PHASES) {
+            LatencyHistogram h = phases[phase.ordinal()];
+            map.put(phase.name(), new PhaseStats(h.count(), getMeanNanos(phase) / 1e3, h.quantileNanos(0.5) / 1e3,
+                    h.quantileNanos(0.99) / 1e3, h.maxNanos() / 1e3));
+        }
+        return map;
+    }
+
+    public void reset() {
+        epochs.reset();
+        proposed.reset();
+        accepted.reset();
+        poolSize.set(0);
+        for (LongAdder r : rejections)
+            r.reset();
+        for (LatencyHistogram h : phases)
+            h.reset();
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server as {@code ScroogeCore:type=TxHandler,name=<name>}
+     *
+     * @return the name registered under
+     * @throws JMException if the name is malformed or taken
+     */
+    public synchronized ObjectName register(String name) throws JMException {
+        ObjectName objectName = ObjectName.getInstance("ScroogeCore:type=TxHandler,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        registeredName = objectName;
+        return objectName;
+    }
+
+    /** Removes the metrics from the platform MBean server, if {@link #register registered} */
+    public synchronized void unregister() throws JMException {
+        if (registeredName == null)
+            return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(registeredName))
+            server.unregisterMBean(registeredName);
+        registeredName = null;
+    }
+}
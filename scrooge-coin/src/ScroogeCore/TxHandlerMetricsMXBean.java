@@ -0,0 +1,67 @@
+package ScroogeCore;
+
+import java.util.Map;
+
+/** Management interface of {@link TxHandlerMetrics}, as seen through JMX */
+public interface TxHandlerMetricsMXBean {
+
+    /** Latency of one phase over the epochs recorded, in microseconds */
+    class PhaseStats {
+        private final long count;
+        private final double meanMicros;
+        private final double p50Micros;
+        private final double p99Micros;
+        private final double maxMicros;
+
+        public PhaseStats(long count, double meanMicros, double p50Micros, double p99Micros, double maxMicros) {
+            this.count = count;
+            this.meanMicros = meanMicros;
+            this.p50Micros = p50Micros;
+            this.p99Micros = p99Micros;
+            this.maxMicros = maxMicros;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMeanMicros() {
+            return meanMicros;
+        }
+
+        /** within a factor of two, see {@link LatencyHistogram} */
+        public double getP50Micros() {
+            return p50Micros;
+        }
+
+        /** within a factor of two, see {@link LatencyHistogram} */
+        public double getP99Micros() {
+            return p99Micros;
+        }
+
+        public double getMaxMicros() {
+            return maxMicros;
+        }
+    }
+
+    long getEpochs();
+
+    long getProposedTxs();
+
+    long getAcceptedTxs();
+
+    /** @return accepted transactions per second of time spent in epochs */
+    double getAcceptedTxsPerSecond();
+
+    /** @return the size of the pool after the last epoch */
+    long getPoolSize();
+
+    /** @return the number of rejected transactions by {@link RejectReason} name */
+    Map<String, Long> getRejections();
+
+    /** @return the latency of every phase by {@link TxHandlerMetrics.Phase} name */
+    Map<String, PhaseStats> getPhases();
+
+    /** Forgets everything recorded so far */
+    void reset();
+}
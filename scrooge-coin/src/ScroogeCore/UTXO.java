@@ -4,24 +4,56 @@ import java.util.Arrays;
 
 public class UTXO implements Comparable<UTXO> {
 
-    /** Hash of the transaction from which this ScroogeCore.UTXO originates */
-    private byte[] txHash;
+    /**
+     * Hash of the transaction from which this ScroogeCore.UTXO originates, when it is 32 bytes long as every hash
+     * computed by {@link Transaction#finalize()} is; null otherwise
+     */
+    private final Hash256 hash;
+
+    /** Hash of the transaction from which this ScroogeCore.UTXO originates when it is not 32 bytes long; else null */
+    private final byte[] rawHash;
 
     /** Index of the corresponding output in said transaction */
-    private int index;
+    private final int index;
+
+    /** computed once, UTXOs are mostly used as map keys */
+    private final int hashCode;
 
     /**
      * Creates a new ScroogeCore.UTXO corresponding to the output with index <index> in the transaction whose
      * hash is {@code txHash}
      */
     public UTXO(byte[] txHash, int index) {
-        this.txHash = Arrays.copyOf(txHash, txHash.length);
+        if (txHash.length == Hash256.BYTES) {
+            hash = Hash256.of(txHash);
+            rawHash = null;
+        } else {
+            hash = null;
+            rawHash = Arrays.copyOf(txHash, txHash.length);
+        }
         this.index = index;
+        this.hashCode = hashCode(hash != null ? hash.hashCode() : Arrays.hashCode(rawHash), index);
+    }
+
+    /**
+     * Creates a new ScroogeCore.UTXO corresponding to the output with index <index> in the transaction whose
+     * hash is {@code txHash}
+     */
+    public UTXO(Hash256 txHash, int index) {
+        this.hash = txHash;
+        this.rawHash = null;
+        this.index = index;
+        this.hashCode = hashCode(txHash.hashCode(), index);
     }
 
     /** @return the transaction hash of this ScroogeCore.UTXO */
     public byte[] getTxHash() {
-        return txHash;
+        return hash != null ? hash.toBytes() : rawHash;
+    }
+
+    /** @return the transaction hash of this ScroogeCore.UTXO, or null if it is not 32 bytes long */
+    public Hash256 getHash256() {
+        return hash;
     }
 
     /** @return the index of this ScroogeCore.UTXO */
@@ -31,7 +63,7 @@ public class UTXO implements Comparable<UTXO> {
 
     /**
      * Compares this ScroogeCore.UTXO to the one specified by {@code other}, considering them equal if they have
-     * {@code txHash} arrays with equal contents and equal {@code index} values
+     * equal transaction hashes and equal {@code index} values
      */
     public boolean equals(Object other) {
         if (other == null) {
@@ -42,15 +74,11 @@ public class UTXO implements Comparable<UTXO> {
         }
 
         UTXO utxo = (UTXO) other;
-        byte[] hash = utxo.txHash;
-        int in = utxo.index;
-        if (hash.length != txHash.length || index != in)
+        if (hashCode != utxo.hashCode || index != utxo.index)
             return false;
-        for (int i = 0; i < hash.length; i++) {
-            if (hash[i] != txHash[i])
-                return false;
-        }
-        return true;
+        if (hash != null)
+            return hash.equals(utxo.hash);
+        return utxo.rawHash != null && Arrays.equals(rawHash, utxo.rawHash);
     }
 
     /**
@@ -58,21 +86,28 @@ public class UTXO implements Comparable<UTXO> {
      * utxo1.equals(utxo2) => utxo1.hashCode() == utxo2.hashCode())
      */
     public int hashCode() {
+        return hashCode;
+    }
+
+    private static int hashCode(int txHashCode, int index) {
         int hash = 1;
         hash = hash * 17 + index;
-        hash = hash * 31 + Arrays.hashCode(txHash);
+        hash = hash * 31 + txHashCode;
         return hash;
     }
 
     /** Compares this ScroogeCore.UTXO to the one specified by {@code utxo} */
     public int compareTo(UTXO utxo) {
-        byte[] hash = utxo.txHash;
         int in = utxo.index;
         if (in > index)
             return -1;
         else if (in < index)
             return 1;
+        else if (hash != null && utxo.hash != null)
+            return hash.compareTo(utxo.hash);
         else {
+            byte[] txHash = getTxHash();
+            byte[] hash = utxo.getTxHash();
             int len1 = txHash.length;
             int len2 = hash.length;
             if (len2 > len1)
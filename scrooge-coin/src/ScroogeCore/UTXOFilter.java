@@ -0,0 +1,95 @@
+package ScroogeCore;
+
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+
+/**
+ * Which entries of a ScroogeCore.UTXOPool a stream should hold (see {@link UTXOPool#stream(UTXOFilter)}): those of
+ * one owner, of a value range, or both. Pools test the filter before building an entry, and those with an index
+ * on owners use it, so a narrow scan does not pay for the whole pool. Immutable.
+ */
+public final class UTXOFilter {
+
+    /** {@link #ownerId} of a filter passing every owner */
+    static final int ANY_OWNER = -1;
+
+    /** {@link #ownerId} of a filter whose owner the registry did not know yet, see {@link #ownerId()} */
+    static final int UNKNOWN_OWNER = -2;
+
+    /** the filter every entry passes */
+    public static final UTXOFilter ALL =
+            new UTXOFilter(ANY_OWNER, null, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+
+    /** {@link KeyRegistry} id of the owner, {@link #ANY_OWNER} or {@link #UNKNOWN_OWNER} */
+    private volatile int ownerId;
+    /** the owner and its encoding while it is unknown, null otherwise */
+    private final PublicKey owner;
+    private final ByteBuffer ownerEncoding;
+    final double minValue;
+    final double maxValue;
+
+    private UTXOFilter(int ownerId, PublicKey owner, double minValue, double maxValue) {
+        this.ownerId = ownerId;
+        this.owner = ownerId == UNKNOWN_OWNER ? owner : null;
+        this.ownerEncoding = ownerId == UNKNOWN_OWNER ? ByteBuffer.wrap(owner.getEncoded()) : null;
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+    }
+
+    /**
+     * @return a filter passing the entries this one passes that {@code owner} owns. A key the {@link KeyRegistry}
+     *         does not know is not interned: only the outputs of a heap pool can belong to it, which are told by
+     *         their encoding, and it is looked up again until it is found.
+     */
+    public UTXOFilter ownedBy(PublicKey owner) {
+        int id = KeyRegistry.getDefault().idIfPresent(owner);
+        return new UTXOFilter(id < 0 ? UNKNOWN_OWNER : id, owner, minValue, maxValue);
+    }
+
+    /** @return a filter passing the entries this one passes whose value is in [{@code min}, {@code max}] */
+    public UTXOFilter valueBetween(double min, double max) {
+        return new UTXOFilter(ownerId, owner, Math.max(min, minValue), Math.min(max, maxValue));
+    }
+
+    /** @return true if the filter passes every entry of its owner, or every entry if it names none */
+    boolean anyValue() {
+        return minValue == Double.NEGATIVE_INFINITY && maxValue == Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @return the {@link KeyRegistry} id of the owner, {@link #ANY_OWNER} if the filter names none, or
+     *         {@link #UNKNOWN_OWNER} if the registry does not know it, in which case it owns no output held by id
+     */
+    int ownerId() {
+        int id = ownerId;
+        if (id == UNKNOWN_OWNER) {
+            id = KeyRegistry.getDefault().idIfPresent(owner, ownerEncoding.duplicate());
+            if (id < 0)
+                return UNKNOWN_OWNER;
+            // ids are never reused, so any thread may settle it
+            ownerId = id;
+        }
+        return id;
+    }
+
+    /** @return true if an output of owner {@code keyId} worth {@code value} passes */
+    boolean test(int keyId, double value) {
+        if (value < minValue || value > maxValue)
+            return false;
+        int id = ownerId();
+        return id == ANY_OWNER || id == keyId;
+    }
+
+    /** @return true if {@code out} passes; its owner is not interned, and is told by its encoding if unknown */
+    boolean test(Transaction.Output out) {
+        if (out.value < minValue || out.value > maxValue)
+            return false;
+        int id = ownerId();
+        if (id == ANY_OWNER)
+            return true;
+        int keyId = out.keyIdIfPresent();
+        if (keyId >= 0 || id != UNKNOWN_OWNER)
+            return keyId == id;
+        return owner.equals(out.address) || ownerEncoding.equals(ByteBuffer.wrap(out.encodedAddress()));
+    }
+}
@@ -1,8 +1,17 @@
 package ScroogeCore;
 
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class UTXOPool {
 
@@ -11,6 +20,9 @@ public class UTXOPool {
      */
     private HashMap<UTXO, Transaction.Output> H;
 
+    /** the streams still reading {@link #H}; a write copies it first while there are any */
+    private volatile AtomicInteger readers = new AtomicInteger();
+
     /** Creates a new empty ScroogeCore.UTXOPool */
     public UTXOPool() {
         H = new HashMap<UTXO, Transaction.Output>();
@@ -18,19 +30,40 @@ public class UTXOPool {
 
     /** Creates a new ScroogeCore.UTXOPool that is a copy of {@code uPool} */
     public UTXOPool(UTXOPool uPool) {
-        H = new HashMap<UTXO, Transaction.Output>(uPool.H);
+        if (uPool.getClass() == UTXOPool.class) {
+            H = new HashMap<UTXO, Transaction.Output>(uPool.H);
+        } else {
+            // other pools keep their entries elsewhere, read them through the public contract
+            H = new HashMap<UTXO, Transaction.Output>();
+            for (UTXO ut : uPool.getAllUTXO())
+                H.put(ut, uPool.getTxOutput(ut));
+        }
+    }
+
+    /** @return a copy of this pool backed the same way as this pool */
+    UTXOPool copy() {
+        return new UTXOPool(this);
     }
 
     /** Adds a mapping from ScroogeCore.UTXO {@code utxo} to transaction output @code{txOut} to the pool */
     public void addUTXO(UTXO utxo, Transaction.Output txOut) {
+        if (readers.get() > 0)
+            unshare();
         H.put(utxo, txOut);
     }
 
     /** Removes the ScroogeCore.UTXO {@code utxo} from the pool */
     public void removeUTXO(UTXO utxo) {
+        if (readers.get() > 0)
+            unshare();
         H.remove(utxo);
     }
 
+    private synchronized void unshare() {
+        H = new HashMap<UTXO, Transaction.Output>(H);
+        readers = new AtomicInteger();
+    }
+
     /**
      * @return the transaction output corresponding to ScroogeCore.UTXO {@code utxo}, or null if {@code utxo} is
      *         not in the pool.
@@ -44,6 +77,199 @@ public class UTXOPool {
         return H.containsKey(utxo);
     }
 
+    /** @return the number of UTXOs in the pool */
+    public int size() {
+        return H.size();
+    }
+
+    /**
+     * Removes {@code removed} and then adds {@code added}, as {@link OverlayUTXOPool#commit()} does with an epoch;
+     * pools that can write a batch faster than one entry at a time do so here
+     */
+    void apply(Collection<UTXO> removed, Map<UTXO, Transaction.Output> added) {
+        for (UTXO ut : removed)
+            removeUTXO(ut);
+        for (Map.Entry<UTXO, Transaction.Output> e : added.entrySet())
+            addUTXO(e.getKey(), e.getValue());
+    }
+
+    /**
+     * Marks the end of a batch of changes, e.g. an epoch. Pools that keep their entries on disk make the batch
+     * durable here; this one keeps nothing, so there is nothing to do.
+     */
+    public void commit() {
+    }
+
+    /**
+     * @return a stream of the entries of the pool, as the pool is when the stream is created: writes made later,
+     *         e.g. by the next epochs, are not seen. Creating the stream must not race with a write; create it
+     *         between epochs, or from the thread writing them. The first write made while the stream is open
+     *         copies the pool, so run it to the end or close it before writing where the pool is large.
+     */
+    public Stream<Map.Entry<UTXO, Transaction.Output>> stream() {
+        return stream(UTXOFilter.ALL);
+    }
+
+    /** @return a stream of the entries passing {@code filter}, see {@link #stream()} */
+    public Stream<Map.Entry<UTXO, Transaction.Output>> stream(UTXOFilter filter) {
+        return stream(filter, false);
+    }
+
+    /** @return a parallel stream of the entries passing {@code filter}, see {@link #stream()} */
+    public Stream<Map.Entry<UTXO, Transaction.Output>> parallelStream(UTXOFilter filter) {
+        return stream(filter, true);
+    }
+
+    private Stream<Map.Entry<UTXO, Transaction.Output>> stream(UTXOFilter filter, boolean parallel) {
+        Spliterator<Map.Entry<UTXO, Transaction.Output>> entries = spliterator(filter);
+        Stream<Map.Entry<UTXO, Transaction.Output>> stream = StreamSupport.stream(entries, parallel);
+        return entries instanceof Reader ? stream.onClose(((Reader) entries).lease::release) : stream;
+    }
+
+    /**
+     * @return the entries passing {@code filter}, as the pool is now (see {@link #stream()}). Where a pool
+     *         allows, the spliterator splits for parallel traversal and is not a copy of the entries: a write
+     *         made before it and its splits are exhausted copies them instead.
+     */
+    public Spliterator<Map.Entry<UTXO, Transaction.Output>> spliterator(UTXOFilter filter) {
+        HashMap<UTXO, Transaction.Output> snapshot;
+        AtomicInteger live;
+        synchronized (this) {
+            snapshot = H;
+            live = readers;
+            live.incrementAndGet();
+        }
+        return new Reader(new Filtered(snapshot.entrySet().spliterator(), filter), new Lease(live));
+    }
+
+    /**
+     * One stream's place among the readers of a pool's entries, given up once every part of the stream is
+     * exhausted or the stream is closed, whichever comes first
+     */
+    static final class Lease {
+        private final AtomicInteger readers;
+        /** parts of the stream not exhausted yet, 0 once the lease is given up */
+        private final AtomicInteger parts = new AtomicInteger(1);
+
+        Lease(AtomicInteger readers) {
+            this.readers = readers;
+        }
+
+        void release() {
+            if (parts.getAndSet(0) > 0)
+                readers.decrementAndGet();
+        }
+
+        void split() {
+            parts.getAndUpdate(p -> p > 0 ? p + 1 : 0);
+        }
+
+        void exhausted() {
+            if (parts.getAndUpdate(p -> p > 0 ? p - 1 : 0) == 1)
+                readers.decrementAndGet();
+        }
+    }
+
+    /** A spliterator over entries a pool keeps for it, holding its {@link Lease} until exhausted */
+    static final class Reader implements Spliterator<Map.Entry<UTXO, Transaction.Output>> {
+        private final Spliterator<Map.Entry<UTXO, Transaction.Output>> entries;
+        final Lease lease;
+        private boolean exhausted;
+
+        Reader(Spliterator<Map.Entry<UTXO, Transaction.Output>> entries, Lease lease) {
+            this.entries = entries;
+            this.lease = lease;
+        }
+
+        public boolean tryAdvance(Consumer<? super Map.Entry<UTXO, Transaction.Output>> action) {
+            if (entries.tryAdvance(action))
+                return true;
+            exhaust();
+            return false;
+        }
+
+        public void forEachRemaining(Consumer<? super Map.Entry<UTXO, Transaction.Output>> action) {
+            entries.forEachRemaining(action);
+            exhaust();
+        }
+
+        private void exhaust() {
+            if (!exhausted) {
+                exhausted = true;
+                lease.exhausted();
+            }
+        }
+
+        public Spliterator<Map.Entry<UTXO, Transaction.Output>> trySplit() {
+            Spliterator<Map.Entry<UTXO, Transaction.Output>> prefix = entries.trySplit();
+            if (prefix == null)
+                return null;
+            lease.split();
+            return new Reader(prefix, lease);
+        }
+
+        public long estimateSize() {
+            return entries.estimateSize();
+        }
+
+        public int characteristics() {
+            return entries.characteristics();
+        }
+    }
+
+    /**
+     * @return the entries passing {@code filter}, read through {@link #getAllUTXO()} and {@link #getTxOutput}
+     *         into a list, for pools that cannot do better
+     */
+    Spliterator<Map.Entry<UTXO, Transaction.Output>> copiedSpliterator(UTXOFilter filter) {
+        ArrayList<Map.Entry<UTXO, Transaction.Output>> entries =
+                new ArrayList<Map.Entry<UTXO, Transaction.Output>>();
+        for (UTXO ut : getAllUTXO()) {
+            Transaction.Output out = getTxOutput(ut);
+            if (filter.test(out))
+                entries.add(new AbstractMap.SimpleImmutableEntry<UTXO, Transaction.Output>(ut, out));
+        }
+        return Spliterators.spliterator(entries, Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+    }
+
+    /** The entries of a map that pass a filter, handed out as immutable entries so the map stays untouched */
+    static final class Filtered implements Spliterator<Map.Entry<UTXO, Transaction.Output>> {
+        private final Spliterator<Map.Entry<UTXO, Transaction.Output>> entries;
+        private final UTXOFilter filter;
+        private Map.Entry<UTXO, Transaction.Output> next;
+
+        Filtered(Spliterator<Map.Entry<UTXO, Transaction.Output>> entries, UTXOFilter filter) {
+            this.entries = entries;
+            this.filter = filter;
+        }
+
+        public boolean tryAdvance(Consumer<? super Map.Entry<UTXO, Transaction.Output>> action) {
+            next = null;
+            while (next == null && entries.tryAdvance(e -> {
+                if (filter.test(e.getValue()))
+                    next = new AbstractMap.SimpleImmutableEntry<UTXO, Transaction.Output>(e);
+            }))
+                ;
+            if (next == null)
+                return false;
+            action.accept(next);
+            return true;
+        }
+
+        public Spliterator<Map.Entry<UTXO, Transaction.Output>> trySplit() {
+            Spliterator<Map.Entry<UTXO, Transaction.Output>> prefix = entries.trySplit();
+            return prefix == null ? null : new Filtered(prefix, filter);
+        }
+
+        public long estimateSize() {
+            return entries.estimateSize();
+        }
+
+        public int characteristics() {
+            return DISTINCT | NONNULL | IMMUTABLE;
+        }
+    }
+
     /** Returns an {@code ArrayList} of all UTXOs in the pool */
     public ArrayList<UTXO> getAllUTXO() {
         Set<UTXO> setUTXO = H.keySet();
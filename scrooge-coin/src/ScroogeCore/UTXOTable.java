@@ -0,0 +1,299 @@
+package ScroogeCore;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Open-addressing hash table of fixed-size UTXO records kept outside the Java heap. Every slot holds the
+ * 32-byte transaction hash, the output index, the value and the id of the owner key, so an entry costs 64
+ * bytes and no objects. Collisions are resolved by linear probing and removals leave tombstones until the
+ * table is rebuilt.
+ *
+ * The slots live in chunks handed out by a {@link ChunkAllocator}, which lets the same table sit in direct
+ * memory or in a memory-mapped file. The table never grows by itself: the owner checks {@link #needsRebuild}
+ * and copies the records into a larger table with {@link #copyInto}.
+ */
+class UTXOTable {
+
+    /** Provides the memory of one chunk of slots */
+    interface ChunkAllocator {
+        ByteBuffer allocate(int chunk, int bytes);
+    }
+
+    static final int RECORD_BYTES = 64;
+    static final int HASH_BYTES = 32;
+
+    private static final int INDEX_OFFSET = 32;
+    private static final int KEY_OFFSET = 36;
+    private static final int VALUE_OFFSET = 40;
+    private static final int STATE_OFFSET = 48;
+
+    private static final int EMPTY = 0;
+    private static final int FULL = 1;
+    private static final int REMOVED = 2;
+
+    /** chunks hold at most 2^20 slots (64MB), so a table is not limited by the 2GB size of one buffer */
+    private static final int MAX_CHUNK_SHIFT = 20;
+
+    /** the table is rebuilt once full slots and tombstones take this share of it */
+    private static final double MAX_LOAD = 0.6;
+
+    private final int capacity;
+    private final int chunkShift;
+    private final int chunkMask;
+    private final ByteBuffer[] chunks;
+    private int size;
+    private int tombstones;
+
+    /**
+     * Creates a table of {@code capacity} slots, a power of two, in chunks from {@code allocator}. The chunks
+     * are expected to be zeroed, or to hold a table of the same capacity when {@code size} and
+     * {@code tombstones} describe its contents.
+     */
+    UTXOTable(int capacity, ChunkAllocator allocator, int size, int tombstones) {
+        if (Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        this.capacity = capacity;
+        this.chunkShift = Math.min(MAX_CHUNK_SHIFT, Integer.numberOfTrailingZeros(capacity));
+        this.chunkMask = (1 << chunkShift) - 1;
+        this.chunks = new ByteBuffer[capacity >>> chunkShift];
+        for (int i = 0; i < chunks.length; i++)
+            chunks[i] = allocator.allocate(i, (1 << chunkShift) * RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        this.size = size;
+        this.tombstones = tombstones;
+    }
+
+    /** @return the smallest capacity that holds {@code entries} records below the maximum load */
+    static int capacityFor(int entries) {
+        int capacity = 16;
+        while (capacity * MAX_LOAD <= entries)
+            capacity <<= 1;
+        return capacity;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int tombstones() {
+        return tombstones;
+    }
+
+    /** @return true if adding {@code extra} records could push the table past its maximum load */
+    boolean needsRebuild(int extra) {
+        return size + tombstones + extra > capacity * MAX_LOAD;
+    }
+
+    /** @return the slot holding ({@code hash}, {@code index}), or -1 */
+    int find(byte[] hash, int index) {
+        long h0 = readLong(hash, 0), h1 = readLong(hash, 8), h2 = readLong(hash, 16), h3 = readLong(hash, 24);
+        return find(h0, h1, h2, h3, index);
+    }
+
+    int find(Hash256 hash, int index) {
+        return find(hash.word(0), hash.word(1), hash.word(2), hash.word(3), index);
+    }
+
+    int find(long h0, long h1, long h2, long h3, int index) {
+        int mask = capacity - 1;
+        for (int slot = home(h0, index, mask); ; slot = (slot + 1) & mask) {
+            ByteBuffer chunk = chunks[slot >>> chunkShift];
+            int off = (slot & chunkMask) * RECORD_BYTES;
+            int state = chunk.getInt(off + STATE_OFFSET);
+            if (state == EMPTY)
+                return -1;
+            if (state == FULL && chunk.getInt(off + INDEX_OFFSET) == index && chunk.getLong(off) == h0
+                    && chunk.getLong(off + 8) == h1 && chunk.getLong(off + 16) == h2 && chunk.getLong(off + 24) == h3)
+                return slot;
+        }
+    }
+
+    /**
+     * Stores ({@code hash}, {@code index}) with {@code value} and {@code keyId}, replacing an existing record
+     * for the same UTXO. The caller must have made room, see {@link #needsRebuild}.
+     */
+    void put(byte[] hash, int index, double value, int keyId) {
+        put(readLong(hash, 0), readLong(hash, 8), readLong(hash, 16), readLong(hash, 24), index, value, keyId);
+    }
+
+    void put(Hash256 hash, int index, double value, int keyId) {
+        put(hash.word(0), hash.word(1), hash.word(2), hash.word(3), index, value, keyId);
+    }
+
+    void put(long h0, long h1, long h2, long h3, int index, double value, int keyId) {
+        int mask = capacity - 1;
+        int reuse = -1;
+        int slot = home(h0, index, mask);
+        for (; ; slot = (slot + 1) & mask) {
+            ByteBuffer chunk = chunks[slot >>> chunkShift];
+            int off = (slot & chunkMask) * RECORD_BYTES;
+            int state = chunk.getInt(off + STATE_OFFSET);
+            if (state == EMPTY)
+                break;
+            if (state == REMOVED) {
+                if (reuse < 0)
+                    reuse = slot;
+            } else if (chunk.getInt(off + INDEX_OFFSET) == index && chunk.getLong(off) == h0
+                    && chunk.getLong(off + 8) == h1 && chunk.getLong(off + 16) == h2 && chunk.getLong(off + 24) == h3) {
+                chunk.putDouble(off + VALUE_OFFSET, value);
+                chunk.putInt(off + KEY_OFFSET, keyId);
+                return;
+            }
+        }
+        if (reuse >= 0) {
+            slot = reuse;
+            tombstones--;
+        }
+        ByteBuffer chunk = chunks[slot >>> chunkShift];
+        int off = (slot & chunkMask) * RECORD_BYTES;
+        chunk.putLong(off, h0);
+        chunk.putLong(off + 8, h1);
+        chunk.putLong(off + 16, h2);
+        chunk.putLong(off + 24, h3);
+        chunk.putInt(off + INDEX_OFFSET, index);
+        chunk.putInt(off + KEY_OFFSET, keyId);
+        chunk.putDouble(off + VALUE_OFFSET, value);
+        // the state goes last so a record is never seen as full before its fields are written
+        chunk.putInt(off + STATE_OFFSET, FULL);
+        size++;
+    }
+
+    /** Turns {@code slot}, as returned by {@link #find}, into a tombstone */
+    void remove(int slot) {
+        chunks[slot >>> chunkShift].putInt((slot & chunkMask) * RECORD_BYTES + STATE_OFFSET, REMOVED);
+        size--;
+        tombstones++;
+    }
+
+    boolean isFull(int slot) {
+        return chunks[slot >>> chunkShift].getInt((slot & chunkMask) * RECORD_BYTES + STATE_OFFSET) == FULL;
+    }
+
+    double value(int slot) {
+        return chunks[slot >>> chunkShift].getDouble((slot & chunkMask) * RECORD_BYTES + VALUE_OFFSET);
+    }
+
+    int keyId(int slot) {
+        return chunks[slot >>> chunkShift].getInt((slot & chunkMask) * RECORD_BYTES + KEY_OFFSET);
+    }
+
+    int index(int slot) {
+        return chunks[slot >>> chunkShift].getInt((slot & chunkMask) * RECORD_BYTES + INDEX_OFFSET);
+    }
+
+    /** @return word {@code word} (0 to 3) of the hash in {@code slot} */
+    long hashWord(int slot, int word) {
+        return chunks[slot >>> chunkShift].getLong((slot & chunkMask) * RECORD_BYTES + word * 8);
+    }
+
+    /** @return the hash in {@code slot} */
+    Hash256 hash(int slot) {
+        return Hash256.of(hashWord(slot, 0), hashWord(slot, 1), hashWord(slot, 2), hashWord(slot, 3));
+    }
+
+    /** Recomputes the number of records and tombstones from the slots, for a table of unknown state */
+    void recount() {
+        size = 0;
+        tombstones = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            int state = chunks[slot >>> chunkShift].getInt((slot & chunkMask) * RECORD_BYTES + STATE_OFFSET);
+            if (state == FULL)
+                size++;
+            else if (state == REMOVED)
+                tombstones++;
+        }
+    }
+
+    /**
+     * @return the records of slots {@code from} to {@code to - 1} that pass {@code filter}, splitting by slot
+     *         range; the table must not change while they are traversed
+     */
+    Spliterator<Map.Entry<UTXO, Transaction.Output>> entries(UTXOFilter filter, int from, int to) {
+        return new Entries(filter, from, to);
+    }
+
+    private final class Entries implements Spliterator<Map.Entry<UTXO, Transaction.Output>> {
+        /** ranges below this many slots are not split further */
+        private static final int MIN_SPLIT = 1 << 12;
+
+        private final UTXOFilter filter;
+        private int from;
+        private final int to;
+
+        Entries(UTXOFilter filter, int from, int to) {
+            this.filter = filter;
+            this.from = from;
+            this.to = to;
+        }
+
+        public boolean tryAdvance(Consumer<? super Map.Entry<UTXO, Transaction.Output>> action) {
+            while (from < to) {
+                int slot = from++;
+                // the owner and value are tested before anything is built for the record
+                if (isFull(slot) && filter.test(keyId(slot), value(slot))) {
+                    Transaction.Output out = new Transaction.Output(value(slot),
+                            KeyRegistry.getDefault().key(keyId(slot)));
+                    action.accept(new AbstractMap.SimpleImmutableEntry<UTXO, Transaction.Output>(
+                            new UTXO(hash(slot), index(slot)), out));
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public Spliterator<Map.Entry<UTXO, Transaction.Output>> trySplit() {
+            if (to - from < 2 * MIN_SPLIT)
+                return null;
+            int mid = (from + to) >>> 1;
+            Entries prefix = new Entries(filter, from, mid);
+            from = mid;
+            return prefix;
+        }
+
+        public long estimateSize() {
+            return (long) (to - from) * size / capacity;
+        }
+
+        public int characteristics() {
+            return DISTINCT | NONNULL | IMMUTABLE;
+        }
+    }
+
+    /** Copies every record into {@code other}, leaving the tombstones behind */
+    void copyInto(UTXOTable other) {
+        for (int slot = 0; slot < capacity; slot++) {
+            if (isFull(slot))
+                other.put(hashWord(slot, 0), hashWord(slot, 1), hashWord(slot, 2), hashWord(slot, 3), index(slot),
+                        value(slot), keyId(slot));
+        }
+    }
+
+    private static int home(long h0, int index, int mask) {
+        long h = h0 ^ (index * 0x9E3779B97F4A7C15L);
+        h ^= h >>> 29;
+        h *= 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 32;
+        return (int) h & mask;
+    }
+
+    /** @return bytes {@code off} .. {@code off + 7} of {@code b} in the table's little-endian order */
+    static long readLong(byte[] b, int off) {
+        long v = 0;
+        for (int i = 7; i >= 0; i--)
+            v = (v << 8) | (b[off + i] & 0xffL);
+        return v;
+    }
+
+    static void writeLong(byte[] b, int off, long v) {
+        for (int i = 0; i < 8; i++)
+            b[off + i] = (byte) (v >>> (8 * i));
+    }
+}
@@ -0,0 +1,117 @@
+package ScroogeCore;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The rules a proposed transaction must pass, run cheapest first and stopping at the first one it fails. Rules
+ * run by {@link ValidationRule.Cost}: those that look at the transaction alone, then, once every input's output is
+ * found in the pool, those that look at the outputs spent, and last those that verify signatures. Within a cost,
+ * rules run in the order they were added. A transaction that is malformed, claims a UTXO twice, creates negative
+ * value or overspends is rejected without any signature being verified. Immutable.
+ */
+public final class ValidationPipeline {
+
+    private static final ValidationRule.Cost[] COSTS = ValidationRule.Cost.values();
+
+    /** the checks of {@link TxHandler#isValidTx} */
+    public static final ValidationPipeline DEFAULT = new ValidationPipeline()
+            .withRule(ValidationRule.Cost.STRUCTURE, ValidationRule.WELL_FORMED)
+            .withRule(ValidationRule.Cost.STRUCTURE, ValidationRule.DISTINCT_INPUTS)
+            .withRule(ValidationRule.Cost.STRUCTURE, ValidationRule.NON_NEGATIVE_OUTPUTS)
+            .withRule(ValidationRule.Cost.POOL, ValidationRule.INPUTS_COVER_OUTPUTS)
+            .withRule(ValidationRule.Cost.CRYPTO, ValidationRule.SIGNATURES);
+
+    /** the rules of each cost, in order */
+    private final ValidationRule[][] rules;
+
+    /** Creates a pipeline with no rules, which only checks that every output spent is in the pool */
+    public ValidationPipeline() {
+        rules = new ValidationRule[COSTS.length][0];
+    }
+
+    private ValidationPipeline(ValidationRule[][] rules) {
+        this.rules = rules;
+    }
+
+    /** @return a pipeline running the rules of this one and then {@code rule}, at {@code cost} */
+    public ValidationPipeline withRule(ValidationRule.Cost cost, ValidationRule rule) {
+        if (rule == null)
+            throw new NullPointerException("rule");
+        ValidationRule[][] copy = rules.clone();
+        ValidationRule[] stage = Arrays.copyOf(rules[cost.ordinal()], rules[cost.ordinal()].length + 1);
+        stage[stage.length - 1] = rule;
+        copy[cost.ordinal()] = stage;
+        return new ValidationPipeline(copy);
+    }
+
+    /** @return the rules of {@code cost}, in the order they run */
+    public List<ValidationRule> getRules(ValidationRule.Cost cost) {
+        return Collections.unmodifiableList(Arrays.asList(rules[cost.ordinal()].clone()));
+    }
+
+    /**
+     * Runs the rules on {@code tx}. The pool is looked at between the {@link ValidationRule.Cost#STRUCTURE} and
+     * {@link ValidationRule.Cost#POOL} rules, answering {@link RejectReason#MISSING_UTXO} for the first input
+     * whose output it does not hold.
+     *
+     * @param signaturesChecked true if the signatures of {@code tx} are already known to be valid, which skips
+     *                          {@link ValidationRule#SIGNATURES}; other {@link ValidationRule.Cost#CRYPTO} rules
+     *                          still run
+     * @return the first rule {@code tx} fails, null if it passes them all
+     */
+    public RejectReason validate(Transaction tx, UTXOPool pool, boolean signaturesChecked) {
+        RejectReason reason = checkStructure(tx);
+        if (reason != null)
+            return reason;
+
+        Transaction.Output[] spent = new Transaction.Output[tx.numInputs()];
+        for (int i = 0; i < spent.length; i++) {
+            UTXO ut = tx.getInput(i).spentUTXO();
+            // a malformed input is only let through by a pipeline without WELL_FORMED
+            spent[i] = ut == null ? null : pool.getTxOutput(ut);
+            if (spent[i] == null)
+                return ut == null ? RejectReason.MALFORMED : RejectReason.MISSING_UTXO;
+        }
+
+        reason = checkSpent(tx, spent);
+        if (reason != null)
+            return reason;
+        return checkCrypto(tx, spent, signaturesChecked);
+    }
+
+    /** @return the first {@link ValidationRule.Cost#STRUCTURE} rule {@code tx} fails, null if it passes them */
+    RejectReason checkStructure(Transaction tx) {
+        return run(rules[ValidationRule.Cost.STRUCTURE.ordinal()], tx, null);
+    }
+
+    /** @return the first {@link ValidationRule.Cost#POOL} rule {@code tx} fails, null if it passes them */
+    RejectReason checkSpent(Transaction tx, Transaction.Output[] spent) {
+        return run(rules[ValidationRule.Cost.POOL.ordinal()], tx, spent);
+    }
+
+    /**
+     * @param signaturesChecked true to skip {@link ValidationRule#SIGNATURES}, see {@link #validate}
+     * @return the first {@link ValidationRule.Cost#CRYPTO} rule {@code tx} fails, null if it passes them
+     */
+    RejectReason checkCrypto(Transaction tx, Transaction.Output[] spent, boolean signaturesChecked) {
+        for (ValidationRule rule : rules[ValidationRule.Cost.CRYPTO.ordinal()]) {
+            if (signaturesChecked && rule == ValidationRule.SIGNATURES)
+                continue;
+            RejectReason reason = rule.check(tx, spent);
+            if (reason != null)
+                return reason;
+        }
+        return null;
+    }
+
+    private static RejectReason run(ValidationRule[] stage, Transaction tx, Transaction.Output[] spent) {
+        for (ValidationRule rule : stage) {
+            RejectReason reason = rule.check(tx, spent);
+            if (reason != null)
+                return reason;
+        }
+        return null;
+    }
+}
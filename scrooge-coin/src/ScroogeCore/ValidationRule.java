@@ -0,0 +1,76 @@
+package ScroogeCore;
+
+import java.util.HashSet;
+
+/**
+ * One check a proposed transaction must pass to be accepted, run by a {@link ValidationPipeline} at the stage its
+ * cost calls for. The checks of {@link TxHandler#isValidTx} are the constants below.
+ */
+public interface ValidationRule {
+
+    /** How much a rule costs to run, which decides where a {@link ValidationPipeline} runs it */
+    enum Cost {
+        /** looks at the transaction alone; {@code spent} is null */
+        STRUCTURE,
+        /** looks at the outputs spent, found in the pool */
+        POOL,
+        /** verifies signatures; {@link ValidationRule#SIGNATURES} is skipped once they are verified up front */
+        CRYPTO
+    }
+
+    /**
+     * @param spent the output each input of {@code tx} spends, or null for a {@link Cost#STRUCTURE} rule
+     * @return why {@code tx} fails the rule, null if it passes
+     */
+    RejectReason check(Transaction tx, Transaction.Output[] spent);
+
+    /** every input names the transaction it spends from */
+    ValidationRule WELL_FORMED = (tx, spent) -> {
+        for (Transaction.Input in : tx.getInputs()) {
+            if (in.prevTxHash == null)
+                return RejectReason.MALFORMED;
+        }
+        return null;
+    };
+
+    /** no ScroogeCore.UTXO is claimed twice */
+    ValidationRule DISTINCT_INPUTS = (tx, spent) -> {
+        if (tx.numInputs() < 2)
+            return null;
+        HashSet<UTXO> claimed = new HashSet<UTXO>();
+        for (Transaction.Input in : tx.getInputs()) {
+            if (!claimed.add(in.spentUTXO()))
+                return RejectReason.DOUBLE_CLAIM;
+        }
+        return null;
+    };
+
+    /** no output value is negative */
+    ValidationRule NON_NEGATIVE_OUTPUTS = (tx, spent) -> {
+        for (Transaction.Output out : tx.getOutputs()) {
+            if (out.value < 0)
+                return RejectReason.NEGATIVE_OUTPUT;
+        }
+        return null;
+    };
+
+    /** the inputs are worth at least as much as the outputs */
+    ValidationRule INPUTS_COVER_OUTPUTS = (tx, spent) -> {
+        double sumOfInputVals = 0, sumOfOutputVals = 0;
+        for (Transaction.Output prev : spent)
+            sumOfInputVals += prev.value;
+        for (Transaction.Output out : tx.getOutputs())
+            sumOfOutputVals += out.value;
+        return sumOfInputVals < sumOfOutputVals ? RejectReason.OVERSPEND : null;
+    };
+
+    /** every input is signed by the owner of the output it spends */
+    ValidationRule SIGNATURES = (tx, spent) -> {
+        for (int i = 0; i < spent.length; i++) {
+            Transaction.Input in = tx.getInput(i);
+            if (in.signature == null || !Crypto.verifyInputSignature(spent[i].address, tx, i))
+                return RejectReason.BAD_SIGNATURE;
+        }
+        return null;
+    };
+}
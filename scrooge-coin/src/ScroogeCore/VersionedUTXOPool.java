@@ -0,0 +1,201 @@
+package ScroogeCore;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Spliterator;
+
+/**
+ * A ScroogeCore.UTXOPool that publishes an immutable {@link Snapshot} of its entries every time a batch of
+ * changes, e.g. an epoch committed through an {@link OverlayUTXOPool}, is applied. Any thread can pin the
+ * snapshot of epoch N with {@link #snapshot()} and read it without locks while later epochs are written; a
+ * snapshot never shows part of an epoch.
+ *
+ * Snapshots are not copies. A snapshot reads the base pool and undoes the changes of the epochs applied after
+ * it, each epoch keeping the values its changes replaced. The snapshot of an epoch is the only thing holding
+ * those values, so they are dropped by the garbage collector as soon as no older snapshot is referenced; a
+ * snapshot pinned for long keeps every later epoch's changes alive and reads slower as they pile up.
+ *
+ * Writes must come from one thread at a time. The base must allow reads from other threads while it is
+ * written, as a {@link ShardedUTXOPool} does, and must not be written by anyone else.
+ */
+public class VersionedUTXOPool extends UTXOPool {
+
+    /** The changes of one epoch, as the values they replaced, linked to those of the next epoch once applied */
+    private static final class Version {
+        /** the entries the epoch changed, with their value before it; null for entries it created */
+        final Map<UTXO, Transaction.Output> before;
+        volatile Version next;
+
+        Version(Map<UTXO, Transaction.Output> before) {
+            this.before = before;
+        }
+    }
+
+    /**
+     * The entries of a VersionedUTXOPool as they were after one epoch. Reads are safe from any thread and never
+     * block the writer; writes throw {@link UnsupportedOperationException}.
+     */
+    public static final class Snapshot extends UTXOPool {
+        private final UTXOPool base;
+        private final Version version;
+        private final long epoch;
+        private final int size;
+
+        private Snapshot(UTXOPool base, Version version, long epoch, int size) {
+            this.base = base;
+            this.version = version;
+            this.epoch = epoch;
+            this.size = size;
+        }
+
+        /** @return the number of batches applied to the pool before this snapshot, 0 for the initial one */
+        public long getEpoch() {
+            return epoch;
+        }
+
+        UTXOPool copy() {
+            return new UTXOPool(this);
+        }
+
+        public void addUTXO(UTXO utxo, Transaction.Output txOut) {
+            throw new UnsupportedOperationException("snapshots are immutable");
+        }
+
+        public void removeUTXO(UTXO utxo) {
+            throw new UnsupportedOperationException("snapshots are immutable");
+        }
+
+        public Transaction.Output getTxOutput(UTXO ut) {
+            // the base is read first: an epoch is linked before it is applied, so a value the base has from a
+            // later epoch is always undone by the walk below
+            Transaction.Output out = base.getTxOutput(ut);
+            for (Version v = version.next; v != null; v = v.next) {
+                if (v.before.containsKey(ut))
+                    return v.before.get(ut);
+            }
+            return out;
+        }
+
+        public boolean contains(UTXO utxo) {
+            return getTxOutput(utxo) != null;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public void commit() {
+        }
+
+        public ArrayList<UTXO> getAllUTXO() {
+            return new ArrayList<UTXO>(entries().keySet());
+        }
+
+        public Spliterator<Map.Entry<UTXO, Transaction.Output>> spliterator(UTXOFilter filter) {
+            return new Filtered(entries().entrySet().spliterator(), filter);
+        }
+
+        /** @return the entries of the snapshot in a new map */
+        private HashMap<UTXO, Transaction.Output> entries() {
+            HashMap<UTXO, Transaction.Output> entries = new HashMap<UTXO, Transaction.Output>();
+            base.stream().forEach(e -> entries.put(e.getKey(), e.getValue()));
+            // the oldest change to an entry holds its value in this snapshot, so later ones must not override it
+            HashMap<UTXO, Transaction.Output> undone = new HashMap<UTXO, Transaction.Output>();
+            for (Version v = version.next; v != null; v = v.next) {
+                for (Map.Entry<UTXO, Transaction.Output> e : v.before.entrySet()) {
+                    if (!undone.containsKey(e.getKey()))
+                        undone.put(e.getKey(), e.getValue());
+                }
+            }
+            for (Map.Entry<UTXO, Transaction.Output> e : undone.entrySet()) {
+                if (e.getValue() == null)
+                    entries.remove(e.getKey());
+                else
+                    entries.put(e.getKey(), e.getValue());
+            }
+            return entries;
+        }
+    }
+
+    private final UTXOPool base;
+    private volatile Snapshot current;
+
+    /** Creates an empty pool over a new {@link ShardedUTXOPool} */
+    public VersionedUTXOPool() {
+        this(new ShardedUTXOPool());
+    }
+
+    /** Creates a pool over {@code base}, whose entries make up the snapshot of epoch 0; see the class comment */
+    public VersionedUTXOPool(UTXOPool base) {
+        this.base = base;
+        current = new Snapshot(base, new Version(null), 0, base.size());
+    }
+
+    /** @return the pool holding the entries */
+    public UTXOPool getBase() {
+        return base;
+    }
+
+    /** @return the entries as of the last batch applied, which later batches leave untouched */
+    public Snapshot snapshot() {
+        return current;
+    }
+
+    UTXOPool copy() {
+        return new VersionedUTXOPool(base.copy());
+    }
+
+    /** Adds {@code utxo} as a batch of its own, publishing a snapshot */
+    public void addUTXO(UTXO utxo, Transaction.Output txOut) {
+        apply(Collections.<UTXO>emptyList(), Collections.singletonMap(utxo, txOut));
+    }
+
+    /** Removes {@code utxo} as a batch of its own, publishing a snapshot */
+    public void removeUTXO(UTXO utxo) {
+        apply(Collections.singletonList(utxo), Collections.<UTXO, Transaction.Output>emptyMap());
+    }
+
+    public Transaction.Output getTxOutput(UTXO ut) {
+        return base.getTxOutput(ut);
+    }
+
+    public boolean contains(UTXO utxo) {
+        return base.contains(utxo);
+    }
+
+    public int size() {
+        return base.size();
+    }
+
+    public void commit() {
+        base.commit();
+    }
+
+    public ArrayList<UTXO> getAllUTXO() {
+        return base.getAllUTXO();
+    }
+
+    public Spliterator<Map.Entry<UTXO, Transaction.Output>> spliterator(UTXOFilter filter) {
+        return base.spliterator(filter);
+    }
+
+    /** Applies the batch to the base and publishes the snapshot after it */
+    synchronized void apply(Collection<UTXO> removed, Map<UTXO, Transaction.Output> added) {
+        HashMap<UTXO, Transaction.Output> before = new HashMap<UTXO, Transaction.Output>();
+        for (UTXO ut : removed)
+            before.put(ut, base.getTxOutput(ut));
+        for (UTXO ut : added.keySet()) {
+            if (!before.containsKey(ut))
+                before.put(ut, base.getTxOutput(ut));
+        }
+        Snapshot last = current;
+        Version version = new Version(before);
+        // linked before the base changes, so readers of older snapshots undo the epoch from its first write on
+        last.version.next = version;
+        base.apply(removed, added);
+        current = new Snapshot(base, version, last.epoch + 1, base.size());
+    }
+}
@@ -0,0 +1,94 @@
+package ScroogeCore;
+
+import static ScroogeCore.TestLedger.*;
+
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+class BlockLogTest {
+    static Transaction genesis;
+
+    @BeforeAll
+    static void setUpKeys() throws NoSuchAlgorithmException {
+        generateKeys();
+    }
+
+    @BeforeEach
+    void setUp() {
+        genesis = genesis(100, 100, 100, 100);
+    }
+
+    @Test
+    void shouldLogAcceptedEpochsAndReplayThem() throws IOException {
+        BlockLog log = new BlockLog(Files.createTempDirectory("blocks"));
+        TxHandler txHandler = new TxHandler(poolOf(genesis));
+        txHandler.setBlockLog(log);
+        Transaction parent = makeTxn(genesis, 0, 90, alice);
+        Transaction rejected = makeTxn(genesis, 0, 80, alice);
+        Transaction child = makeTxn(parent, 0, 70, bob);
+
+        Transaction[] first = txHandler.handleTxs(new Transaction[]{parent, rejected});
+        Transaction[] second = txHandler.handleTxs(new Transaction[]{child});
+        assert(first.length == 1 && second.length == 1);
+
+        assert(log.getEpoch() == 2);
+        assert(log.size() == 2);
+        assert(Arrays.equals(log.get(child.getHash()).getRawTx(), child.getRawTx()));
+        assert(log.get(rejected.getHash()) == null);
+        assert(log.contains(parent.getHash256()));
+
+        ArrayList<Long> epochs = new ArrayList<Long>();
+        log.replay(2, (epoch, accepted) -> {
+            epochs.add(epoch);
+            assert(accepted.length == 1 && Arrays.equals(accepted[0].getHash(), child.getHash()));
+        });
+        assert(epochs.size() == 1 && epochs.get(0) == 2);
+
+        UTXOPool replayed = poolOf(genesis);
+        log.replay(replayed);
+        assert(replayed.size() == txHandler.getPool().size());
+        for (UTXO ut : txHandler.getPool().getAllUTXO())
+            assert(replayed.contains(ut));
+        log.close();
+    }
+
+    @Test
+    void shouldRollSegmentsAndRecoverFromACrash() throws IOException {
+        Path dir = Files.createTempDirectory("blocks");
+        // every epoch outgrows a 1-byte segment, so each one gets its own
+        BlockLog log = new BlockLog(dir, 1);
+        Transaction[] txs = new Transaction[3];
+        for (int i = 0; i < txs.length; i++) {
+            txs[i] = makeTxn(genesis, i, 90, alice);
+            long epoch = log.append(new Transaction[]{txs[i]});
+            assert(epoch == i + 1);
+        }
+        log.close();
+        // the last epoch was torn while being written and the first index never reached the disk
+        try (FileChannel last = FileChannel.open(dir.resolve(String.format("%020d.blocks", 3)),
+                StandardOpenOption.WRITE)) {
+            last.write(ByteBuffer.wrap(new byte[] { 0, 0, 0, 0, 0, 0, 0, 4, 0, 0 }), last.size());
+        }
+        Files.delete(dir.resolve(String.format("%020d.index", 1)));
+
+        BlockLog recovered = new BlockLog(dir, 1);
+        assert(recovered.getEpoch() == 3);
+        assert(recovered.size() == 3);
+        for (Transaction tx : txs)
+            assert(Arrays.equals(recovered.get(tx.getHash()).getRawTx(), tx.getRawTx()));
+        Transaction next = makeTxn(genesis, 3, 90, alice);
+        long epoch = recovered.append(new Transaction[]{next});
+        assert(epoch == 4);
+        assert(recovered.get(next.getHash256()) != null);
+        recovered.close();
+    }
+}
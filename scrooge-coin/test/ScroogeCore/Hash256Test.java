@@ -0,0 +1,67 @@
+package ScroogeCore;
+
+import org.junit.jupiter.api.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+class Hash256Test {
+
+    static byte[] randomHash(Random random) {
+        byte[] hash = new byte[Hash256.BYTES];
+        random.nextBytes(hash);
+        return hash;
+    }
+
+    @Test
+    void shouldRoundTripBytesAndMatchUTXOTableWords() {
+        byte[] bytes = randomHash(new Random(1));
+        Hash256 hash = Hash256.of(bytes);
+
+        assert(Arrays.equals(hash.toBytes(), bytes));
+        assert(hash.equals(Hash256.of(bytes.clone())));
+        assert(hash.hashCode() == Hash256.of(bytes.clone()).hashCode());
+        for (int w = 0; w < 4; w++)
+            assert(hash.word(w) == UTXOTable.readLong(bytes, 8 * w));
+        assert(hash.equals(Hash256.of(hash.word(0), hash.word(1), hash.word(2), hash.word(3))));
+
+        boolean threw = false;
+        try {
+            Hash256.of(new byte[31]);
+        } catch (IllegalArgumentException e) {
+            threw = true;
+        }
+        assert(threw);
+    }
+
+    @Test
+    void shouldOrderUTXOsAsByteArraysDid() {
+        Random random = new Random(2);
+        for (int i = 0; i < 1000; i++) {
+            byte[] a = randomHash(random);
+            byte[] b = i % 10 == 0 ? a.clone() : randomHash(random);
+            if (i % 10 == 1)
+                b[31] ^= 1;
+            int expected = 0;
+            for (int k = 0; k < Hash256.BYTES && expected == 0; k++)
+                expected = Byte.compare(a[k], b[k]);
+            assert(Integer.signum(Hash256.of(a).compareTo(Hash256.of(b))) == Integer.signum(expected));
+        }
+    }
+
+    @Test
+    void shouldKeepUTXOEqualityAcrossHashForms() {
+        byte[] bytes = randomHash(new Random(3));
+        UTXO fromBytes = new UTXO(bytes, 4);
+        UTXO fromHash = new UTXO(Hash256.of(bytes), 4);
+        UTXO shortHash = new UTXO("GenesisBlock".getBytes(), 4);
+
+        assert(fromBytes.equals(fromHash) && fromBytes.hashCode() == fromHash.hashCode());
+        assert(fromBytes.compareTo(fromHash) == 0);
+        assert(!fromBytes.equals(new UTXO(bytes, 5)));
+        assert(shortHash.getHash256() == null);
+        assert(shortHash.equals(new UTXO("GenesisBlock".getBytes(), 4)));
+        assert(!shortHash.equals(fromBytes) && !fromBytes.equals(shortHash));
+        assert(Arrays.equals(fromHash.getTxHash(), bytes));
+    }
+}
@@ -0,0 +1,106 @@
+package ScroogeCore;
+
+import org.junit.jupiter.api.*;
+
+import java.nio.ByteBuffer;
+import java.security.*;
+import java.util.Arrays;
+
+class KeyRegistryTest {
+    static PublicKey alice;
+    static PublicKey bob;
+
+    @BeforeEach
+    void setUp() throws NoSuchAlgorithmException {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        alice = keyGen.generateKeyPair().getPublic();
+        bob = keyGen.generateKeyPair().getPublic();
+    }
+
+    @Test
+    void shouldInternEqualKeysToOneId() {
+        KeyRegistry registry = new KeyRegistry();
+        int aliceId = registry.idOf(alice);
+        int bobId = registry.idOf(bob);
+        PublicKey decoded = registry.decode(alice.getAlgorithm(), alice.getEncoded());
+
+        assert(aliceId == 0 && bobId == 1);
+        assert(registry.size() == 2);
+        assert(decoded == alice);
+        assert(registry.idOf(decoded) == aliceId);
+        assert(registry.key(bobId) == bob);
+        assert(Arrays.equals(registry.encoded(aliceId), alice.getEncoded()));
+
+        boolean threw = false;
+        try {
+            registry.key(2);
+        } catch (IllegalArgumentException e) {
+            threw = true;
+        }
+        assert(threw);
+    }
+
+    @Test
+    void shouldDecodeEachEncodingOnce() {
+        // alice owns coins in a pool, which interned her key
+        KeyRegistry.getDefault().idOf(alice);
+        Transaction tx = new Transaction();
+        tx.addInput("GenesisBlock".getBytes(), 0);
+        tx.addOutput(1, alice);
+        tx.addOutput(2, alice);
+        tx.finalize();
+
+        Transaction decoded = TransactionCodec.decode(ByteBuffer.wrap(TransactionCodec.encode(tx)));
+
+        assert(decoded.getOutput(0).address == alice);
+        assert(decoded.getOutput(1).address == alice);
+        assert(decoded.getOutput(0).keyId() == KeyRegistry.getDefault().idOf(alice));
+        assert(Arrays.equals(decoded.getRawTx(), tx.getRawTx()));
+    }
+
+    /** @return a transaction paying {@code value} to {@code payee} out of output {@code index} of {@code prevTx} */
+    private static Transaction pay(Transaction prevTx, int index, double value, PublicKey payee) {
+        Transaction tx = new Transaction();
+        tx.addInput(prevTx.getHash(), index);
+        tx.addOutput(value, payee);
+        return TestLedger.signAll(tx, TestLedger.alice);
+    }
+
+    @Test
+    void shouldOnlyInternTheKeysOfOutputsThatEnterAPool() throws NoSuchAlgorithmException {
+        TestLedger.generateKeys();
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        PublicKey[] strangers = new PublicKey[6];
+        for (int i = 0; i < strangers.length; i++)
+            strangers[i] = keyGen.generateKeyPair().getPublic();
+        Transaction genesis = TestLedger.genesis(100, 100);
+        TxHandler txHandler = new MaxFeeTxHandler(new OffHeapUTXOPool(TestLedger.poolOf(genesis)));
+        Mempool mempool = new Mempool(new TxHandler(new OffHeapUTXOPool(TestLedger.poolOf(genesis))));
+        KeyRegistry registry = KeyRegistry.getDefault();
+        int before = registry.size();
+
+        Transaction overspend = pay(genesis, 0, 200, strangers[0]);
+        Transaction loser = pay(genesis, 1, 99, strangers[1]);
+        Transaction winner = pay(genesis, 1, 50, strangers[2]);
+        Transaction unknownParent = pay(genesis, 0, 90, strangers[3]);
+        Transaction orphan = pay(unknownParent, 0, 80, strangers[4]);
+        Transaction[] txns = new Transaction[] { overspend, loser, winner, orphan };
+        for (Transaction tx : txns)
+            TransactionCodec.decode(ByteBuffer.wrap(TransactionCodec.encode(tx))).getRawTx();
+        TransactionBatch.of(txns).validate(txHandler.getPool());
+        TxHandler.ThreeState rejected = mempool.submit(overspend);
+        TxHandler.ThreeState orphaned = mempool.submit(orphan);
+        long owned = txHandler.getPool().stream(UTXOFilter.ALL.ownedBy(strangers[5])).count()
+                + TestLedger.poolOf(orphan).stream(UTXOFilter.ALL.ownedBy(strangers[5])).count();
+
+        assert(rejected == TxHandler.ThreeState.FALSE && orphaned == TxHandler.ThreeState.MAYBE);
+        assert(owned == 0);
+        assert(registry.size() == before);
+
+        Transaction[] accepted = txHandler.handleTxs(txns);
+        assert(Arrays.equals(accepted, new Transaction[] { winner }));
+        assert(registry.size() == before + 1);
+        assert(registry.idIfPresent(strangers[2]) >= 0);
+        assert(registry.idIfPresent(strangers[1]) == -1);
+    }
+}
@@ -0,0 +1,96 @@
+package ScroogeCore;
+
+import static ScroogeCore.TestLedger.*;
+
+import org.junit.jupiter.api.*;
+
+import java.security.*;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+class MaxFeeTxHandlerTest {
+    static Transaction genesis;
+    static UTXOPool testPool;
+
+    @BeforeAll
+    static void setUpKeys() throws NoSuchAlgorithmException {
+        generateKeys();
+    }
+
+    @BeforeEach
+    void setUp() {
+        genesis = genesis(100, 100, 100);
+        testPool = poolOf(genesis);
+    }
+
+    @Test
+    void shouldPreferTheConflictingTxnWithTheHigherFee() throws InvalidKeyException, NoSuchAlgorithmException, SignatureException {
+        Transaction lowFee = makeTxn(genesis, 0, 95, alice);
+        Transaction highFee = makeTxn(genesis, 0, 80, alice);
+        Transaction[] txns = new Transaction[] { lowFee, highFee };
+
+        assert(Arrays.equals(new TxHandler(new UTXOPool(testPool)).handleTxs(txns), new Transaction[] { lowFee }));
+
+        MaxFeeTxHandler txHandler = new MaxFeeTxHandler(testPool);
+        assert(Arrays.equals(txHandler.handleTxs(txns), new Transaction[] { highFee }));
+        assert(txHandler.getPool().size() == 3);
+        assert(txHandler.getPool().contains(new UTXO(highFee.getHash(), 0)));
+        assert(!txHandler.getPool().contains(new UTXO(genesis.getHash(), 0)));
+    }
+
+    @Test
+    void shouldTakeALowFeeParentForItsHighFeeChild() throws InvalidKeyException, NoSuchAlgorithmException, SignatureException {
+        Transaction parent = makeTxn(genesis, 0, 99, alice);
+        Transaction child = makeTxn(parent, 0, 50, bob);
+        Transaction rival = makeTxn(genesis, 0, 80, alice);
+
+        Transaction[] accepted = new MaxFeeTxHandler(testPool).handleTxs(new Transaction[] { rival, child, parent });
+
+        assert(Arrays.equals(accepted, new Transaction[] { parent, child }));
+    }
+
+    @Test
+    void shouldSwapTwoTxnsForOneRivalWithinTheTimeBudget() throws InvalidKeyException, NoSuchAlgorithmException, SignatureException {
+        Transaction first = makeTxn(genesis, 0, 90, alice);
+        Transaction both = makeTxn(new Transaction[] { genesis, genesis }, new int[] { 0, 1 }, 188, alice);
+        Transaction second = makeTxn(genesis, 1, 99, alice);
+        Transaction[] txns = new Transaction[] { first, both, second };
+
+        // the greedy pass alone goes for the fee of the first txn, which shuts out only one rival
+        MaxFeeTxHandler greedyOnly = new MaxFeeTxHandler(new UTXOPool(testPool));
+        greedyOnly.setTimeBudget(0, TimeUnit.MILLISECONDS);
+        Transaction[] accepted = greedyOnly.handleTxs(txns);
+        assert(new HashSet<Transaction>(Arrays.asList(accepted)).equals(new HashSet<Transaction>(Arrays.asList(first, second))));
+
+        assert(Arrays.equals(new MaxFeeTxHandler(testPool).handleTxs(txns), new Transaction[] { both }));
+    }
+
+    @Test
+    void shouldSkipALongChainWhoseRootLostWithoutWalkingItAgain() {
+        Transaction rival = makeTxn(genesis, 0, 90, alice);
+        // the chain brings no fee, so the rival wins the outpoint and the chain is tried root first; its
+        // signatures are never checked, as none of it can join
+        Transaction[] txns = new Transaction[30001];
+        txns[0] = rival;
+        Transaction prev = genesis;
+        for (int i = 1; i < txns.length; i++) {
+            Transaction tx = new Transaction();
+            tx.addInput(prev.getHash(), 0);
+            tx.addOutput(100, alice.getPublic());
+            tx.addSignature(new byte[] { 1 }, 0);
+            tx.finalize();
+            txns[i] = prev = tx;
+        }
+
+        MaxFeeTxHandler txHandler = new MaxFeeTxHandler(testPool);
+        txHandler.setTimeBudget(0, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        Transaction[] accepted = txHandler.handleTxs(txns);
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assert(Arrays.equals(accepted, new Transaction[] { rival }));
+        // walking the chain again for each of its members takes seconds
+        assert(millis < 3000);
+    }
+}
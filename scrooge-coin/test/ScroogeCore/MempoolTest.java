@@ -0,0 +1,91 @@
+package ScroogeCore;
+
+import static ScroogeCore.TestLedger.*;
+
+import org.junit.jupiter.api.*;
+
+import java.security.*;
+import java.util.Arrays;
+
+class MempoolTest {
+    static Transaction genesis;
+    static UTXOPool testPool;
+
+    @BeforeAll
+    static void setUpKeys() throws NoSuchAlgorithmException {
+        generateKeys();
+    }
+
+    @BeforeEach
+    void setUp() {
+        genesis = genesis(100, 100);
+        testPool = poolOf(genesis);
+    }
+
+    @Test
+    void shouldValidateEachTxnOnArrival() throws InvalidKeyException, NoSuchAlgorithmException, SignatureException {
+        TxHandler txHandler = new TxHandler(testPool);
+        Mempool mempool = new Mempool(txHandler);
+        Transaction parent = makeTxn(genesis, 0, 90, alice);
+        Transaction child = makeTxn(parent, 0, 80, bob);
+        Transaction doubleSpend = makeTxn(genesis, 0, 70, alice);
+        Transaction overspend = makeTxn(genesis, 1, 110, alice);
+
+        assert(mempool.submit(child) == TxHandler.ThreeState.MAYBE);
+        assert(mempool.getOrphans().contains(child.getHash()));
+        // accepting the parent wakes the orphan waiting on it
+        assert(mempool.submit(parent) == TxHandler.ThreeState.TRUE);
+        assert(mempool.getOrphans().size() == 0);
+        assert(mempool.submit(child) == TxHandler.ThreeState.FALSE);
+        assert(mempool.submit(doubleSpend) == TxHandler.ThreeState.FALSE);
+        assert(mempool.submit(overspend) == TxHandler.ThreeState.FALSE);
+        assert(mempool.submit(parent) == TxHandler.ThreeState.FALSE);
+        assert(mempool.isSpent(new UTXO(genesis.getHash(), 0)));
+        assert(mempool.size() == 2);
+
+        // nothing reaches the handler's pool before the epoch closes
+        assert(txHandler.getPool().size() == 2);
+        assert(txHandler.getPool().contains(new UTXO(genesis.getHash(), 0)));
+    }
+
+    @Test
+    void shouldCommitTheAcceptedTxnsWhenTheEpochCloses() throws InvalidKeyException, NoSuchAlgorithmException, SignatureException {
+        TxHandler txHandler = new TxHandler(testPool);
+        Mempool mempool = new Mempool(txHandler);
+        Transaction parent = makeTxn(genesis, 0, 90, alice);
+        Transaction child = makeTxn(parent, 0, 80, bob);
+        mempool.submit(parent);
+        mempool.submit(child);
+
+        assert(Arrays.equals(mempool.closeEpoch(), new Transaction[] { parent, child }));
+        assert(mempool.size() == 0);
+        assert(!mempool.isSpent(new UTXO(genesis.getHash(), 0)));
+        assert(txHandler.getPool().size() == 2);
+        assert(txHandler.getPool().contains(new UTXO(child.getHash(), 0)));
+        assert(txHandler.getPool().contains(new UTXO(genesis.getHash(), 1)));
+        assert(!txHandler.getPool().contains(new UTXO(parent.getHash(), 0)));
+
+        // the next epoch builds on the committed pool
+        assert(mempool.submit(makeTxn(child, 0, 80, bob)) == TxHandler.ThreeState.TRUE);
+        assert(mempool.submit(makeTxn(genesis, 0, 50, alice)) == TxHandler.ThreeState.MAYBE);
+        assert(mempool.closeEpoch().length == 1);
+    }
+
+    @Test
+    void shouldKeepOrphansAcrossEpochs() throws InvalidKeyException, NoSuchAlgorithmException, SignatureException {
+        TxHandler txHandler = new TxHandler(testPool);
+        Mempool mempool = new Mempool(txHandler);
+        Transaction parent = makeTxn(genesis, 0, 90, alice);
+        Transaction child = makeTxn(parent, 0, 80, bob);
+        Transaction grandchild = makeTxn(child, 0, 70, bob);
+
+        assert(mempool.submit(grandchild) == TxHandler.ThreeState.MAYBE);
+        assert(mempool.submit(child) == TxHandler.ThreeState.MAYBE);
+        assert(mempool.closeEpoch().length == 0);
+        assert(mempool.getOrphans().size() == 2);
+
+        assert(mempool.submit(parent) == TxHandler.ThreeState.TRUE);
+        assert(Arrays.equals(mempool.closeEpoch(), new Transaction[] { parent, child, grandchild }));
+        assert(txHandler.getPool().contains(new UTXO(grandchild.getHash(), 0)));
+    }
+}
@@ -0,0 +1,100 @@
+package ScroogeCore;
+
+import org.junit.jupiter.api.*;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+class MerkleTreeTest {
+
+    static byte[][] randomHashes(int num) {
+        Random random = new Random(num);
+        byte[][] hashes = new byte[num][];
+        for (int i = 0; i < num; i++)
+            hashes[i] = Hash256Test.randomHash(random);
+        return hashes;
+    }
+
+    static byte[] sha256(int prefix, byte[]... parts) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        md.update((byte) prefix);
+        for (byte[] part : parts)
+            md.update(part);
+        return md.digest();
+    }
+
+    static byte[] root(int size, byte[] top) throws Exception {
+        return sha256(2, new byte[] { 0, 0, 0, (byte) size }, top);
+    }
+
+    @Test
+    void shouldHashLeavesAndNodesApartAndPromoteTheOddNode() throws Exception {
+        byte[][] hashes = randomHashes(3);
+        byte[] a = sha256(0, hashes[0]), b = sha256(0, hashes[1]), c = sha256(0, hashes[2]);
+
+        assert(Arrays.equals(MerkleTree.of(new byte[0][], null).getRoot(), root(0, new byte[0])));
+        assert(Arrays.equals(MerkleTree.of(Arrays.copyOf(hashes, 1), null).getRoot(), root(1, a)));
+        assert(Arrays.equals(MerkleTree.of(hashes, null).getRoot(), root(3, sha256(1, sha256(1, a, b), c))));
+    }
+
+    @Test
+    void shouldRejectAProofWhoseIndexOrSizeWasChanged() {
+        byte[][] hashes = randomHashes(3);
+        MerkleTree tree = MerkleTree.of(hashes, null);
+        byte[] proof = tree.proof(2).toBytes();
+        assert(MerkleTree.verify(tree.getRoot(), hashes[2], MerkleTree.Proof.fromBytes(proof)));
+
+        // index 2 of 3 promotes its leaf past the first level, just as index 1 of 2 pairs it with one sibling
+        byte[] relabelled = proof.clone();
+        relabelled[3] = 1;
+        relabelled[7] = 2;
+        assert(!MerkleTree.verify(tree.getRoot(), hashes[2], MerkleTree.Proof.fromBytes(relabelled)));
+        byte[] resized = proof.clone();
+        resized[7] = 4;
+        assert(!MerkleTree.verify(tree.getRoot(), hashes[2], MerkleTree.Proof.fromBytes(resized)));
+        byte[] moved = tree.proof(0).toBytes();
+        moved[3] = 1;
+        assert(!MerkleTree.verify(tree.getRoot(), hashes[0], MerkleTree.Proof.fromBytes(moved)));
+    }
+
+    @Test
+    void shouldProveEveryTransactionOfEveryTreeSize() {
+        for (int size = 1; size <= 33; size++) {
+            byte[][] hashes = randomHashes(size);
+            MerkleTree tree = MerkleTree.of(hashes, null);
+            for (int i = 0; i < size; i++) {
+                MerkleTree.Proof proof = MerkleTree.Proof.fromBytes(tree.proof(i).toBytes());
+                assert(proof.getIndex() == i && proof.getTreeSize() == size);
+                assert(MerkleTree.verify(tree.getRoot(), hashes[i], proof));
+                assert(!MerkleTree.verify(tree.getRoot(), hashes[(i + 1) % size], proof) || size == 1);
+            }
+        }
+
+        byte[][] hashes = randomHashes(6);
+        MerkleTree tree = MerkleTree.of(hashes, null);
+        byte[] tampered = tree.proof(4).toBytes();
+        tampered[tampered.length - 1] ^= 1;
+        assert(!MerkleTree.verify(tree.getRoot(), hashes[4], MerkleTree.Proof.fromBytes(tampered)));
+        boolean threw = false;
+        try {
+            MerkleTree.Proof.fromBytes(Arrays.copyOf(tampered, tampered.length - 1));
+        } catch (IllegalArgumentException e) {
+            threw = true;
+        }
+        assert(threw);
+    }
+
+    @Test
+    void shouldBuildTheSameTreeInParallel() {
+        byte[][] hashes = randomHashes(10001);
+        ForkJoinPool executor = new ForkJoinPool(4);
+        MerkleTree parallel = MerkleTree.of(hashes, executor);
+        executor.shutdown();
+        MerkleTree sequential = MerkleTree.of(hashes, null);
+
+        assert(Arrays.equals(parallel.getRoot(), sequential.getRoot()));
+        assert(MerkleTree.verify(sequential.getRoot(), hashes[9999], parallel.proof(9999)));
+    }
+}
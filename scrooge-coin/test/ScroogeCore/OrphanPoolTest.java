@@ -0,0 +1,78 @@
+package ScroogeCore;
+
+import org.junit.jupiter.api.*;
+
+import java.security.*;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+class OrphanPoolTest {
+    static PublicKey alice;
+
+    @BeforeEach
+    void setUp() throws NoSuchAlgorithmException {
+        alice = KeyPairGenerator.getInstance("RSA").generateKeyPair().getPublic();
+    }
+
+    /** @return an unsigned transaction spending output {@code index} of the transaction hashed {@code prevHash} */
+    private static Transaction makeTxn(byte[] prevHash, int index, double value) {
+        Transaction tx = new Transaction();
+        tx.addInput(prevHash, index);
+        tx.addOutput(value, alice);
+        tx.finalize();
+        return tx;
+    }
+
+    @Test
+    void shouldWakeOnlyTheOrphansWaitingOnTheParent() {
+        OrphanPool orphans = new OrphanPool();
+        Transaction parent = makeTxn("GenesisBlock".getBytes(), 0, 10);
+        Transaction other = makeTxn("GenesisBlock".getBytes(), 1, 10);
+        Transaction child = makeTxn(parent.getHash(), 0, 5);
+        Transaction otherChild = makeTxn(other.getHash(), 0, 5);
+        UTXOPool pool = new UTXOPool();
+
+        assert(orphans.add(child, pool));
+        assert(orphans.add(otherChild, pool));
+        assert(orphans.add(child, pool));
+        assert(orphans.size() == 2);
+        assert(orphans.bytes() == TransactionCodec.encodedSize(child) + TransactionCodec.encodedSize(otherChild));
+
+        ArrayList<Transaction> woken = orphans.wake(parent);
+        assert(woken.size() == 1 && woken.get(0) == child);
+        assert(!orphans.contains(child.getHash()));
+        assert(orphans.contains(otherChild.getHash()));
+        assert(orphans.wake(parent).isEmpty());
+
+        // a transaction whose inputs are all in the pool is no orphan
+        pool.addUTXO(new UTXO(parent.getHash(), 0), parent.getOutput(0));
+        assert(!orphans.add(child, pool));
+    }
+
+    @Test
+    void shouldEvictTheLeastRecentlyAddedOrphans() {
+        Transaction[] txns = new Transaction[4];
+        for (int i = 0; i < txns.length; i++)
+            txns[i] = makeTxn("GenesisBlock".getBytes(), i, 10);
+        UTXOPool pool = new UTXOPool();
+
+        OrphanPool byCount = new OrphanPool(3, Long.MAX_VALUE, 1, TimeUnit.HOURS);
+        for (Transaction tx : txns)
+            byCount.add(tx, pool);
+        assert(byCount.size() == 3);
+        assert(!byCount.contains(txns[0].getHash()));
+
+        OrphanPool byBytes = new OrphanPool(100, 2 * TransactionCodec.encodedSize(txns[0]), 1, TimeUnit.HOURS);
+        byBytes.add(txns[0], pool);
+        byBytes.add(txns[1], pool);
+        byBytes.add(txns[0], pool);
+        byBytes.add(txns[2], pool);
+        assert(byBytes.size() == 2);
+        assert(byBytes.contains(txns[0].getHash()) && !byBytes.contains(txns[1].getHash()));
+
+        OrphanPool byAge = new OrphanPool(100, Long.MAX_VALUE, 0, TimeUnit.MILLISECONDS);
+        byAge.add(txns[0], pool);
+        byAge.add(txns[1], pool);
+        assert(byAge.size() == 1 && byAge.contains(txns[1].getHash()));
+    }
+}
@@ -0,0 +1,100 @@
+package ScroogeCore;
+
+import org.junit.jupiter.api.*;
+
+import java.nio.ByteBuffer;
+import java.security.*;
+import java.util.Arrays;
+
+class SignatureSchemeTest {
+    static KeyPair rsa;
+    static KeyPair ed25519;
+
+    static Transaction genesis;
+    static UTXOPool testPool;
+
+    @BeforeEach
+    void setUp() throws NoSuchAlgorithmException {
+        rsa = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        ed25519 = KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+
+        genesis = new Transaction();
+        genesis.addOutput(100, rsa.getPublic());
+        genesis.addOutput(100, ed25519.getPublic());
+        genesis.finalize();
+        testPool = new UTXOPool();
+        for (int i = 0; i < genesis.numOutputs(); i++)
+            testPool.addUTXO(new UTXO(genesis.getHash(), i), genesis.getOutput(i));
+    }
+
+    @Test
+    void shouldTellSchemesByKeyAndId() {
+        assert(SignatureScheme.of(rsa.getPublic()) == SignatureScheme.RSA);
+        assert(SignatureScheme.of(ed25519.getPrivate()) == SignatureScheme.ED25519);
+        for (SignatureScheme scheme : SignatureScheme.values())
+            assert(SignatureScheme.fromId(scheme.id()) == scheme);
+        int id = KeyRegistry.getDefault().idOf(ed25519.getPublic());
+        assert(KeyRegistry.getDefault().scheme(id) == SignatureScheme.ED25519);
+
+        boolean threw = false;
+        try {
+            SignatureScheme.fromId((byte) 99);
+        } catch (IllegalArgumentException e) {
+            threw = true;
+        }
+        assert(threw);
+    }
+
+    @Test
+    void shouldAcceptInputsOfBothSchemesInOneTxn() {
+        Transaction tx = new Transaction();
+        tx.addInput(genesis.getHash(), 0);
+        tx.addInput(genesis.getHash(), 1);
+        tx.addOutput(150, ed25519.getPublic());
+        Crypto.signInput(rsa.getPrivate(), tx, 0);
+        Crypto.signInput(ed25519.getPrivate(), tx, 1);
+        tx.finalize();
+
+        assert(tx.getInput(0).scheme == SignatureScheme.RSA);
+        assert(tx.getInput(1).scheme == SignatureScheme.ED25519);
+        assert(tx.getInput(1).signature.length == 64);
+        TxHandler txHandler = new TxHandler(testPool);
+        assert(txHandler.isValidTx(tx));
+        assert(txHandler.handleTxs(new Transaction[]{tx}).length == 1);
+    }
+
+    @Test
+    void shouldRejectASignatureNamingTheWrongScheme() {
+        Transaction tx = new Transaction();
+        tx.addInput(genesis.getHash(), 1);
+        tx.addOutput(90, rsa.getPublic());
+        byte[] signature = Crypto.sign(ed25519.getPrivate(), tx.getRawDataToSign(0));
+        // the legacy overload records RSA, which is not the scheme of the key owning the output
+        tx.addSignature(signature, 0);
+        tx.finalize();
+
+        assert(Crypto.verifySignature(ed25519.getPublic(), tx.getRawDataToSign(0), signature));
+        assert(!new TxHandler(testPool).isValidTx(tx));
+        tx.addSignature(signature, 0, SignatureScheme.ED25519);
+        assert(new TxHandler(testPool).isValidTx(tx));
+    }
+
+    @Test
+    void shouldKeepTheSchemeInTheWireEncoding() {
+        Transaction tx = new Transaction();
+        tx.addInput(genesis.getHash(), 1);
+        tx.addOutput(90, ed25519.getPublic());
+        Crypto.signInput(ed25519.getPrivate(), tx, 0);
+        tx.finalize();
+
+        ByteBuffer buffer = ByteBuffer.wrap(TransactionCodec.encode(tx));
+        Transaction decoded = TransactionCodec.decode(buffer);
+
+        assert(!buffer.hasRemaining());
+        assert(decoded.getInput(0).scheme == SignatureScheme.ED25519);
+        assert(decoded.getOutput(0).address.equals(ed25519.getPublic()));
+        decoded.finalize();
+        assert(Arrays.equals(decoded.getHash(), tx.getHash()));
+        assert(new TxHandler(testPool).isValidTx(decoded));
+    }
+}
@@ -0,0 +1,65 @@
+package ScroogeCore;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Keys, genesis transactions and signed spends shared by the tests of the handlers and of what they feed. The key
+ * pairs are generated once, by {@link #generateKeys()} from a {@code @BeforeAll} method, as RSA key generation is
+ * what a test would otherwise spend most of its time on.
+ */
+final class TestLedger {
+    static KeyPair alice;
+    static KeyPair bob;
+
+    private TestLedger() {
+    }
+
+    static synchronized void generateKeys() throws NoSuchAlgorithmException {
+        if (alice != null)
+            return;
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        alice = keyGen.generateKeyPair();
+        bob = keyGen.generateKeyPair();
+    }
+
+    /** @return a finalized transaction with no inputs paying each of {@code values} to alice */
+    static Transaction genesis(double... values) {
+        Transaction genesis = new Transaction();
+        for (double value : values)
+            genesis.addOutput(value, alice.getPublic());
+        genesis.finalize();
+        return genesis;
+    }
+
+    /** @return a new heap pool holding every output of {@code tx} */
+    static UTXOPool poolOf(Transaction tx) {
+        UTXOPool pool = new UTXOPool();
+        for (int i = 0; i < tx.numOutputs(); i++)
+            pool.addUTXO(new UTXO(tx.getHash(), i), tx.getOutput(i));
+        return pool;
+    }
+
+    /** @return a transaction spending output {@code index} of each of {@code prevTxs}, all owned by {@code owner} */
+    static Transaction makeTxn(Transaction[] prevTxs, int[] index, double value, KeyPair owner) {
+        Transaction tx = new Transaction();
+        for (int i = 0; i < prevTxs.length; i++)
+            tx.addInput(prevTxs[i].getHash(), index[i]);
+        tx.addOutput(value, bob.getPublic());
+        return signAll(tx, owner);
+    }
+
+    /** @return a transaction paying {@code value} to bob out of output {@code index} of {@code prevTx} */
+    static Transaction makeTxn(Transaction prevTx, int index, double value, KeyPair owner) {
+        return makeTxn(new Transaction[] { prevTx }, new int[] { index }, value, owner);
+    }
+
+    /** Signs every input of {@code tx} with the key of {@code signer}, then finalizes it */
+    static Transaction signAll(Transaction tx, KeyPair signer) {
+        for (int i = 0; i < tx.numInputs(); i++)
+            Crypto.signInput(signer.getPrivate(), tx, i);
+        tx.finalize();
+        return tx;
+    }
+}
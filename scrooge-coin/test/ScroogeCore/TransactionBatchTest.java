@@ -0,0 +1,81 @@
+package ScroogeCore;
+
+import static ScroogeCore.TestLedger.*;
+
+import org.junit.jupiter.api.*;
+
+import java.security.*;
+import java.util.Arrays;
+
+class TransactionBatchTest {
+    static Transaction genesis;
+    static UTXOPool testPool;
+
+    @BeforeAll
+    static void setUpKeys() throws NoSuchAlgorithmException {
+        generateKeys();
+    }
+
+    @BeforeEach
+    void setUp() {
+        genesis = genesis(100, 50);
+        testPool = poolOf(genesis);
+    }
+
+    /** @return a transaction spending outputs {@code index} of the genesis transaction, signed by {@code signer} */
+    private static Transaction makeTxn(int[] index, double[] values, KeyPair signer) {
+        Transaction tx = new Transaction();
+        for (int i : index)
+            tx.addInput(genesis.getHash(), i);
+        for (int i = 0; i < values.length; i++)
+            tx.addOutput(values[i], i % 2 == 0 ? bob.getPublic() : alice.getPublic());
+        return signAll(tx, signer);
+    }
+
+    private Transaction[] makeTxns() throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+        Transaction missing = new Transaction();
+        missing.addInput("GenesisBlock".getBytes(), 0);
+        missing.addOutput(1, bob.getPublic());
+        missing.finalize();
+        return new Transaction[] {
+                makeTxn(new int[] { 0, 1 }, new double[] { 100, 30, 20 }, alice),
+                makeTxn(new int[] { 0 }, new double[] { 60, 50 }, alice),
+                makeTxn(new int[] { 1 }, new double[] { 60, -10 }, alice),
+                makeTxn(new int[] { 1, 1 }, new double[] { 60 }, alice),
+                makeTxn(new int[] { 0 }, new double[] { 10 }, bob),
+                makeTxn(new int[0], new double[] { 0 }, alice),
+                missing };
+    }
+
+    @Test
+    void shouldConvertToAndFromTransactions() throws InvalidKeyException, NoSuchAlgorithmException, SignatureException {
+        Transaction[] txns = makeTxns();
+        TransactionBatch batch = TransactionBatch.of(txns);
+        Transaction[] converted = batch.toTransactions();
+
+        assert(batch.size() == txns.length);
+        for (int i = 0; i < txns.length; i++) {
+            assert(Arrays.equals(converted[i].getHash(), txns[i].getHash()));
+            assert(Arrays.equals(converted[i].getRawTx(), txns[i].getRawTx()));
+            assert(batch.numInputs(i) == txns[i].numInputs());
+            assert(batch.numOutputs(i) == txns[i].numOutputs());
+        }
+        assert(batch.getSpentUTXO(0, 1).equals(new UTXO(genesis.getHash(), 1)));
+        assert(batch.getValue(0, 2) == 20);
+        assert(batch.getAddress(0, 1).equals(alice.getPublic()));
+        assert(Arrays.equals(batch.outputSums(), new double[] { 150, 110, 50, 60, 10, 0, 1 }));
+    }
+
+    @Test
+    void shouldValidateLikeTheHandler() throws InvalidKeyException, NoSuchAlgorithmException, SignatureException {
+        Transaction[] txns = makeTxns();
+        TxHandler txHandler = new TxHandler(testPool);
+        TxHandler.ThreeState[] states = TransactionBatch.of(txns).validate(testPool);
+
+        for (int i = 0; i < txns.length; i++)
+            assert(states[i] == txHandler.isValidTxV2(txns[i]));
+        assert(Arrays.equals(states, new TxHandler.ThreeState[] { TxHandler.ThreeState.TRUE,
+                TxHandler.ThreeState.FALSE, TxHandler.ThreeState.FALSE, TxHandler.ThreeState.FALSE,
+                TxHandler.ThreeState.FALSE, TxHandler.ThreeState.TRUE, TxHandler.ThreeState.MAYBE }));
+    }
+}
@@ -0,0 +1,132 @@
+package ScroogeCore;
+
+import org.junit.jupiter.api.*;
+
+import java.nio.ByteBuffer;
+import java.security.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+class TransactionCodecTest {
+    static KeyPair alice;
+    static KeyPair bob;
+
+    @BeforeEach
+    void setUp() throws NoSuchAlgorithmException {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        alice = keyGen.generateKeyPair();
+        bob = keyGen.generateKeyPair();
+    }
+
+    private Transaction makeTxn() throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+        Transaction transaction = new Transaction();
+        transaction.addInput("GenesisBlock".getBytes(), 0);
+        transaction.addInput("GenesisBlock".getBytes(), 3);
+        transaction.addOutput(10, bob.getPublic());
+        transaction.addOutput(89.5, alice.getPublic());
+
+        Signature sigInstance = Signature.getInstance("SHA256withRSA");
+        sigInstance.initSign(alice.getPrivate());
+        sigInstance.update(transaction.getRawDataToSign(0));
+        transaction.addSignature(sigInstance.sign(), 0);
+        transaction.finalize();
+        return transaction;
+    }
+
+    @Test
+    void shouldProduceTheLegacyRawEncoding() throws InvalidKeyException, NoSuchAlgorithmException, SignatureException {
+        Transaction transaction = makeTxn();
+
+        assert(Arrays.equals(transaction.getRawTx(), legacyRawTx(transaction)));
+        assert(Arrays.equals(transaction.getRawDataToSign(0), legacyRawDataToSign(transaction, 0)));
+        assert(Arrays.equals(transaction.getRawDataToSign(1), legacyRawDataToSign(transaction, 1)));
+        assert(transaction.getRawDataToSign(2) == null);
+    }
+
+    @Test
+    void shouldWriteExactlyThePrecomputedSize() throws InvalidKeyException, NoSuchAlgorithmException, SignatureException {
+        Transaction transaction = makeTxn();
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        buffer.position(7);
+
+        TransactionCodec.writeRawTx(transaction, buffer);
+        assert(buffer.position() == 7 + TransactionCodec.rawTxSize(transaction));
+
+        int before = buffer.position();
+        TransactionCodec.encode(transaction, buffer);
+        assert(buffer.position() == before + TransactionCodec.encodedSize(transaction));
+    }
+
+    @Test
+    void shouldDecodeWhatItEncodes() throws InvalidKeyException, NoSuchAlgorithmException, SignatureException {
+        Transaction transaction = makeTxn();
+
+        ByteBuffer buffer = ByteBuffer.wrap(TransactionCodec.encode(transaction));
+        Transaction decoded = TransactionCodec.decode(buffer);
+
+        assert(!buffer.hasRemaining());
+        assert(Arrays.equals(decoded.getHash(), transaction.getHash()));
+        assert(Arrays.equals(decoded.getRawTx(), transaction.getRawTx()));
+        assert(decoded.getInput(1).signature == null);
+        assert(decoded.getOutput(0).address.equals(bob.getPublic()));
+        decoded.finalize();
+        assert(Arrays.equals(decoded.getHash(), transaction.getHash()));
+    }
+
+    @Test
+    void shouldVerifyInputsAgainstTheCachedOutputsSection() throws InvalidKeyException, NoSuchAlgorithmException, SignatureException {
+        Transaction transaction = makeTxn();
+        byte[] signature = transaction.getInput(0).signature;
+
+        assert(Crypto.verifyInputSignature(alice.getPublic(), transaction, 0));
+        assert(Crypto.verifySignature(alice.getPublic(), transaction.getRawDataToSign(0), signature));
+        assert(!Crypto.verifyInputSignature(bob.getPublic(), transaction, 0));
+        assert(!Crypto.verifyInputSignature(alice.getPublic(), transaction, 1));
+
+        transaction.addOutput(0.5, bob.getPublic());
+
+        assert(Arrays.equals(transaction.getRawDataToSign(0), legacyRawDataToSign(transaction, 0)));
+        assert(!Crypto.verifyInputSignature(alice.getPublic(), transaction, 0));
+    }
+
+    /** the boxing implementation the codec replaced, kept as the reference encoding */
+    private static byte[] legacyRawTx(Transaction tx) {
+        ArrayList<Byte> rawTx = new ArrayList<Byte>();
+        for (Transaction.Input in : tx.getInputs()) {
+            addAll(rawTx, in.prevTxHash);
+            addAll(rawTx, ByteBuffer.allocate(Integer.SIZE / 8).putInt(in.outputIndex).array());
+            addAll(rawTx, in.signature);
+        }
+        for (Transaction.Output op : tx.getOutputs()) {
+            addAll(rawTx, ByteBuffer.allocate(Double.SIZE / 8).putDouble(op.value).array());
+            addAll(rawTx, op.address.getEncoded());
+        }
+        return unbox(rawTx);
+    }
+
+    private static byte[] legacyRawDataToSign(Transaction tx, int index) {
+        ArrayList<Byte> sigData = new ArrayList<Byte>();
+        Transaction.Input in = tx.getInput(index);
+        addAll(sigData, in.prevTxHash);
+        addAll(sigData, ByteBuffer.allocate(Integer.SIZE / 8).putInt(in.outputIndex).array());
+        for (Transaction.Output op : tx.getOutputs()) {
+            addAll(sigData, ByteBuffer.allocate(Double.SIZE / 8).putDouble(op.value).array());
+            addAll(sigData, op.address.getEncoded());
+        }
+        return unbox(sigData);
+    }
+
+    private static void addAll(ArrayList<Byte> list, byte[] bytes) {
+        if (bytes != null)
+            for (byte b : bytes)
+                list.add(b);
+    }
+
+    private static byte[] unbox(ArrayList<Byte> list) {
+        byte[] bytes = new byte[list.size()];
+        int i = 0;
+        for (Byte b : list)
+            bytes[i++] = b;
+        return bytes;
+    }
+}
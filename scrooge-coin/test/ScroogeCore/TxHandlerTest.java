@@ -5,10 +5,16 @@ import org.junit.jupiter.api.*;
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
 import java.security.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by ramneek on 26/10/17.
@@ -490,6 +496,215 @@ class TxHandlerTest {
         assert(txHandler.getPool().getAllUTXO().size() == 4);
     }
 
+    @Test
+    void shouldHandleLongChainGivenInReverseOrder() throws InvalidKeyException, NoSuchAlgorithmException, SignatureException {
+        TxHandler txHandler = new TxHandler(testPool);
+        PrivateKey pk = validKeyPairs.get(validPublicKeys.get(0));
+        ArrayList<Tuple<Double, PublicKey>> outputs = new ArrayList<Tuple<Double, PublicKey>>();
+        outputs.add(new Tuple<Double, PublicKey>(new Double(99), validPublicKeys.get(0)));
+        Transaction txn = makeTxn(0, 0, outputs, pk);
+
+        Transaction[] txns = new Transaction[20];
+        txns[txns.length - 1] = txn;
+        for (int i = txns.length - 2; i >= 0; i--) {
+            outputs.clear();
+            outputs.add(new Tuple<Double, PublicKey>(new Double(60 + i), validPublicKeys.get(0)));
+            txns[i] = makeTxnWithUTXO(new UTXO(txns[i + 1].getHash(), 0), outputs, pk);
+        }
+
+        Transaction[] tApplied = txHandler.handleTxs(txns);
+
+        assert(tApplied.length == 20);
+        assert(tApplied[0] == txn);
+        assert(txHandler.getPool().getAllUTXO().size() == 1);
+        assert(txHandler.getPool().contains(new UTXO(txns[0].getHash(), 0)));
+    }
+
+    @Test
+    void shouldDropDependantsOfTheLosingConflictingTxn() throws InvalidKeyException, NoSuchAlgorithmException, SignatureException {
+        TxHandler txHandler = new TxHandler(testPool);
+        PrivateKey pk = validKeyPairs.get(validPublicKeys.get(0));
+        ArrayList<Tuple<Double, PublicKey>> outputs = new ArrayList<Tuple<Double, PublicKey>>();
+        outputs.add(new Tuple<Double, PublicKey>(new Double(90), validPublicKeys.get(0)));
+        Transaction winner = makeTxn(0, 0, outputs, pk);
+        outputs.clear();
+        outputs.add(new Tuple<Double, PublicKey>(new Double(80), validPublicKeys.get(0)));
+        Transaction loser = makeTxn(0, 0, outputs, pk);
+        outputs.clear();
+        outputs.add(new Tuple<Double, PublicKey>(new Double(70), validPublicKeys.get(1)));
+        Transaction loserChild = makeTxnWithUTXO(new UTXO(loser.getHash(), 0), outputs, pk);
+
+        Transaction[] tApplied = txHandler.handleTxs(new Transaction[] { loserChild, winner, loser });
+
+        assert(tApplied.length == 1);
+        assert(tApplied[0] == winner);
+        assert(txHandler.getPool().getAllUTXO().size() == 1);
+    }
+
+    @Test
+    void shouldAcceptTheSameTxnsWhenVerifyingInParallel() throws InvalidKeyException, NoSuchAlgorithmException, SignatureException {
+        PrivateKey pk = validKeyPairs.get(validPublicKeys.get(0));
+        ArrayList<Tuple<Double, PublicKey>> outputs = new ArrayList<Tuple<Double, PublicKey>>();
+        outputs.add(new Tuple<Double, PublicKey>(new Double(50), validPublicKeys.get(1)));
+        outputs.add(new Tuple<Double, PublicKey>(new Double(40), validPublicKeys.get(0)));
+        Transaction txn = makeTxn(0, 0, outputs, pk);
+        outputs.clear();
+        outputs.add(new Tuple<Double, PublicKey>(new Double(30), validPublicKeys.get(2)));
+        Transaction goodChild = makeTxnWithUTXO(new UTXO(txn.getHash(), 1), outputs, pk);
+        Transaction badlySignedChild = makeTxnWithUTXO(new UTXO(txn.getHash(), 0), outputs, pk);
+        Transaction[] txns = new Transaction[] { badlySignedChild, goodChild, txn };
+
+        Transaction[] sequential = new TxHandler(new UTXOPool(testPool)).handleTxs(txns);
+
+        ForkJoinPool executor = new ForkJoinPool(4);
+        TxHandler txHandler = new TxHandler(new UTXOPool(testPool));
+        txHandler.setVerificationExecutor(executor);
+        Transaction[] parallel = txHandler.handleTxs(txns);
+        executor.shutdown();
+
+        assert(sequential.length == 2);
+        assert(Arrays.equals(sequential, parallel));
+    }
+
+    @Test
+    void shouldRecordRejectionsAndPhasesIntoMetrics() throws Exception {
+        TxHandler txHandler = new TxHandler(testPool);
+        TxHandlerMetrics metrics = new TxHandlerMetrics();
+        txHandler.setMetrics(metrics);
+        PrivateKey pk = validKeyPairs.get(validPublicKeys.get(0));
+        ArrayList<Tuple<Double, PublicKey>> outputs = new ArrayList<Tuple<Double, PublicKey>>();
+        outputs.add(new Tuple<Double, PublicKey>(new Double(90), validPublicKeys.get(0)));
+        Transaction winner = makeTxn(0, 0, outputs, pk);
+        outputs.clear();
+        outputs.add(new Tuple<Double, PublicKey>(new Double(80), validPublicKeys.get(0)));
+        Transaction loser = makeTxn(0, 0, outputs, pk);
+        Transaction loserChild = makeTxnWithUTXO(new UTXO(loser.getHash(), 0), outputs, pk);
+        Transaction badlySigned = makeTxnWithUTXO(new UTXO(winner.getHash(), 0), outputs,
+                validKeyPairs.get(validPublicKeys.get(1)));
+        outputs.clear();
+        outputs.add(new Tuple<Double, PublicKey>(new Double(95), validPublicKeys.get(0)));
+        Transaction overspend = makeTxnWithUTXO(new UTXO(winner.getHash(), 0), outputs, pk);
+
+        txHandler.handleTxs(new Transaction[] { winner, loser, loserChild, overspend, badlySigned });
+
+        assert(metrics.getEpochs() == 1);
+        assert(metrics.getProposedTxs() == 5);
+        assert(metrics.getAcceptedTxs() == 1);
+        assert(metrics.getPoolSize() == 1);
+        assert(metrics.getRejections(RejectReason.CONFLICT) == 1);
+        assert(metrics.getRejections(RejectReason.MISSING_UTXO) == 1);
+        assert(metrics.getRejections(RejectReason.OVERSPEND) == 1);
+        assert(metrics.getRejections(RejectReason.BAD_SIGNATURE) == 1);
+        assert(metrics.getCount(TxHandlerMetrics.Phase.CLASSIFY) == 1);
+        assert(metrics.getCount(TxHandlerMetrics.Phase.SIGNATURES) == 0);
+        assert(metrics.getQuantileNanos(TxHandlerMetrics.Phase.EPOCH, 1)
+                >= metrics.getMeanNanos(TxHandlerMetrics.Phase.CLASSIFY));
+
+        ObjectName name = metrics.register("shouldRecordRejectionsAndPhasesIntoMetrics");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assert(server.getAttribute(name, "AcceptedTxs").equals(1L));
+        metrics.unregister();
+        assert(!server.isRegistered(name));
+    }
+
+    @Test
+    void shouldRejectCheapFailuresBeforeVerifyingSignatures() throws Exception {
+        TxHandler txHandler = new TxHandler(testPool);
+        AtomicInteger verified = new AtomicInteger();
+        ValidationPipeline counted = new ValidationPipeline();
+        for (ValidationRule.Cost cost : new ValidationRule.Cost[] { ValidationRule.Cost.STRUCTURE,
+                ValidationRule.Cost.POOL }) {
+            for (ValidationRule rule : ValidationPipeline.DEFAULT.getRules(cost))
+                counted = counted.withRule(cost, rule);
+        }
+        counted = counted.withRule(ValidationRule.Cost.CRYPTO, (tx, spent) -> {
+            verified.incrementAndGet();
+            return ValidationRule.SIGNATURES.check(tx, spent);
+        });
+        txHandler.setValidationPipeline(counted);
+
+        PrivateKey stranger = validKeyPairs.get(validPublicKeys.get(1));
+        ArrayList<Tuple<Double, PublicKey>> outputs = new ArrayList<Tuple<Double, PublicKey>>();
+        outputs.add(new Tuple<Double, PublicKey>(new Double(-1), validPublicKeys.get(0)));
+        Transaction negative = makeTxn(0, 0, outputs, stranger);
+        outputs.clear();
+        outputs.add(new Tuple<Double, PublicKey>(new Double(101), validPublicKeys.get(0)));
+        Transaction overspend = makeTxn(0, 0, outputs, stranger);
+        Transaction doubleClaim = new Transaction();
+        doubleClaim.addInput("nowhere".getBytes(), 0);
+        doubleClaim.addInput("nowhere".getBytes(), 0);
+        doubleClaim.finalize();
+
+        assert(txHandler.validate(negative, testPool, false) == RejectReason.NEGATIVE_OUTPUT);
+        assert(txHandler.validate(overspend, testPool, false) == RejectReason.OVERSPEND);
+        // a transaction that can never be valid is not held as an orphan
+        assert(txHandler.isValidTxV2(doubleClaim) == TxHandler.ThreeState.FALSE);
+        assert(verified.get() == 0);
+
+        outputs.clear();
+        outputs.add(new Tuple<Double, PublicKey>(new Double(50), validPublicKeys.get(0)));
+        assert(!txHandler.isValidTx(makeTxn(0, 0, outputs, stranger)));
+        assert(txHandler.isValidTx(makeTxn(0, 0, outputs, validKeyPairs.get(validPublicKeys.get(0)))));
+        assert(verified.get() == 2);
+    }
+
+    @Test
+    void shouldEnforceCustomCryptoRulesWhateverVerifiesSignatures() throws Exception {
+        // a rule of crypto cost standing in for e.g. a second signature; it vetoes outputs worth exactly 42
+        ValidationPipeline pipeline = ValidationPipeline.DEFAULT.withRule(ValidationRule.Cost.CRYPTO,
+                (tx, spent) -> tx.getOutput(0).value == 42 ? RejectReason.BAD_SIGNATURE : null);
+        PrivateKey pk = validKeyPairs.get(validPublicKeys.get(0));
+        ArrayList<Tuple<Double, PublicKey>> outputs = new ArrayList<Tuple<Double, PublicKey>>();
+        outputs.add(new Tuple<Double, PublicKey>(new Double(42), validPublicKeys.get(0)));
+        Transaction vetoed = makeTxn(0, 0, outputs, pk);
+
+        ForkJoinPool executor = new ForkJoinPool(2);
+        TxHandler parallel = new TxHandler(new UTXOPool(testPool));
+        parallel.setVerificationExecutor(executor);
+        TxHandler maxFee = new MaxFeeTxHandler(new UTXOPool(testPool));
+        TxHandler parallelMaxFee = new MaxFeeTxHandler(new UTXOPool(testPool));
+        parallelMaxFee.setVerificationExecutor(executor);
+        for (TxHandler txHandler : new TxHandler[] { parallel, maxFee, parallelMaxFee }) {
+            txHandler.setValidationPipeline(pipeline);
+            assert(txHandler.handleTxs(new Transaction[] { vetoed }).length == 0);
+        }
+        executor.shutdown();
+
+        outputs.clear();
+        outputs.add(new Tuple<Double, PublicKey>(new Double(41), validPublicKeys.get(0)));
+        TxHandler txHandler = new MaxFeeTxHandler(testPool);
+        txHandler.setValidationPipeline(pipeline);
+        assert(txHandler.handleTxs(new Transaction[] { makeTxn(0, 0, outputs, pk) }).length == 1);
+    }
+
+    @Test
+    void shouldCommitEachEpochToAMerkleTree() throws InvalidKeyException, NoSuchAlgorithmException, SignatureException {
+        TxHandler txHandler = new TxHandler(testPool);
+        assert(txHandler.getEpochTree() == null);
+        PrivateKey pk = validKeyPairs.get(validPublicKeys.get(0));
+        ArrayList<Tuple<Double, PublicKey>> outputs = new ArrayList<Tuple<Double, PublicKey>>();
+        outputs.add(new Tuple<Double, PublicKey>(new Double(10), validPublicKeys.get(1)));
+        outputs.add(new Tuple<Double, PublicKey>(new Double(80), validPublicKeys.get(0)));
+        Transaction parent = makeTxn(0, 0, outputs, pk);
+        Transaction[] tApplied = txHandler.handleTxs(new Transaction[] { parent });
+
+        assert(tApplied.length == 1);
+        assert(txHandler.getEpochTree().size() == 1);
+
+        outputs.clear();
+        outputs.add(new Tuple<Double, PublicKey>(new Double(5), validPublicKeys.get(0)));
+        Transaction first = makeTxnWithUTXO(new UTXO(parent.getHash(), 0), outputs,
+                validKeyPairs.get(validPublicKeys.get(1)));
+        Transaction second = makeTxnWithUTXO(new UTXO(parent.getHash(), 1), outputs, pk);
+        tApplied = txHandler.handleTxs(new Transaction[] { first, second });
+
+        MerkleTree tree = txHandler.getEpochTree();
+        assert(tApplied.length == 2);
+        assert(tree.size() == 2);
+        assert(MerkleTree.verify(tree.getRoot(), tApplied[1].getHash(), tree.proof(1)));
+        assert(!MerkleTree.verify(tree.getRoot(), tApplied[0].getHash(), tree.proof(1)));
+    }
+
     private Transaction makeTxnWithUTXO(UTXO utxo, ArrayList<Tuple<Double, PublicKey>> outputs, PrivateKey pk) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
         Signature sigInstance = Signature.getInstance("SHA256withRSA");
         sigInstance.initSign(pk);
@@ -0,0 +1,429 @@
+package ScroogeCore;
+
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+class UTXOPoolTest {
+    static PublicKey alice;
+    static PublicKey bob;
+
+    @BeforeEach
+    void setUp() throws NoSuchAlgorithmException {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        alice = keyGen.generateKeyPair().getPublic();
+        bob = keyGen.generateKeyPair().getPublic();
+    }
+
+    private static ArrayList<UTXO> randomUTXOs(int num) {
+        Random random = new Random(42);
+        ArrayList<UTXO> utxos = new ArrayList<UTXO>();
+        for (int i = 0; i < num; i++) {
+            byte[] hash = new byte[32];
+            random.nextBytes(hash);
+            utxos.add(new UTXO(hash, i % 3));
+        }
+        return utxos;
+    }
+
+    private static void shouldBehaveLikeAMap(UTXOPool pool) {
+        ArrayList<UTXO> utxos = randomUTXOs(5000);
+        for (int i = 0; i < utxos.size(); i++)
+            pool.addUTXO(utxos.get(i), new Transaction.Output(i, i % 2 == 0 ? alice : bob));
+        for (int i = 0; i < utxos.size(); i += 2)
+            pool.removeUTXO(utxos.get(i));
+        pool.addUTXO(utxos.get(1), new Transaction.Output(0.25, alice));
+
+        assert(pool.size() == utxos.size() / 2);
+        assert(new HashSet<UTXO>(pool.getAllUTXO()).size() == utxos.size() / 2);
+        assert(!pool.contains(utxos.get(0)));
+        assert(pool.getTxOutput(utxos.get(0)) == null);
+        assert(pool.contains(new UTXO(utxos.get(3).getTxHash(), utxos.get(3).getIndex())));
+        assert(pool.getTxOutput(utxos.get(3)).value == 3);
+        assert(pool.getTxOutput(utxos.get(3)).address.equals(bob));
+        assert(pool.getTxOutput(utxos.get(1)).value == 0.25);
+        assert(pool.getTxOutput(utxos.get(1)).address.equals(alice));
+        assert(!pool.contains(new UTXO("GenesisBlock".getBytes(), 0)));
+    }
+
+    private static void shouldStreamASnapshot(UTXOPool pool) {
+        ArrayList<UTXO> utxos = randomUTXOs(20000);
+        for (int i = 0; i < utxos.size(); i++)
+            pool.addUTXO(utxos.get(i), new Transaction.Output(i % 100, i % 4 == 0 ? alice : bob));
+
+        Stream<Map.Entry<UTXO, Transaction.Output>> all = pool.parallelStream(UTXOFilter.ALL);
+        Stream<Map.Entry<UTXO, Transaction.Output>> alices = pool.stream(UTXOFilter.ALL.ownedBy(alice));
+        Stream<Map.Entry<UTXO, Transaction.Output>> range = pool.stream(UTXOFilter.ALL.valueBetween(10, 19.5));
+        // writes after the streams are created are not seen by them
+        for (int i = 0; i < 1000; i++)
+            pool.removeUTXO(utxos.get(i));
+        pool.addUTXO(utxos.get(0), new Transaction.Output(1000, alice));
+
+        assert(all.mapToDouble(e -> e.getValue().value).sum() == 200 * 4950);
+        assert(alices.filter(e -> e.getValue().address.equals(alice)).count() == 5000);
+        assert(range.count() == 2000);
+        assert(pool.stream().count() == utxos.size() - 999);
+        assert(pool.stream(UTXOFilter.ALL.ownedBy(alice).valueBetween(1000, 1000)).count() == 1);
+    }
+
+    @Test
+    void poolsShouldStreamASnapshotOfTheirEntries() {
+        shouldStreamASnapshot(new UTXOPool());
+        shouldStreamASnapshot(new OffHeapUTXOPool());
+        shouldStreamASnapshot(new OverlayUTXOPool(new UTXOPool()));
+        shouldStreamASnapshot(new AddressIndexedUTXOPool(new OffHeapUTXOPool()));
+        shouldStreamASnapshot(new ShardedUTXOPool());
+    }
+
+    @Test
+    void streamsShouldStopReadingThePoolOnceExhaustedOrClosed() {
+        UTXOPool pool = new UTXOPool();
+        for (UTXO ut : randomUTXOs(20000))
+            pool.addUTXO(ut, new Transaction.Output(1, alice));
+        AtomicInteger readers = new AtomicInteger(3);
+
+        UTXOPool.Lease lease = new UTXOPool.Lease(readers);
+        long count = StreamSupport.stream(new UTXOPool.Reader(pool.spliterator(UTXOFilter.ALL), lease), true).count();
+        assert(count == 20000);
+        assert(readers.get() == 2);
+        lease.release();
+        assert(readers.get() == 2);
+
+        lease = new UTXOPool.Lease(readers);
+        Stream<Map.Entry<UTXO, Transaction.Output>> stream =
+                StreamSupport.stream(new UTXOPool.Reader(pool.spliterator(UTXOFilter.ALL), lease), false);
+        assert(stream.onClose(lease::release).findFirst().isPresent());
+        assert(readers.get() == 2);
+        stream.close();
+        assert(readers.get() == 1);
+    }
+
+    @Test
+    void heapPoolShouldBehaveLikeAMap() {
+        shouldBehaveLikeAMap(new UTXOPool());
+    }
+
+    @Test
+    void offHeapPoolShouldBehaveLikeAMap() {
+        shouldBehaveLikeAMap(new OffHeapUTXOPool());
+    }
+
+    @Test
+    void offHeapPoolShouldCopyItsEntries() {
+        OffHeapUTXOPool pool = new OffHeapUTXOPool();
+        ArrayList<UTXO> utxos = randomUTXOs(100);
+        for (UTXO ut : utxos)
+            pool.addUTXO(ut, new Transaction.Output(1, alice));
+
+        UTXOPool copy = pool.copy();
+        pool.removeUTXO(utxos.get(0));
+        UTXOPool heapCopy = new UTXOPool(pool);
+
+        assert(copy.size() == 100 && copy.contains(utxos.get(0)));
+        assert(heapCopy.size() == 99 && !heapCopy.contains(utxos.get(0)));
+        assert(new OffHeapUTXOPool(heapCopy).size() == 99);
+    }
+
+    @Test
+    void overlayPoolShouldBehaveLikeAMap() {
+        shouldBehaveLikeAMap(new OverlayUTXOPool(new UTXOPool()));
+    }
+
+    @Test
+    void indexedPoolShouldBehaveLikeAMap() {
+        shouldBehaveLikeAMap(new AddressIndexedUTXOPool(new OffHeapUTXOPool()));
+    }
+
+    @Test
+    void shardedPoolShouldBehaveLikeAMap() {
+        shouldBehaveLikeAMap(new ShardedUTXOPool());
+        shouldBehaveLikeAMap(new ShardedUTXOPool(1));
+    }
+
+    @Test
+    void shardedPoolShouldServeReadersWhileAnEpochCommitsInParallel() throws InterruptedException {
+        ArrayList<UTXO> utxos = randomUTXOs(40000);
+        ShardedUTXOPool pool = new ShardedUTXOPool(16);
+        Transaction.Output[] outputs = new Transaction.Output[utxos.size()];
+        for (int i = 0; i < utxos.size(); i++) {
+            outputs[i] = new Transaction.Output(i, alice);
+            if (i < 20000)
+                pool.addUTXO(utxos.get(i), outputs[i]);
+        }
+        ForkJoinPool executor = new ForkJoinPool(4);
+        pool.setWriteExecutor(executor);
+
+        // readers only ever see an entry missing or holding its one output
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicBoolean wrong = new AtomicBoolean();
+        Thread[] readers = new Thread[3];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread(() -> {
+                Random random = new Random();
+                while (!done.get()) {
+                    int i = random.nextInt(utxos.size());
+                    Transaction.Output out = pool.getTxOutput(utxos.get(i));
+                    if (out != null && out != outputs[i])
+                        wrong.set(true);
+                }
+            });
+            readers[r].start();
+        }
+        OverlayUTXOPool epoch = new OverlayUTXOPool(pool);
+        for (int i = 0; i < 10000; i++)
+            epoch.removeUTXO(utxos.get(i));
+        for (int i = 20000; i < utxos.size(); i++)
+            epoch.addUTXO(utxos.get(i), outputs[i]);
+        epoch.commit();
+        done.set(true);
+        for (Thread reader : readers)
+            reader.join();
+        executor.shutdown();
+
+        assert(!wrong.get());
+        assert(pool.size() == 30000);
+        assert(!pool.contains(utxos.get(0)) && pool.getTxOutput(utxos.get(39999)) == outputs[39999]);
+        assert(new UTXOPool(pool).size() == 30000 && pool.copy().size() == 30000);
+    }
+
+    @Test
+    void versionedPoolShouldBehaveLikeAMap() {
+        shouldBehaveLikeAMap(new VersionedUTXOPool());
+        shouldStreamASnapshot(new VersionedUTXOPool());
+    }
+
+    @Test
+    void versionedPoolSnapshotsShouldKeepTheirEpoch() {
+        ArrayList<UTXO> utxos = randomUTXOs(4);
+        ShardedUTXOPool base = new ShardedUTXOPool();
+        base.addUTXO(utxos.get(0), new Transaction.Output(1, alice));
+        base.addUTXO(utxos.get(1), new Transaction.Output(2, alice));
+        VersionedUTXOPool pool = new VersionedUTXOPool(base);
+        VersionedUTXOPool.Snapshot genesis = pool.snapshot();
+
+        OverlayUTXOPool epoch = new OverlayUTXOPool(pool);
+        epoch.removeUTXO(utxos.get(0));
+        epoch.addUTXO(utxos.get(2), new Transaction.Output(3, bob));
+        epoch.commit();
+        VersionedUTXOPool.Snapshot first = pool.snapshot();
+        epoch.removeUTXO(utxos.get(2));
+        epoch.addUTXO(utxos.get(0), new Transaction.Output(4, bob));
+        epoch.addUTXO(utxos.get(3), new Transaction.Output(5, bob));
+        epoch.commit();
+
+        assert(genesis.getEpoch() == 0 && first.getEpoch() == 1 && pool.snapshot().getEpoch() == 2);
+        assert(genesis.size() == 2 && genesis.getTxOutput(utxos.get(0)).value == 1 && !genesis.contains(utxos.get(2)));
+        assert(first.size() == 2 && !first.contains(utxos.get(0)) && first.getTxOutput(utxos.get(2)).value == 3);
+        assert(new HashSet<UTXO>(first.getAllUTXO()).equals(new HashSet<UTXO>(Arrays.asList(utxos.get(1),
+                utxos.get(2)))));
+        assert(first.stream(UTXOFilter.ALL.ownedBy(bob)).count() == 1);
+        assert(pool.snapshot().size() == 3 && pool.snapshot().getTxOutput(utxos.get(0)).value == 4);
+        try {
+            first.addUTXO(utxos.get(3), new Transaction.Output(6, bob));
+            assert(false);
+        } catch (UnsupportedOperationException e) {
+            assert(!first.contains(utxos.get(3)));
+        }
+    }
+
+    @Test
+    void versionedPoolSnapshotsShouldNeverShowPartOfAnEpoch() throws InterruptedException {
+        ArrayList<UTXO> utxos = randomUTXOs(20000);
+        ShardedUTXOPool base = new ShardedUTXOPool(16);
+        for (int i = 0; i < 10000; i++)
+            base.addUTXO(utxos.get(i), new Transaction.Output(0, alice));
+        ForkJoinPool executor = new ForkJoinPool(4);
+        base.setWriteExecutor(executor);
+        VersionedUTXOPool pool = new VersionedUTXOPool(base);
+
+        // epoch e moves every coin to a new entry worth e, so a snapshot must see 10000 coins all worth its epoch
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicBoolean wrong = new AtomicBoolean();
+        Thread[] readers = new Thread[2];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread(() -> {
+                Random random = new Random();
+                while (!done.get()) {
+                    VersionedUTXOPool.Snapshot snapshot = pool.snapshot();
+                    int offset = snapshot.getEpoch() % 2 == 0 ? 0 : 10000;
+                    for (int k = 0; k < 100; k++) {
+                        Transaction.Output out = snapshot.getTxOutput(utxos.get(offset + random.nextInt(10000)));
+                        if (out == null || out.value != snapshot.getEpoch() || snapshot.size() != 10000)
+                            wrong.set(true);
+                    }
+                }
+            });
+            readers[r].start();
+        }
+        OverlayUTXOPool epoch = new OverlayUTXOPool(pool);
+        for (int e = 1; e <= 10; e++) {
+            int from = e % 2 == 0 ? 10000 : 0;
+            int to = 10000 - from;
+            for (int i = 0; i < 10000; i++) {
+                epoch.removeUTXO(utxos.get(from + i));
+                epoch.addUTXO(utxos.get(to + i), new Transaction.Output(e, alice));
+            }
+            epoch.commit();
+        }
+        done.set(true);
+        for (Thread reader : readers)
+            reader.join();
+        executor.shutdown();
+
+        assert(!wrong.get());
+        assert(pool.snapshot().getEpoch() == 10 && pool.size() == 10000);
+    }
+
+    @Test
+    void indexedPoolShouldKeepEachOwnersCoinsSortedByValue() {
+        ArrayList<UTXO> utxos = randomUTXOs(6);
+        UTXOPool base = new UTXOPool();
+        base.addUTXO(utxos.get(0), new Transaction.Output(5, alice));
+        AddressIndexedUTXOPool pool = new AddressIndexedUTXOPool(base);
+        pool.addUTXO(utxos.get(1), new Transaction.Output(1, alice));
+        pool.addUTXO(utxos.get(2), new Transaction.Output(3, alice));
+        pool.addUTXO(utxos.get(3), new Transaction.Output(7, bob));
+        pool.addUTXO(utxos.get(4), new Transaction.Output(2, alice));
+        pool.removeUTXO(utxos.get(4));
+        // replacing an entry moves it to its new owner
+        pool.addUTXO(utxos.get(3), new Transaction.Output(4, alice));
+
+        assert(pool.getBalance(alice) == 13);
+        assert(pool.getBalance(bob) == 0 && pool.numUTXOs(bob) == 0);
+        assert(pool.getUTXOs(alice).equals(Arrays.asList(utxos.get(1), utxos.get(2), utxos.get(3), utxos.get(0))));
+        assert(pool.selectCoins(alice, 3).equals(Arrays.asList(utxos.get(2))));
+        assert(pool.selectCoins(alice, 6).equals(Arrays.asList(utxos.get(0), utxos.get(3))));
+        assert(pool.selectCoins(alice, 14) == null);
+
+        OverlayUTXOPool overlay = new OverlayUTXOPool(pool);
+        overlay.removeUTXO(utxos.get(0));
+        overlay.addUTXO(utxos.get(5), new Transaction.Output(6, bob));
+        assert(pool.getBalance(alice) == 13);
+        overlay.commit();
+        assert(pool.getBalance(alice) == 8 && pool.getBalance(bob) == 6);
+        assert(base.size() == 4);
+    }
+
+    @Test
+    void indexedPoolShouldNotInternKeysThatOwnNothing() throws NoSuchAlgorithmException {
+        AddressIndexedUTXOPool pool = new AddressIndexedUTXOPool(new UTXOPool());
+        pool.addUTXO(randomUTXOs(1).get(0), new Transaction.Output(1, alice));
+        PublicKey stranger = KeyPairGenerator.getInstance("RSA").generateKeyPair().getPublic();
+        int interned = KeyRegistry.getDefault().size();
+
+        assert(pool.getBalance(stranger) == 0 && pool.numUTXOs(stranger) == 0);
+        assert(pool.selectCoins(stranger, 0.5) == null && pool.getUTXOs(stranger).isEmpty());
+        assert(KeyRegistry.getDefault().size() == interned);
+        assert(KeyRegistry.getDefault().idIfPresent(stranger) == -1);
+        assert(KeyRegistry.getDefault().idIfPresent(alice) == KeyRegistry.getDefault().idOf(alice));
+
+        // a filter on an unknown owner passes nothing, whether or not the pool has an index
+        assert(pool.stream(UTXOFilter.ALL.ownedBy(stranger)).count() == 0);
+        assert(pool.getBase().stream(UTXOFilter.ALL.ownedBy(stranger)).count() == 0);
+        assert(KeyRegistry.getDefault().size() == interned);
+    }
+
+    @Test
+    void overlayPoolShouldOnlyChangeItsBaseOnCommit() {
+        UTXOPool base = new UTXOPool();
+        ArrayList<UTXO> utxos = randomUTXOs(4);
+        base.addUTXO(utxos.get(0), new Transaction.Output(1, alice));
+        base.addUTXO(utxos.get(1), new Transaction.Output(2, alice));
+
+        OverlayUTXOPool overlay = new OverlayUTXOPool(base);
+        overlay.removeUTXO(utxos.get(0));
+        overlay.addUTXO(utxos.get(1), new Transaction.Output(3, bob));
+        overlay.addUTXO(utxos.get(2), new Transaction.Output(4, bob));
+
+        assert(overlay.size() == 2);
+        assert(!overlay.contains(utxos.get(0)));
+        assert(overlay.getTxOutput(utxos.get(1)).value == 3);
+        assert(base.size() == 2 && base.contains(utxos.get(0)) && !base.contains(utxos.get(2)));
+
+        overlay.rollback();
+        assert(overlay.size() == 2 && overlay.contains(utxos.get(0)) && overlay.getTxOutput(utxos.get(1)).value == 2);
+
+        overlay.removeUTXO(utxos.get(0));
+        overlay.addUTXO(utxos.get(1), new Transaction.Output(3, bob));
+        overlay.addUTXO(utxos.get(2), new Transaction.Output(4, bob));
+        overlay.commit();
+
+        assert(overlay.numChanges() == 0);
+        assert(base.size() == 2 && !base.contains(utxos.get(0)));
+        assert(base.getTxOutput(utxos.get(1)).value == 3);
+        assert(base.getTxOutput(utxos.get(2)).address.equals(bob));
+    }
+
+    @Test
+    void mappedPoolShouldBehaveLikeAMap() throws IOException {
+        MappedUTXOPool pool = new MappedUTXOPool(Files.createTempDirectory("utxo"));
+        shouldBehaveLikeAMap(pool);
+        pool.commit();
+        shouldBehaveLikeAMap(pool);
+        pool.close();
+    }
+
+    @Test
+    void mappedPoolShouldKeepItsEntriesAcrossRestarts() throws IOException {
+        Path dir = Files.createTempDirectory("utxo");
+        ArrayList<UTXO> utxos = randomUTXOs(1000);
+        MappedUTXOPool pool = new MappedUTXOPool(dir);
+        pool.setCheckpointInterval(4);
+        for (int epoch = 0; epoch < 10; epoch++) {
+            for (int i = epoch * 100; i < epoch * 100 + 100; i++)
+                pool.addUTXO(utxos.get(i), new Transaction.Output(i, i % 2 == 0 ? alice : bob));
+            pool.removeUTXO(utxos.get(epoch * 100));
+            pool.commit();
+        }
+        pool.close();
+
+        MappedUTXOPool reopened = new MappedUTXOPool(dir);
+        assert(reopened.getEpoch() == 10);
+        assert(reopened.size() == 990);
+        assert(!reopened.contains(utxos.get(500)));
+        assert(reopened.getTxOutput(utxos.get(501)).value == 501);
+        assert(reopened.getTxOutput(utxos.get(501)).address.equals(bob));
+        reopened.close();
+    }
+
+    @Test
+    void mappedPoolShouldReplayTheJournalAfterACrash() throws IOException {
+        Path dir = Files.createTempDirectory("utxo");
+        ArrayList<UTXO> utxos = randomUTXOs(3);
+        MappedUTXOPool pool = new MappedUTXOPool(dir);
+        pool.addUTXO(utxos.get(0), new Transaction.Output(1, alice));
+        pool.addUTXO(utxos.get(1), new Transaction.Output(2, bob));
+        pool.commit();
+        pool.removeUTXO(utxos.get(0));
+        pool.commit();
+        pool.addUTXO(utxos.get(2), new Transaction.Output(3, bob));
+        // never closed, and the last epoch never committed; a torn record follows the journal
+        try (FileChannel journal = FileChannel.open(dir.resolve("utxo.journal"), StandardOpenOption.WRITE)) {
+            journal.write(ByteBuffer.wrap(new byte[] { 0, 0, 0, 0, 0, 0, 0, 3, 0, 0 }), journal.size());
+        }
+
+        MappedUTXOPool recovered = new MappedUTXOPool(dir);
+        assert(recovered.getEpoch() == 2);
+        assert(recovered.size() == 1);
+        assert(!recovered.contains(utxos.get(0)));
+        assert(recovered.getTxOutput(utxos.get(1)).address.equals(bob));
+        assert(!recovered.contains(utxos.get(2)));
+        recovered.close();
+    }
+}